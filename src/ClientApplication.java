@@ -1,6 +1,11 @@
 // Avromi Schneierson - 11/3/2023
 package src;
 
+import src.InternetProtocolHandling.enums.Codec;
+import src.InternetProtocolHandling.enums.TransferMode;
+import src.InternetProtocolHandling.enums.Transport;
+import src.InternetProtocolHandling.enums.WireFormat;
+import src.engine.AdaptiveSegmentSize;
 import javafx.application.Application;
 import javafx.concurrent.WorkerStateEvent;
 import javafx.event.EventHandler;
@@ -19,7 +24,6 @@ import javafx.stage.FileChooser;
 import javafx.stage.Stage;
 
 import java.io.File;
-import java.io.FileWriter;
 
 /**
  * The GUI application for the Client. This class is responsible for setting up the Client GUI and managing the MessageReceiver
@@ -30,6 +34,11 @@ public class ClientApplication extends Application {
     private final int WINDOW_HEIGHT = 275;
     private final int STAGE_PADDING = 10;
     private final int PORT_NUM = 30121;
+    private final WireFormat WIRE_FORMAT = WireFormat.BINARY;
+    private final Codec CODEC = Codec.DEFLATE;  // only the packets that get smaller are compressed
+    private final TransferMode TRANSFER_MODE = TransferMode.WINDOWED;
+    private final Transport TRANSPORT = Transport.TCP;  // over UDP, the transfer mode is always ROUNDS
+    private final AdaptiveSegmentSize segmentSize = new AdaptiveSegmentSize();  // shared across transfers so that it can adapt to the link
     private Stage primaryStage;
     private Label fileReceiverMessageLabel;
     private Label appMessageLabel;
@@ -70,7 +79,8 @@ public class ClientApplication extends Application {
 
         // GUI handlers:
 
-        // When connect button is clicked, connect to the specified IP and receive the file
+        // When connect button is clicked, get the path to save the file to, then connect to the specified IP and receive
+        // the file
         connectButton.setOnAction(event -> {
             String ipPattern = "\\d{1,3}\\.\\d{1,3}\\.\\d{1,3}\\.\\d{1,3}";
             String selectedIp = ipField.getText();
@@ -82,7 +92,10 @@ public class ClientApplication extends Application {
                 appMessageLabel.setText("Please wait for the task to complete before receiving another file");
                 return;
             }
-            startMessageReceiveTask(selectedIp);
+            appMessageLabel.setText("");
+            File outputFile = getFileToSaveAs(appMessageLabel);
+            if (outputFile == null) return;
+            startMessageReceiveTask(selectedIp, outputFile);
         });
 
         // When window is closed, cancel messageReceiverTask if it is running
@@ -115,9 +128,10 @@ public class ClientApplication extends Application {
     /**
      * Launch the MessageReceiver Task if it isn't currently running (if it hasn't started, or it has finished a previous run)
      */
-    private void startMessageReceiveTask(String selectedIp) {
+    private void startMessageReceiveTask(String selectedIp, File outputFile) {
         appMessageLabel.setText("Connecting to server...");
-        messageReceiverTask = new MessageReceiver(selectedIp, PORT_NUM);
+        messageReceiverTask = new MessageReceiver(selectedIp, PORT_NUM, outputFile.toPath(), WIRE_FORMAT, CODEC, TRANSFER_MODE,
+                TRANSPORT, segmentSize);
         messageReceiverTask.setOnRunning(event -> {
             appMessageLabel.setText("");
             // Disable controls while task is running:
@@ -131,7 +145,11 @@ public class ClientApplication extends Application {
         };
 
         messageReceiverTask.setOnSucceeded(event -> {
-            getPathAndWriteFile(messageReceiverTask.getValue(), appMessageLabel);
+            if (messageReceiverTask.getValue()) {
+                appMessageLabel.setText("Saved file '" + outputFile.getName() + "' to '" + outputFile.getParent() + "'");
+            } else {
+                appMessageLabel.setText("No file received");
+            }
             reenableControls.handle(event);
         });
         messageReceiverTask.setOnCancelled(reenableControls);
@@ -142,31 +160,6 @@ public class ClientApplication extends Application {
         new Thread(messageReceiverTask, "CLIENT-FileReceiverThread").start();
     }
 
-    /**
-     * Get the path to write the file to from the user and write the given fileContent to a new file there
-     */
-    private void getPathAndWriteFile(String fileContent, Label resultLabel) {
-        if (fileContent == null) {
-            resultLabel.setText("No file received");
-            return;
-        }
-        resultLabel.setText("");
-        File outputFile = getFileToSaveAs(resultLabel);
-        if (outputFile == null) return;
-        System.out.println("Writing file to disk...");
-        resultLabel.setText("Selected file '" + outputFile.getPath() + "'");
-        try (FileWriter fileWriter = new FileWriter(outputFile, false)) {
-            fileWriter.write(fileContent);
-            resultLabel.setText("Saved file '" + outputFile.getName() + "' to '" + outputFile.getParent() + "'");
-            System.out.println("Completed writing file to disk.");
-        } catch (Exception e) {
-            resultLabel.setText("Unable to write file to disk at path '" + outputFile.getAbsolutePath() +
-                    "'.\nException stack trace: " + e.getMessage());
-            System.out.println("Unable to write file to disk at path '" + outputFile.getAbsolutePath() +
-                    "'.\nException stack trace: " + e.getMessage());
-        }
-    }
-
     /**
      * Get a file to save as from the user with a FileChooser dialog box
      */
@@ -0,0 +1,142 @@
+package src;
+
+import src.InternetProtocolHandling.enums.Codec;
+import src.InternetProtocolHandling.enums.TransferMode;
+import src.InternetProtocolHandling.enums.Transport;
+import src.InternetProtocolHandling.enums.WireFormat;
+import src.engine.AdaptiveSegmentSize;
+import src.engine.MessageClient;
+import src.engine.Logger;
+import src.engine.TransferListener;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The command-line application for the Client, for running without a GUI, e.g., on a headless machine or in a scripted
+ * load test. The client receives the file from the server at the given host and writes it to the output file, printing
+ * its progress while it runs, and then prints the throughput, retransmission ratio, and wall time of the transfer.
+ * <p>
+ * With --concurrency N, N clients receive the file at the same time, each writing to the output path followed by its
+ * number, e.g., <code>out.bin.1</code>. This process exits with 0 only if every client received the full file.
+ * <p>
+ * With --streams N, each client receives the file over N connections at once, each carrying its own stripe of the
+ * packets.
+ * <p>
+ * Usage: <code>ClientLauncher &lt;host&gt; &lt;output file&gt; [--port N] [--segment-size N] [--concurrency N]
+ * [--streams N] [--format TEXT|BINARY] [--codec NONE|DEFLATE] [--mode ROUNDS|WINDOWED] [--transport TCP|UDP] [--log-level TRACE|DEBUG|INFO|WARN|ERROR]</code>
+ */
+public class ClientLauncher {
+    private static final int DEFAULT_PORT_NUM = 30121;
+    private static final int REPORT_INTERVAL = 1000;  // ms between progress reports
+    private static final String USAGE = "usage: ClientLauncher <host> <output file> [--port N] [--segment-size N] " +
+            "[--concurrency N] [--streams N] [--format TEXT|BINARY] [--codec NONE|DEFLATE] [--mode ROUNDS|WINDOWED] " +
+            "[--transport TCP|UDP] [--log-level TRACE|DEBUG|INFO|WARN|ERROR]";
+
+    public static void main(String[] args) throws InterruptedException {
+        String host;
+        Path outputFile;
+        int portNumber;
+        int concurrency;
+        int numStreams;
+        AdaptiveSegmentSize segmentSize;
+        WireFormat wireFormat;
+        Codec codec;
+        TransferMode transferMode;
+        Transport transport;
+        try {
+            CommandLineOptions options = new CommandLineOptions(args);
+            if (options.getPositional(0) == null || options.getPositional(1) == null) {
+                throw new IllegalArgumentException("missing the host or the output file");
+            }
+            host = options.getPositional(0);
+            outputFile = Path.of(options.getPositional(1));
+            portNumber = options.getPositiveInt("port", DEFAULT_PORT_NUM);
+            concurrency = options.getPositiveInt("concurrency", 1);
+            numStreams = options.getPositiveInt("streams", 1);
+            // Without a fixed segment size, the clients share one that adapts to the loss they observe
+            segmentSize = options.has("segment-size") ? AdaptiveSegmentSize.fixed(options.getPositiveInt("segment-size", 0))
+                    : new AdaptiveSegmentSize();
+            wireFormat = options.getEnum("format", WireFormat.class, WireFormat.BINARY);
+            codec = options.getEnum("codec", Codec.class, Codec.NONE);
+            transferMode = options.getEnum("mode", TransferMode.class, TransferMode.WINDOWED);
+            transport = options.getEnum("transport", Transport.class, Transport.TCP);
+            if (options.has("log-level")) {
+                Logger.setLevel(options.getEnum("log-level", Logger.Level.class, Logger.Level.INFO));
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+            return;
+        }
+
+        // Each client's progress is kept as a pair of (packets received, total packets), to report the aggregate progress
+        AtomicLongArray progress = new AtomicLongArray(concurrency * 2);
+        List<MessageClient> clients = new ArrayList<>();
+        List<Path> outputFiles = new ArrayList<>();
+        for (int i = 0; i < concurrency; i++) {
+            int clientIndex = i;
+            outputFiles.add(concurrency == 1 ? outputFile : Path.of(outputFile + "." + (i + 1)));
+            clients.add(new MessageClient(host, portNumber, outputFiles.get(i), wireFormat, codec, transferMode, transport,
+                    numStreams, segmentSize, new TransferListener() {
+                        @Override
+                        public void onProgress(long workDone, long max) {
+                            progress.lazySet(clientIndex * 2, workDone);
+                            progress.lazySet(clientIndex * 2 + 1, max);
+                        }
+                    }));
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> clients.forEach(MessageClient::cancel)));
+
+        long startTime = System.nanoTime();
+        ExecutorService clientPool = Executors.newFixedThreadPool(concurrency);
+        List<Future<Boolean>> results = new ArrayList<>();
+        for (MessageClient client : clients) {
+            results.add(clientPool.submit(client::receive));
+        }
+        clientPool.shutdown();
+        while (!clientPool.awaitTermination(REPORT_INTERVAL, TimeUnit.MILLISECONDS)) {
+            long received = 0;
+            long total = 0;
+            for (int i = 0; i < concurrency; i++) {
+                received += progress.get(i * 2);
+                total += progress.get(i * 2 + 1);
+            }
+            System.err.println("received " + received + " of " + total + " packets" +
+                    (total == 0 ? "" : String.format(" (%.1f%%)", received * 100.0 / total)));
+        }
+        double wallSeconds = (System.nanoTime() - startTime) / 1e9;
+
+        int numReceived = 0;
+        long packetsExpected = 0;
+        long packetsRequired = 0;
+        long bytesReceived = 0;
+        for (int i = 0; i < concurrency; i++) {
+            try {
+                if (results.get(i).get()) {
+                    numReceived++;
+                    bytesReceived += outputFiles.get(i).toFile().length();
+                }
+            } catch (ExecutionException e) {
+                System.err.println("client " + (i + 1) + " failed: " + e.getCause());
+            }
+            packetsExpected += clients.get(i).getPacketsExpected();
+            packetsRequired += clients.get(i).getPacketsRequired();
+        }
+        Logger.flush();  // so that the results are printed after the clients' log
+        System.out.println("clients completed: " + numReceived + " of " + concurrency);
+        System.out.println("throughput: " + String.format("%,.1f", bytesReceived / wallSeconds / 1024) + " KB/s");
+        System.out.println("retransmission ratio: " + String.format("%.3f",
+                packetsExpected == 0 ? 0 : (packetsExpected - packetsRequired) / (double) packetsExpected));
+        System.out.println("wall time: " + String.format("%,.3f", wallSeconds) + " s");
+        System.exit(numReceived == concurrency ? 0 : 1);
+    }
+}
@@ -0,0 +1,109 @@
+package src;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The arguments passed to a command-line launcher, split into positional arguments and <code>--name value</code> options
+ */
+class CommandLineOptions {
+    private final List<String> positional = new ArrayList<>();
+    private final HashMap<String, String> options = new HashMap<>();
+
+    /**
+     * @throws IllegalArgumentException if an option is missing its value
+     */
+    CommandLineOptions(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].startsWith("--")) {
+                if (i + 1 == args.length) {
+                    throw new IllegalArgumentException("missing a value for " + args[i]);
+                }
+                options.put(args[i].substring(2), args[++i]);
+            } else {
+                positional.add(args[i]);
+            }
+        }
+    }
+
+    /**
+     * @return the positional argument at the given index, or <code>null</code> if there are not that many
+     */
+    String getPositional(int index) {
+        return index < positional.size() ? positional.get(index) : null;
+    }
+
+    boolean has(String name) {
+        return options.containsKey(name);
+    }
+
+    String get(String name, String defaultValue) {
+        return options.getOrDefault(name, defaultValue);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the option's value is not a positive number
+     */
+    int getPositiveInt(String name, int defaultValue) {
+        if (!options.containsKey(name)) {
+            return defaultValue;
+        }
+        try {
+            int value = Integer.parseInt(options.get(name));
+            if (value > 0) {
+                return value;
+            }
+        } catch (NumberFormatException ignored) {
+        }
+        throw new IllegalArgumentException("--" + name + " must be a positive number");
+    }
+
+    /**
+     * @throws IllegalArgumentException if the option's value is not <code>true</code> or <code>false</code>
+     */
+    boolean getBoolean(String name, boolean defaultValue) {
+        if (!options.containsKey(name)) {
+            return defaultValue;
+        }
+        String value = options.get(name).toLowerCase(Locale.ROOT);
+        if (!value.equals("true") && !value.equals("false")) {
+            throw new IllegalArgumentException("--" + name + " must be true or false");
+        }
+        return value.equals("true");
+    }
+
+    /**
+     * @throws IllegalArgumentException if the option's value is not a probability below 1, i.e., from 0 up to but not
+     *                                  including 1
+     */
+    float getProbability(String name, float defaultValue) {
+        if (!options.containsKey(name)) {
+            return defaultValue;
+        }
+        try {
+            float value = Float.parseFloat(options.get(name));
+            if (value >= 0 && value < 1) {
+                return value;
+            }
+        } catch (NumberFormatException ignored) {
+        }
+        throw new IllegalArgumentException("--" + name + " must be a number from 0 up to but not including 1");
+    }
+
+    /**
+     * @throws IllegalArgumentException if the option's value is not one of the enum's constants
+     */
+    <E extends Enum<E>> E getEnum(String name, Class<E> type, E defaultValue) {
+        if (!options.containsKey(name)) {
+            return defaultValue;
+        }
+        try {
+            return Enum.valueOf(type, options.get(name).toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("--" + name + " must be one of " + Arrays.toString(type.getEnumConstants()));
+        }
+    }
+}
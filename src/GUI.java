@@ -15,7 +15,7 @@ import java.util.List;
  */
 public class GUI {
 
-    private static ExtensionFilter allFilter = new ExtensionFilter("All Files", "*.txt", "*.csv");
+    private static ExtensionFilter allFilter = new ExtensionFilter("All Files", "*.*");
     private static ExtensionFilter txtFilter = new ExtensionFilter("Text File", "*.txt");
     private static ExtensionFilter csvFilter = new ExtensionFilter("CSV File", "*.csv");
 
@@ -48,6 +48,7 @@ public class GUI {
     public static FileChooser createSaveFileChooser() {
         FileChooser fileChooser = createFileChooser();
         fileChooser.getExtensionFilters().addAll(
+                allFilter,
                 csvFilter,
                 txtFilter
         );
@@ -0,0 +1,170 @@
+package src.InternetProtocolHandling;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * This class decodes a message packet sent in the binary wire format. See {@link BinaryPacketEncoder} for the layout of
+ * the packet.
+ */
+public class BinaryPacketDecoder {
+    // The max length of a packet's contents: the max message length, plus room for the flags, the two varints, the
+    // checksum, and the file digest
+    private static final int MAX_CONTENTS_LENGTH = MultiPacketEncoder.MAX_MAX_MESSAGE_LENGTH + 64;
+    private final int COMPLETED_FLAG = 0x01;
+    private final int COMPRESSED_FLAG = 0x02;
+    private final int FILE_DIGEST_FLAG = 0x04;
+    private final int CHECKSUM_LENGTH = 4;
+    private final int MAX_VARINT_LENGTH = 5;
+    private final boolean completed;
+    private final boolean compressed;
+    private final int sequenceNum;
+    private final int totalPackets;
+    private final int checksum;
+    private final byte[] fileDigest;
+    private final byte[] message;
+
+    /**
+     * Construct a packet from the packet's contents, i.e., the bytes following the length varint
+     *
+     * @throws IllegalArgumentException if the contents are not a valid packet
+     */
+    public BinaryPacketDecoder(byte[] contents, int length) {
+        if (length < 3 + CHECKSUM_LENGTH) {
+            throw new IllegalArgumentException("Packet contents of length " + length + " are too short to hold a header");
+        }
+        int[] position = {1};
+        completed = (contents[0] & COMPLETED_FLAG) != 0;
+        compressed = (contents[0] & COMPRESSED_FLAG) != 0;
+        sequenceNum = readVarint(contents, length, position);
+        totalPackets = readVarint(contents, length, position);
+        int checksumEnd = position[0] + CHECKSUM_LENGTH;
+        if (checksumEnd > length) {
+            throw new IllegalArgumentException("Packet ended partway through its checksum");
+        }
+        int checksum = 0;
+        for (int i = position[0]; i < checksumEnd; i++) {
+            checksum = (checksum << 8) | (contents[i] & 0xFF);
+        }
+        this.checksum = checksum;
+        position[0] = checksumEnd;
+        if ((contents[0] & FILE_DIGEST_FLAG) != 0) {
+            int digestEnd = position[0] + PacketChecksums.FILE_DIGEST_LENGTH;
+            if (digestEnd > length) {
+                throw new IllegalArgumentException("Packet ended partway through its file digest");
+            }
+            fileDigest = Arrays.copyOfRange(contents, position[0], digestEnd);
+            position[0] = digestEnd;
+        } else {
+            fileDigest = null;
+        }
+        message = Arrays.copyOfRange(contents, position[0], length);
+    }
+
+    /**
+     * Read the next packet from the stream, blocking until the full packet is received.
+     *
+     * @param in the stream to read from. The stream should be buffered, as the length is read one byte at a time.
+     * @return the next packet, or null if the stream ended before another packet was started
+     * @throws IOException if the stream ends partway through a packet or the packet is malformed
+     */
+    public static BinaryPacketDecoder readPacket(InputStream in) throws IOException {
+        int firstByte = in.read();
+        if (firstByte == -1) {
+            return null;
+        }
+        int contentsLength = firstByte & 0x7F;
+        int shift = 7;
+        int currByte = firstByte;
+        while ((currByte & 0x80) != 0) {
+            currByte = in.read();
+            if (currByte == -1) {
+                throw new EOFException("Stream ended while reading a packet's length");
+            }
+            if (shift > 28) {
+                throw new IOException("Malformed packet: length varint is too long");
+            }
+            contentsLength |= (currByte & 0x7F) << shift;
+            shift += 7;
+        }
+        if (contentsLength < 0 || contentsLength > MAX_CONTENTS_LENGTH) {
+            throw new IOException("Malformed packet: invalid length " + contentsLength);
+        }
+
+        byte[] contents = in.readNBytes(contentsLength);
+        if (contents.length < contentsLength) {
+            throw new EOFException("Stream ended after " + contents.length + " of " + contentsLength + " packet bytes");
+        }
+        try {
+            return new BinaryPacketDecoder(contents, contentsLength);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Malformed packet: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Read a varint from the given position, advancing the position past it
+     */
+    private int readVarint(byte[] contents, int length, int[] position) {
+        int value = 0;
+        for (int shift = 0; shift < MAX_VARINT_LENGTH * 7; shift += 7) {
+            if (position[0] >= length) {
+                throw new IllegalArgumentException("Packet ended partway through a header field");
+            }
+            byte b = contents[position[0]++];
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Header field is too long to be a varint");
+    }
+
+    /**
+     * @return whether the sender indicated that this is the last packet it is sending
+     */
+    public boolean isCompleted() {
+        return completed;
+    }
+
+    /**
+     * @return whether the message is compressed with the codec negotiated for the transfer
+     */
+    public boolean isCompressed() {
+        return compressed;
+    }
+
+    public int getSequenceNum() {
+        return sequenceNum;
+    }
+
+    public int getTotalPackets() {
+        return totalPackets;
+    }
+
+    /**
+     * @return the checksum that the sender computed for this packet, to be compared with the checksum of the packet as
+     * it was received
+     */
+    public int getChecksum() {
+        return checksum;
+    }
+
+    /**
+     * @return the digest of the full message, or null if this packet does not include it
+     */
+    public byte[] getFileDigest() {
+        return fileDigest;
+    }
+
+    public byte[] getMessage() {
+        return message;
+    }
+
+    public String toString() {
+        return "(binary)COMPLETED:" + (completed ? "T" : "F") + (compressed ? ",COMPRESSED:T" : "") + ",TOTAL_PACKETS:" + totalPackets + ",SEQUENCE_NUM:" +
+                sequenceNum + "\n(" + message.length + " bytes)";
+    }
+}
@@ -0,0 +1,185 @@
+package src.InternetProtocolHandling;
+
+import src.InternetProtocolHandling.enums.PacketArgKey;
+
+/**
+ * This class encodes a message packet into the binary wire format. Instead of KEY:VALUE args, the header is made up of
+ * fixed fields:
+ * <ul>
+ *     <li>the length of the rest of the packet, as a varint</li>
+ *     <li>a flags byte, where the lowest bit is set if the packet is the last one sent (the COMPLETED arg), and the
+ *     second lowest bit is set if the message is compressed (the COMPRESSED arg)</li>
+ *     <li>the sequence number, as a varint</li>
+ *     <li>the total number of packets, as a varint</li>
+ *     <li>the packet's checksum (the CHECKSUM arg), as 4 big-endian bytes</li>
+ *     <li>only if the third lowest bit of the flags is set, the digest of the full message (the FILE_DIGEST arg), which
+ *     is included in the last packet of the message</li>
+ * </ul>
+ * followed by the message bytes.
+ */
+public class BinaryPacketEncoder {
+    private final int COMPLETED_FLAG = 0x01;
+    private final int COMPRESSED_FLAG = 0x02;
+    private final int FILE_DIGEST_FLAG = 0x04;
+    private final int CHECKSUM_LENGTH = 4;
+    private final boolean completed;
+    private final boolean compressed;
+    private final int sequenceNum;
+    private final int totalPackets;
+    private final int checksum;
+    private final byte[] fileDigest;  // null, except in the last packet of a message
+    private final byte[] message;
+
+    public BinaryPacketEncoder(boolean completed, int sequenceNum, int totalPackets, byte[] message) {
+        this(completed, false, sequenceNum, totalPackets, PacketChecksums.getChecksum(sequenceNum, totalPackets, false, null,
+                message), null, message);
+    }
+
+    private BinaryPacketEncoder(boolean completed, boolean compressed, int sequenceNum, int totalPackets, int checksum,
+                                byte[] fileDigest, byte[] message) {
+        this.completed = completed;
+        this.compressed = compressed;
+        this.sequenceNum = sequenceNum;
+        this.totalPackets = totalPackets;
+        this.checksum = checksum;
+        this.fileDigest = fileDigest;
+        this.message = message;
+    }
+
+    /**
+     * Construct a binary packet from a text packet containing a message, i.e., a packet with the COMPLETED, SEQUENCE_NUM,
+     * and TOTAL_PACKETS args, and optionally the COMPRESSED, CHECKSUM, and FILE_DIGEST args. If the packet has no
+     * CHECKSUM arg, the checksum is computed from its message. Any other args are not included, as the binary format has
+     * no fields for them.
+     */
+    public BinaryPacketEncoder(PacketEncoder packet) {
+        this("T".equals(packet.getArg(PacketArgKey.COMPLETED)),
+                "T".equals(packet.getArg(PacketArgKey.COMPRESSED)),
+                Integer.parseInt(packet.getArg(PacketArgKey.SEQUENCE_NUM)),
+                Integer.parseInt(packet.getArg(PacketArgKey.TOTAL_PACKETS)),
+                getChecksum(packet),
+                getFileDigest(packet),
+                packet.getMessage());
+    }
+
+    /**
+     * @return the value of the given packet's CHECKSUM arg, or if it has none, the checksum of its message
+     */
+    private static int getChecksum(PacketEncoder packet) {
+        if (packet.getArg(PacketArgKey.CHECKSUM) != null) {
+            return PacketChecksums.parseChecksum(packet.getArg(PacketArgKey.CHECKSUM));
+        }
+        return PacketChecksums.getChecksum(Integer.parseInt(packet.getArg(PacketArgKey.SEQUENCE_NUM)),
+                Integer.parseInt(packet.getArg(PacketArgKey.TOTAL_PACKETS)), "T".equals(packet.getArg(PacketArgKey.COMPRESSED)),
+                getFileDigest(packet), packet.getMessage());
+    }
+
+    /**
+     * @return the value of the given packet's FILE_DIGEST arg, or null if it has none
+     */
+    private static byte[] getFileDigest(PacketEncoder packet) {
+        String fileDigest = packet.getArg(PacketArgKey.FILE_DIGEST);
+        return fileDigest != null ? PacketChecksums.parseDigest(fileDigest) : null;
+    }
+
+    /**
+     * @return the bytes of this packet in the correct format for transmission
+     */
+    public byte[] getPacketBytes() {
+        int contentsLength = getContentsLength();
+        byte[] packet = new byte[getVarintLength(contentsLength) + contentsLength];
+        int i = writeHeader(contentsLength, packet);
+        System.arraycopy(message, 0, packet, i, message.length);
+        return packet;
+    }
+
+    /**
+     * Write this packet's header, for a packet with the given contents length, to the start of the given array
+     *
+     * @return the index after the last byte written
+     */
+    private int writeHeader(int contentsLength, byte[] dest) {
+        int i = writeVarint(contentsLength, dest, 0);
+        dest[i++] = getFlags(completed);
+        i = writeVarint(sequenceNum, dest, i);
+        i = writeVarint(totalPackets, dest, i);
+        for (int shift = 24; shift >= 0; shift -= 8) {
+            dest[i++] = (byte) (checksum >>> shift);
+        }
+        if (fileDigest != null) {
+            System.arraycopy(fileDigest, 0, dest, i, fileDigest.length);
+            i += fileDigest.length;
+        }
+        return i;
+    }
+
+    /**
+     * @return the length of the packet after the length field
+     */
+    private int getContentsLength() {
+        return getContentsLength(message.length);
+    }
+
+    private int getContentsLength(int messageLength) {
+        return 1 + getVarintLength(sequenceNum) + getVarintLength(totalPackets) + CHECKSUM_LENGTH +
+                (fileDigest != null ? fileDigest.length : 0) + messageLength;
+    }
+
+    /**
+     * Encode this packet once so that it can be sent any number of times, each time with either value of its completed
+     * flag, without being encoded again
+     */
+    public EncodedPacket getEncodedPacket() {
+        int flagsIndex = getVarintLength(getContentsLength());  // the flags byte directly follows the length
+        return new EncodedPacket(getPacketBytes(), flagsIndex, getFlags(false), getFlags(true));
+    }
+
+    /**
+     * Encode only this packet's header, for a packet whose message has the given length, so that the message can be
+     * written after the header from elsewhere, e.g., directly from a file. This packet's own message is not included.
+     * The header must hold the checksum of the message that follows it.
+     *
+     * @param messageLength the length of the message that will follow the header
+     */
+    public EncodedPacket getEncodedHeader(int messageLength) {
+        int contentsLength = getContentsLength(messageLength);
+        byte[] header = new byte[getVarintLength(contentsLength) + contentsLength - messageLength];
+        writeHeader(contentsLength, header);
+        int flagsIndex = getVarintLength(contentsLength);
+        return new EncodedPacket(header, flagsIndex, getFlags(false), getFlags(true));
+    }
+
+    /**
+     * @return the flags byte of this packet, with the completed flag set as given
+     */
+    private byte getFlags(boolean completed) {
+        return (byte) ((completed ? COMPLETED_FLAG : 0) | (compressed ? COMPRESSED_FLAG : 0) |
+                (fileDigest != null ? FILE_DIGEST_FLAG : 0));
+    }
+
+    /**
+     * @return the number of bytes needed to encode the given non-negative value as a varint
+     */
+    static int getVarintLength(int value) {
+        int length = 1;
+        while ((value >>>= 7) != 0) {
+            length++;
+        }
+        return length;
+    }
+
+    /**
+     * Write the given non-negative value as a varint - 7 bits per byte, least significant group first, with the high bit
+     * set on every byte except the last
+     *
+     * @return the index after the last byte written
+     */
+    static int writeVarint(int value, byte[] dest, int offset) {
+        while ((value & ~0x7F) != 0) {
+            dest[offset++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        dest[offset++] = (byte) value;
+        return offset;
+    }
+}
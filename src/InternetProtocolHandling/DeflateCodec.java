@@ -0,0 +1,69 @@
+package src.InternetProtocolHandling;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A {@link PayloadCodec} that compresses each message with raw DEFLATE. Each thread keeps its own Deflater and
+ * Inflater, which are reset between messages, as creating them allocates native buffers that are costly to create for
+ * every packet.
+ */
+public class DeflateCodec implements PayloadCodec {
+    static final DeflateCodec INSTANCE = new DeflateCodec();
+    // The fastest level compresses text nearly as well as the default level, at 1.5-3.5x the speed, so compressing does
+    // not make the server CPU-bound before the link is saturated
+    private final int COMPRESSION_LEVEL = Deflater.BEST_SPEED;
+    private final ThreadLocal<Deflater> deflaters = ThreadLocal.withInitial(() -> new Deflater(COMPRESSION_LEVEL, true));
+    private final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(() -> new Inflater(true));
+
+    private DeflateCodec() {
+    }
+
+    @Override
+    public byte[] encode(byte[] message) {
+        Deflater deflater = deflaters.get();
+        deflater.reset();
+        deflater.setInput(message);
+        deflater.finish();
+        // Only a result shorter than the message is of use, so there is no need to make room for anything longer
+        byte[] compressed = new byte[message.length];
+        int length = 0;
+        while (!deflater.finished() && length < compressed.length) {
+            length += deflater.deflate(compressed, length, compressed.length - length);
+        }
+        if (!deflater.finished() || length >= message.length) {
+            return null;
+        }
+        return Arrays.copyOf(compressed, length);
+    }
+
+    @Override
+    public byte[] decode(byte[] payload, int maxLength) throws IOException {
+        Inflater inflater = inflaters.get();
+        inflater.reset();
+        inflater.setInput(payload);
+        byte[] message = new byte[maxLength];
+        int length = 0;
+        try {
+            while (!inflater.finished() && length < maxLength) {
+                int numBytes = inflater.inflate(message, length, maxLength - length);
+                if (numBytes == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("Compressed message ended before it was fully decompressed");
+                }
+                length += numBytes;
+            }
+            // The output may have filled up just before the end of the compressed data was read, so check that nothing
+            // is left to decompress
+            boolean tooLong = !inflater.finished() && (inflater.inflate(new byte[1]) > 0 || !inflater.finished());
+            if (tooLong) {
+                throw new IOException("Compressed message decompresses to more than " + maxLength + " bytes");
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Malformed compressed message: " + e.getMessage(), e);
+        }
+        return length == maxLength ? message : Arrays.copyOf(message, length);
+    }
+}
@@ -0,0 +1,72 @@
+package src.InternetProtocolHandling;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * This class holds the bytes of a message packet that has already been encoded in a wire format, so that it can be sent
+ * any number of times without being encoded again. The bytes are never modified, so an encoded packet can be shared
+ * between sessions. The only part of a message packet that differs between sends is its COMPLETED arg, which takes up a
+ * single byte in both wire formats; that byte is written according to the value given at send time instead.
+ */
+public class EncodedPacket {
+    private final byte[] bytes;
+    private final int completedIndex;
+    private final byte notCompletedValue;
+    private final byte completedValue;
+
+    /**
+     * @param bytes             the encoded packet. The array is not copied, so it must not be modified afterwards.
+     * @param completedIndex    the index of the byte holding the COMPLETED arg's value
+     * @param notCompletedValue the byte written when the packet is not the last one sent
+     * @param completedValue    the byte written when the packet is the last one sent
+     */
+    EncodedPacket(byte[] bytes, int completedIndex, byte notCompletedValue, byte completedValue) {
+        this.bytes = bytes;
+        this.completedIndex = completedIndex;
+        this.notCompletedValue = notCompletedValue;
+        this.completedValue = completedValue;
+    }
+
+    /**
+     * Write the packet to the given stream
+     *
+     * @param completed the value of the COMPLETED arg to write, i.e., whether this is the last packet sent
+     * @return the number of bytes written
+     */
+    public int writeTo(OutputStream out, boolean completed) throws IOException {
+        out.write(bytes, 0, completedIndex);
+        out.write(completed ? completedValue : notCompletedValue);
+        out.write(bytes, completedIndex + 1, bytes.length - completedIndex - 1);
+        return bytes.length;
+    }
+
+    /**
+     * Write as much of the packet as fits in the given buffer, starting from the given offset into the packet. This
+     * allows a packet to be written to a non-blocking channel a part at a time.
+     *
+     * @param offset    the number of bytes of the packet already written
+     * @param completed the value of the COMPLETED arg to write, i.e., whether this is the last packet sent
+     * @return the offset into the packet after the last byte written. The packet is fully written once this equals
+     * {@link #getLength()}.
+     */
+    public int writeTo(ByteBuffer dest, int offset, boolean completed) {
+        int end = Math.min(bytes.length, offset + dest.remaining());
+        if (offset <= completedIndex && completedIndex < end) {
+            dest.put(bytes, offset, completedIndex - offset);
+            dest.put(completed ? completedValue : notCompletedValue);
+            dest.put(bytes, completedIndex + 1, end - completedIndex - 1);
+        } else {
+            dest.put(bytes, offset, end - offset);
+        }
+        return end;
+    }
+
+    /**
+     * @return the length of the packet in bytes
+     */
+    public int getLength() {
+        return bytes.length;
+    }
+}
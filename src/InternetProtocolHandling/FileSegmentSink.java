@@ -0,0 +1,115 @@
+package src.InternetProtocolHandling;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+
+/**
+ * This class writes the segments of a file as they are received, so that a file can be received without holding its
+ * contents in memory. Each segment is written directly to its place in the file with a positional write, based on its
+ * sequence number, so segments can be written in any order. This is the counterpart of {@link FileSegmentSource}.
+ */
+public class FileSegmentSink implements Closeable {
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final int segmentSize;
+    private boolean sized = false;
+
+    /**
+     * Create (or overwrite) the file at the given path for writing segments
+     *
+     * @param segmentSize the size of every segment but the last, which holds the remainder of the file
+     */
+    public FileSegmentSink(Path path, int segmentSize) throws IOException {
+        this(path, segmentSize, false);
+    }
+
+    /**
+     * Open the file at the given path for writing segments
+     *
+     * @param segmentSize the size of every segment but the last, which holds the remainder of the file
+     * @param resume      whether to keep the segments already in the file, which were written by an earlier sink with
+     *                    the same segment size, e.g., to resume a transfer that was interrupted. The file must already be
+     *                    sized to fit all the segments. Otherwise, the file is created or overwritten.
+     */
+    public FileSegmentSink(Path path, int segmentSize, boolean resume) throws IOException {
+        this.file = new RandomAccessFile(path.toFile(), "rw");
+        if (!resume) {
+            this.file.setLength(0);
+        }
+        this.channel = file.getChannel();
+        this.segmentSize = segmentSize;
+        this.sized = resume;
+    }
+
+    /**
+     * Write the segment with the given sequence number to its place in the file. Before the first segment is written,
+     * the file is sized to fit all the segments; once the last segment is written, the file is trimmed to end after it.
+     *
+     * @param sequenceNum  the sequence number of the segment, starting from 0
+     * @param totalPackets the total number of segments in the file
+     * @param message      the segment's bytes
+     */
+    public synchronized void writeSegment(int sequenceNum, int totalPackets, byte[] message) throws IOException {
+        if (!sized) {
+            file.setLength((long) totalPackets * segmentSize);
+            sized = true;
+        }
+        long position = (long) sequenceNum * segmentSize;
+        ByteBuffer buffer = ByteBuffer.wrap(message);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+        boolean isLastSegment = sequenceNum == totalPackets - 1;
+        if (isLastSegment) {
+            channel.truncate(position + buffer.limit());
+        }
+    }
+
+    /**
+     * Read back a segment that was already written with {@link #writeSegment(int, int, byte[])}. The last segment can
+     * only be read once it was written, as the file is only trimmed to its length then.
+     *
+     * @throws IOException if the segment could not be read
+     */
+    public synchronized byte[] readSegment(int sequenceNum) throws IOException {
+        long position = (long) sequenceNum * segmentSize;
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.max(0, Math.min(segmentSize, channel.size() - position)));
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) == -1) {
+                throw new EOFException("File ended while reading segment " + sequenceNum);
+            }
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Force the segments written so far to the storage device, so that they are not lost if the process or system
+     * crashes
+     */
+    public synchronized void force() throws IOException {
+        channel.force(false);
+    }
+
+    public int getSegmentSize() {
+        return segmentSize;
+    }
+
+    /**
+     * Force any written segments to the storage device and close the file
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (channel.isOpen()) {
+                channel.force(true);
+            }
+        } finally {
+            file.close();
+        }
+    }
+}
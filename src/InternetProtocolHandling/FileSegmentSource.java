@@ -0,0 +1,173 @@
+package src.InternetProtocolHandling;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+
+/**
+ * This class reads the segments of a file on demand, so that a file can be sent without holding its contents in memory.
+ * A segment is read by its sequence number directly from the file with a positional read, which allows any number of
+ * threads to read segments concurrently, and allows a retransmitted segment to be read again on its own.
+ * <p>
+ * Segments are split on byte boundaries and returned as the file's exact bytes, so any file can be sent regardless of
+ * its contents or encoding. An empty file is split into a single empty segment, so that it is sent as a packet that
+ * carries the file's digest like the last packet of any other file.
+ */
+public class FileSegmentSource implements Closeable {
+    private final int DIGEST_BUFFER_SIZE = 1024 * 1024;
+    private final FileChannel channel;
+    private final long fileSize;
+    private byte[] fileDigest;  // computed the first time it is requested
+
+    /**
+     * Open the file at the given path for reading segments
+     */
+    public FileSegmentSource(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        fileSize = channel.size();
+    }
+
+    /**
+     * @return the size of the file in bytes, as of when this source was opened
+     */
+    public long getFileSize() {
+        return fileSize;
+    }
+
+    /**
+     * @return the number of segments the file is split into with the given segment size, which is 1 for an empty file
+     */
+    public int getNumSegments(int segmentSize) {
+        if (fileSize == 0) {
+            return 1;
+        }
+        return (int) ((fileSize / segmentSize) + (fileSize % segmentSize > 0 ? 1 : 0));
+    }
+
+    /**
+     * @return the length of the segment with the given sequence number
+     * @throws IllegalArgumentException if the segment is outside of the file
+     */
+    public int getSegmentLength(int sequenceNum, int segmentSize) {
+        if (sequenceNum < 0 || sequenceNum >= getNumSegments(segmentSize)) {
+            throw new IllegalArgumentException("Segment " + sequenceNum + " is outside of the file");
+        }
+        return (int) Math.min(segmentSize, fileSize - (long) sequenceNum * segmentSize);
+    }
+
+    /**
+     * Read the segment with the given sequence number from the file
+     *
+     * @param sequenceNum the sequence number of the segment, starting from 0
+     * @param segmentSize the size of every segment but the last, which holds the remainder of the file
+     * @return the segment's bytes
+     * @throws IOException if the file could not be read, or is shorter than when this source was opened
+     */
+    public byte[] readSegment(int sequenceNum, int segmentSize) throws IOException {
+        long position = (long) sequenceNum * segmentSize;
+        ByteBuffer buffer = ByteBuffer.allocate(getSegmentLength(sequenceNum, segmentSize));
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position + buffer.position());
+            if (n == -1) {
+                throw new EOFException("File ended while reading segment " + sequenceNum);
+            }
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Compute the checksums of the packets holding each segment of the file, uncompressed, as in {@link PacketChecksums},
+     * in a single sequential pass over the file. The file is read in chunks of whole segments, so that a packet whose
+     * message is later sent straight from the file to a socket never has to be read into memory on its own to be sent.
+     *
+     * @param segmentSize the size of every segment but the last, which holds the remainder of the file
+     * @return the checksum of each segment's packet, by sequence number
+     * @throws IOException if the file could not be read, or is shorter than when this source was opened
+     */
+    public int[] getSegmentChecksums(int segmentSize) throws IOException {
+        int totalPackets = getNumSegments(segmentSize);
+        byte[] fileDigest = getFileDigest();  // included in the last packet
+        int[] checksums = new int[totalPackets];
+        int segmentsPerRead = Math.max(1, DIGEST_BUFFER_SIZE / segmentSize);
+        ByteBuffer buffer = ByteBuffer.allocate(segmentsPerRead * segmentSize);
+        for (int firstSequenceNum = 0; firstSequenceNum < totalPackets; firstSequenceNum += segmentsPerRead) {
+            long position = (long) firstSequenceNum * segmentSize;
+            buffer.clear().limit((int) Math.min(buffer.capacity(), fileSize - position));
+            while (buffer.hasRemaining()) {
+                int n = channel.read(buffer, position + buffer.position());
+                if (n == -1) {
+                    throw new EOFException("File ended while computing the checksums of its segments");
+                }
+            }
+            buffer.flip();
+            int lastSequenceNum = Math.min(firstSequenceNum + segmentsPerRead, totalPackets) - 1;
+            for (int sequenceNum = firstSequenceNum; sequenceNum <= lastSequenceNum; sequenceNum++) {
+                // Each checksum advances the buffer past its segment
+                buffer.limit(buffer.position() + getSegmentLength(sequenceNum, segmentSize));
+                checksums[sequenceNum] = PacketChecksums.getChecksum(sequenceNum, totalPackets, false,
+                        sequenceNum == totalPackets - 1 ? fileDigest : null, buffer);
+            }
+        }
+        return checksums;
+    }
+
+    /**
+     * @return the digest of the whole file, as in {@link PacketChecksums}. The file is read to compute the digest the
+     * first time it is requested; after that, the same digest is returned.
+     * @throws IOException if the file could not be read, or is shorter than when this source was opened
+     */
+    public synchronized byte[] getFileDigest() throws IOException {
+        if (fileDigest == null) {
+            MessageDigest digest = PacketChecksums.newFileDigest();
+            // A heap buffer lets the digest process the whole buffer at once, rather than copying it out in small chunks
+            ByteBuffer buffer = ByteBuffer.allocate(DIGEST_BUFFER_SIZE);
+            long position = 0;
+            while (position < fileSize) {
+                buffer.clear().limit((int) Math.min(DIGEST_BUFFER_SIZE, fileSize - position));
+                int n = channel.read(buffer, position);
+                if (n == -1) {
+                    throw new EOFException("File ended while computing its digest");
+                }
+                position += n;
+                digest.update(buffer.array(), 0, n);
+            }
+            fileDigest = digest.digest();
+        }
+        return fileDigest;
+    }
+
+    /**
+     * Write the segment with the given sequence number from the file directly to the given channel, with
+     * {@link FileChannel#transferTo}. Where the OS supports it (e.g., with sendfile for a socket), the segment's bytes are
+     * never copied into this process's memory.
+     *
+     * @param target the channel to write to. It must be in blocking mode, so that the whole segment is written.
+     * @return the number of bytes written
+     * @throws IOException if the segment could not be read or written, or the file is shorter than when this source was
+     *                     opened
+     */
+    public int transferSegment(int sequenceNum, int segmentSize, WritableByteChannel target) throws IOException {
+        long position = (long) sequenceNum * segmentSize;
+        int length = getSegmentLength(sequenceNum, segmentSize);
+        long transferred = 0;
+        while (transferred < length) {
+            long n = channel.transferTo(position + transferred, length - transferred, target);
+            if (n <= 0) {
+                throw new EOFException("File ended while transferring segment " + sequenceNum);
+            }
+            transferred += n;
+        }
+        return length;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -1,12 +1,18 @@
 // Avromi Schneierson - 11/3/2023
 package src.InternetProtocolHandling;
 
+import src.InternetProtocolHandling.enums.Codec;
 import src.InternetProtocolHandling.enums.PacketArgKey;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
+import java.util.function.IntConsumer;
 
 /**
  * This class is responsible for decoding a list of one or more individual packets. If the packets include a message,
@@ -15,21 +21,129 @@ import java.util.Set;
  * If the packets do not include a message and only include headers, a map of the args is built and retrievable from this
  * class.
  * Args only relevant for this class's internal works are not exposed (e.g., sequence numbers).
+ * If a {@link FileSegmentSink} is given, each message packet is written straight to the sink's file as it is added
+ * instead of being stored, so the message never has to be held in memory.
+ * Packets flagged as compressed are decompressed with the codec given to the decoder before they are stored. Each packet
+ * is decompressed on its own, so packets can be added in any order.
+ * Each message packet's checksum is verified before the packet is stored; a corrupted packet is discarded, so it stays
+ * missing and is requested again. The digest of the full message is computed as the packets are stored, in order of
+ * their sequence numbers: a packet that is stored after the packets that follow it is digested along with them. The
+ * messages of the packets stored shortly after a missing packet are kept in a bounded buffer until they can be digested,
+ * and only the packets beyond it are read back from the sink, so the message is never read again as a whole to verify it.
+ * The packets received are tracked in a bitset along with a count of them, so checking whether all packets were received
+ * takes constant time, and the missing packets can be iterated over without creating a collection of them.
+ * A transfer that was interrupted can be resumed with {@link #resume(int, BitSet, byte[])}, given the packets that were
+ * already written to the sink, so that only the rest are missing.
+ * The sequence numbers can be split into stripes, each received over its own connection: stripe <code>i</code> of
+ * <code>n</code> holds the packets whose sequence number modulo <code>n</code> is <code>i</code>. The missing packets and
+ * acknowledgements of each stripe are tracked separately, so that each connection can recover its own lost packets,
+ * while the packets of all stripes are merged into the one message. A decoder shared by several connections is not
+ * thread-safe, so it must only be accessed while holding its lock.
  */
 public class MultiPacketDecoder {
+    private static final int MAX_DIGEST_BUFFER_BYTES = 4 * 1024 * 1024;  // of messages kept until they can be digested
     private final HashMap<PacketArgKey, String> args = new HashMap<>();
-    private String[] packetMessages;
-    private HashSet<Integer> missingPackets;
-    private final StringBuilder fullMessage = new StringBuilder();
+    private final FileSegmentSink sink;
+    private final PayloadCodec codec;
+    private final int numStripes;
+    private int[] stripeMissingPackets;  // the number of packets missing from each stripe, once the total is known
+    private int[] stripeLowestMissingPacket;
+    private int[] stripeHighestReceivedPacket;
+    private MessageDigest fileDigest;  // the digest of the packets stored so far, up to the first missing packet
+    private byte[] computedFileDigest;
+    private byte[] expectedFileDigest;  // the digest of the full message, as sent by the sender
+    private int digestedPackets = 0;
+    private byte[][] digestBuffer;  // the messages of the packets stored after the first missing one, by sequence number
+    private int packetsReadForDigest = 0;  // the packets read back from the sink to digest them
+    private int corruptPackets = 0;
+    private boolean resumed = false;
+    private boolean messageChanged = false;
+    private byte[][] packetMessages;
+    private BitSet received;  // the sequence numbers of the packets received
+    private byte[] fullMessage;
     private int totalPackets = 0;
     private int receivedPackets = 0;
+    private int lowestMissingPacket = 0;
+    private int highestReceivedPacket = -1;
     private float percentComplete = 0;
 
     public MultiPacketDecoder() {
+        this.sink = null;
+        this.codec = null;
+        this.numStripes = 1;
     }
 
     public MultiPacketDecoder(List<PacketDecoder> packetDecoders) {
-        packetDecoders.forEach(this::addPacket);
+        this.sink = null;
+        this.codec = null;
+        this.numStripes = 1;
+        for (PacketDecoder packetDecoder : packetDecoders) {
+            try {
+                addPacket(packetDecoder);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);  // not possible, as only writing to a sink can fail
+            }
+        }
+    }
+
+    /**
+     * @param sink the sink to write the message packets to as they are added
+     */
+    public MultiPacketDecoder(FileSegmentSink sink) {
+        this(sink, Codec.NONE);
+    }
+
+    /**
+     * @param sink  the sink to write the message packets to as they are added
+     * @param codec the codec that the message packets flagged as compressed were compressed with
+     */
+    public MultiPacketDecoder(FileSegmentSink sink, Codec codec) {
+        this(sink, codec, 1);
+    }
+
+    /**
+     * @param sink       the sink to write the message packets to as they are added
+     * @param codec      the codec that the message packets flagged as compressed were compressed with
+     * @param numStripes the number of stripes that the sequence numbers are split into, each received over its own
+     *                   connection
+     */
+    public MultiPacketDecoder(FileSegmentSink sink, Codec codec, int numStripes) {
+        if (numStripes < 1) {
+            throw new IllegalArgumentException("The number of stripes must be positive: " + numStripes);
+        }
+        this.sink = sink;
+        this.codec = PayloadCodec.of(codec);
+        this.numStripes = numStripes;
+    }
+
+    /**
+     * Resume a transfer that was interrupted, whose message packets were written to this decoder's sink by an earlier
+     * decoder. The packets already written are treated as received, so only the rest are missing, and they are read back
+     * from the sink to compute the digest of the message. This must be called before any packet is added.
+     * <p>
+     * If a packet added later shows that the sender's message is not the one the packets already written are from, i.e.,
+     * its total number of packets or its digest differs, the packet is discarded and {@link #isMessageChanged()} returns
+     * <code>true</code>.
+     *
+     * @param totalPackets    the total number of packets in the message
+     * @param receivedPackets the sequence numbers of the packets already written to the sink
+     * @param fileDigest      the digest of the full message that the sender sent before, or null if it was not received
+     * @throws IllegalStateException if this decoder does not write to a sink, or a packet was already added
+     */
+    public void resume(int totalPackets, BitSet receivedPackets, byte[] fileDigest) {
+        if (sink == null || received != null) {
+            throw new IllegalStateException("Only a decoder that writes to a sink can resume a transfer, before any packet is added");
+        }
+        this.totalPackets = totalPackets;
+        this.received = (BitSet) receivedPackets.clone();
+        this.receivedPackets = received.cardinality();
+        this.highestReceivedPacket = received.length() - 1;
+        this.lowestMissingPacket = received.nextClearBit(0);
+        this.percentComplete = (this.receivedPackets / (float) totalPackets) * 100;
+        this.expectedFileDigest = fileDigest;
+        this.fileDigest = PacketChecksums.newFileDigest();
+        this.resumed = true;
+        initStripes();
     }
 
     /**
@@ -38,33 +152,35 @@ public class MultiPacketDecoder {
      * all the packets here and they will be organized based on their correct order.
      *
      * @param packetDecoder the packet to add to this decoder
+     * @throws IOException if this decoder writes to a sink and the packet's message could not be written, or if the
+     *                     packet's message is compressed and could not be decompressed
      */
-    public void addPacket(PacketDecoder packetDecoder) {
+    public void addPacket(PacketDecoder packetDecoder) throws IOException {
         boolean packetContainsMessage = packetDecoder.containsArg(PacketArgKey.SEQUENCE_NUM);
         if (packetContainsMessage) {
-            boolean arrayNotYetCreated = packetMessages == null;
-            if (arrayNotYetCreated) {
-                totalPackets = Integer.parseInt(packetDecoder.getArg(PacketArgKey.TOTAL_PACKETS));
-                packetMessages = new String[totalPackets];
-                missingPackets = new HashSet<>();
-                for (int i = 0; i < totalPackets; i++) {
-                    missingPackets.add(i);
+            int sequenceNum = 0;
+            int packetTotal = 0;
+            boolean compressed = "T".equals(packetDecoder.getArg(PacketArgKey.COMPRESSED));
+            byte[] message = packetDecoder.getMessage();
+            boolean checksumMatches = true;  // packets without a checksum are accepted as is
+            byte[] packetFileDigest = null;
+            try {
+                // The sequence number and total are parsed here, as they may be corrupted like any other arg
+                sequenceNum = Integer.parseInt(packetDecoder.getArg(PacketArgKey.SEQUENCE_NUM));
+                packetTotal = Integer.parseInt(packetDecoder.getArg(PacketArgKey.TOTAL_PACKETS));
+                if (packetDecoder.containsArg(PacketArgKey.FILE_DIGEST)) {
+                    packetFileDigest = PacketChecksums.parseDigest(packetDecoder.getArg(PacketArgKey.FILE_DIGEST));
                 }
-            }
-
-            boolean containsSequenceNum = packetDecoder.containsArg(PacketArgKey.SEQUENCE_NUM);
-            if (containsSequenceNum) {  // else, packet will be left as missing, and will hopefully be sent correctly later with the SEQUENCE_NUM
-                int sequenceNum = Integer.parseInt(packetDecoder.getArg(PacketArgKey.SEQUENCE_NUM));
-                if (missingPackets.contains(sequenceNum)) {
-                    packetMessages[sequenceNum] = packetDecoder.getMessage();
-                    missingPackets.remove(sequenceNum);
-                    receivedPackets++;
-                    percentComplete = (receivedPackets / (float) totalPackets) * 100;
+                if (packetDecoder.containsArg(PacketArgKey.CHECKSUM)) {
+                    int checksum = PacketChecksums.parseChecksum(packetDecoder.getArg(PacketArgKey.CHECKSUM));
+                    checksumMatches = checksum == PacketChecksums.getChecksum(sequenceNum, packetTotal, compressed,
+                            packetFileDigest, message);
                 }
+            } catch (IllegalArgumentException e) {
+                checksumMatches = false;  // the arg itself was corrupted
             }
-            // Always update the completed arg, as even if the packet isn't missing, we want to know if the server
-            // completed sending all its packets
-            args.put(PacketArgKey.COMPLETED, packetDecoder.getArg(PacketArgKey.COMPLETED));
+            addMessagePacket(sequenceNum, packetTotal, packetDecoder.getArg(PacketArgKey.COMPLETED), compressed,
+                    checksumMatches, packetFileDigest, message);
         } else {
             for (PacketArgKey key : packetDecoder.getArgs().keySet()) {
                 args.put(key, packetDecoder.getArg(key));
@@ -72,42 +188,363 @@ public class MultiPacketDecoder {
         }
     }
 
+    /**
+     * Add a packet received in the binary wire format to this decoders' collection. Binary packets always contain a
+     * message, which is organized based on its sequence number.
+     *
+     * @param packetDecoder the packet to add to this decoder
+     * @throws IOException if this decoder writes to a sink and the packet's message could not be written, or if the
+     *                     packet's message is compressed and could not be decompressed
+     */
+    public void addPacket(BinaryPacketDecoder packetDecoder) throws IOException {
+        boolean checksumMatches = packetDecoder.getChecksum() == PacketChecksums.getChecksum(packetDecoder.getSequenceNum(),
+                packetDecoder.getTotalPackets(), packetDecoder.isCompressed(), packetDecoder.getFileDigest(),
+                packetDecoder.getMessage());
+        addMessagePacket(packetDecoder.getSequenceNum(), packetDecoder.getTotalPackets(),
+                packetDecoder.isCompleted() ? "T" : "F", packetDecoder.isCompressed(), checksumMatches,
+                packetDecoder.getFileDigest(), packetDecoder.getMessage());
+    }
+
+    /**
+     * Store the message of a packet that is part of a larger message, regardless of the format it was received in
+     *
+     * @param checksumMatches whether the packet's checksum matches the packet as it was received. If not, the packet is
+     *                        discarded.
+     * @param packetFileDigest the digest of the full message included in the packet, or null if it is not included
+     */
+    private void addMessagePacket(int sequenceNum, int packetTotal, String completed, boolean compressed,
+                                  boolean checksumMatches, byte[] packetFileDigest, byte[] message) throws IOException {
+        // Even if the packet is corrupted, update the completed arg, as otherwise the packets missing would never be
+        // reported. At worst, they are reported early.
+        args.put(PacketArgKey.COMPLETED, completed);
+        if (!checksumMatches) {
+            corruptPackets++;
+            return;
+        }
+        if (resumed && (packetTotal != totalPackets || (packetFileDigest != null && expectedFileDigest != null &&
+                !Arrays.equals(packetFileDigest, expectedFileDigest)))) {
+            messageChanged = true;
+            return;
+        }
+        if (packetFileDigest != null) {
+            expectedFileDigest = packetFileDigest;
+        }
+        boolean notYetInitialized = received == null;
+        if (notYetInitialized) {
+            totalPackets = packetTotal;
+            if (sink == null) {
+                packetMessages = new byte[totalPackets][];
+            }
+            received = new BitSet(totalPackets);
+            fileDigest = PacketChecksums.newFileDigest();
+            initStripes();
+        }
+
+        boolean isMissing = sequenceNum >= 0 && sequenceNum < totalPackets && !received.get(sequenceNum);
+        if (isMissing) {
+            if (compressed) {
+                message = decompress(message);
+            }
+            if (sink != null) {
+                sink.writeSegment(sequenceNum, totalPackets, message);
+            } else {
+                packetMessages[sequenceNum] = message;
+            }
+            received.set(sequenceNum);
+            receivedPackets++;
+            highestReceivedPacket = Math.max(highestReceivedPacket, sequenceNum);
+            lowestMissingPacket = received.nextClearBit(lowestMissingPacket);
+            percentComplete = (receivedPackets / (float) totalPackets) * 100;
+            updateStripe(sequenceNum);
+            updateFileDigest(sequenceNum, message);
+        }
+    }
+
+    /**
+     * Start tracking each stripe's packets, once the total number of packets is known, counting the packets already
+     * received
+     */
+    private void initStripes() {
+        stripeMissingPackets = new int[numStripes];
+        stripeLowestMissingPacket = new int[numStripes];
+        stripeHighestReceivedPacket = new int[numStripes];
+        for (int stripe = 0; stripe < numStripes; stripe++) {
+            stripeMissingPackets[stripe] = stripe < totalPackets ? (totalPackets - 1 - stripe) / numStripes + 1 : 0;
+            stripeLowestMissingPacket[stripe] = stripe;
+            stripeHighestReceivedPacket[stripe] = -1;
+        }
+        for (int i = received.nextSetBit(0); i >= 0; i = received.nextSetBit(i + 1)) {
+            updateStripe(i);
+        }
+    }
+
+    /**
+     * Update the tracking of the stripe of the packet that was just received
+     */
+    private void updateStripe(int sequenceNum) {
+        int stripe = sequenceNum % numStripes;
+        stripeMissingPackets[stripe]--;
+        stripeHighestReceivedPacket[stripe] = Math.max(stripeHighestReceivedPacket[stripe], sequenceNum);
+        while (stripeLowestMissingPacket[stripe] < totalPackets && received.get(stripeLowestMissingPacket[stripe])) {
+            stripeLowestMissingPacket[stripe] += numStripes;
+        }
+    }
+
+    /**
+     * Add the packets stored since the last update, up to the first missing packet, to the digest of the message. If the
+     * packet that was just stored cannot be digested yet, its message is kept in the digest buffer when it is close
+     * enough to the first missing packet, so that it does not have to be read back from the sink later.
+     *
+     * @param sequenceNum the sequence number of the packet that was just stored, whose message is given rather than
+     *                    read back
+     */
+    private void updateFileDigest(int sequenceNum, byte[] message) throws IOException {
+        for (; digestedPackets < lowestMissingPacket; digestedPackets++) {
+            if (digestedPackets == sequenceNum) {
+                fileDigest.update(message);
+            } else {
+                fileDigest.update(readForDigest(digestedPackets));
+            }
+        }
+        if (digestedPackets == totalPackets) {
+            computedFileDigest = fileDigest.digest();
+            digestBuffer = null;
+        } else if (sink != null && sequenceNum > digestedPackets) {
+            if (digestBuffer == null) {
+                digestBuffer = new byte[Math.min(totalPackets, Math.max(1, MAX_DIGEST_BUFFER_BYTES / sink.getSegmentSize()))][];
+            }
+            // Each packet in the buffer is at most its length ahead of the first missing packet, so none share a slot
+            if (sequenceNum - digestedPackets < digestBuffer.length) {
+                digestBuffer[sequenceNum % digestBuffer.length] = message;
+            }
+        }
+    }
+
+    /**
+     * @return the message of the given packet that was stored earlier, taken from the digest buffer if it is there, or
+     * else read back from the sink if there is one
+     */
+    private byte[] readForDigest(int sequenceNum) throws IOException {
+        if (sink == null) {
+            return packetMessages[sequenceNum];
+        }
+        if (digestBuffer != null && digestBuffer[sequenceNum % digestBuffer.length] != null) {
+            byte[] message = digestBuffer[sequenceNum % digestBuffer.length];
+            digestBuffer[sequenceNum % digestBuffer.length] = null;
+            return message;
+        }
+        packetsReadForDigest++;
+        return sink.readSegment(sequenceNum);
+    }
+
+    /**
+     * @return the given compressed message, decompressed with this decoder's codec. A message can be no longer than the
+     * sink's segment size, or than the max message length if there is no sink.
+     * @throws IOException if this decoder has no codec or the message could not be decompressed
+     */
+    private byte[] decompress(byte[] message) throws IOException {
+        if (codec == null) {
+            throw new IOException("Received a compressed packet without a codec to decompress it with");
+        }
+        int maxLength = sink != null ? sink.getSegmentSize() : MultiPacketEncoder.MAX_MAX_MESSAGE_LENGTH;
+        return codec.decode(message, maxLength);
+    }
+
     /**
      * @param onlyIfComplete whether to only return the message if all packets from the sequence have been received
-     * @return the full message from all packets in this sequence
+     * @return the full message from all packets in this sequence, or null if the message was written to a sink
      */
-    public String getFullMessage(boolean onlyIfComplete) {
+    public byte[] getFullMessage(boolean onlyIfComplete) {
+        if (sink != null) {
+            return null;
+        }
         if (receivedAllPackets()) {
-            if (fullMessage.length() == 0) {  // no need to build up the message if we've already stored it
-                for (String msg : packetMessages) {
-                    fullMessage.append(msg);
-                }
+            if (fullMessage == null) {  // no need to build up the message if we've already stored it
+                fullMessage = joinPacketMessages();
             }
-            return fullMessage.toString();
+            return fullMessage;
         }
         if (!onlyIfComplete) {
-            StringBuilder incompleteMessage = new StringBuilder();
-            for (String msg : packetMessages) {
-                incompleteMessage.append(msg);
-            }
-            return incompleteMessage.toString();
+            return joinPacketMessages();
         }
         return null;
     }
 
+    /**
+     * @return the messages of all the packets received so far, in order of their sequence numbers
+     */
+    private byte[] joinPacketMessages() {
+        ByteArrayOutputStream joined = new ByteArrayOutputStream();
+        if (packetMessages != null) {
+            for (byte[] msg : packetMessages) {
+                if (msg != null) {
+                    joined.writeBytes(msg);
+                }
+            }
+        }
+        return joined.toByteArray();
+    }
+
     /**
      * @return <code>true</code> if all packets for the larger message have been received or if the packets
      * added to this decoder do not have a message, else <code>false</code>
      */
     public boolean receivedAllPackets() {
-        return missingPackets == null || getMissingPacketNumbers().size() == 0;
+        return received == null || receivedPackets == totalPackets;
     }
 
     /**
-     * @return the sequence numbers of the packets missing that are needed to construct the larger message
+     * @return the number of packets missing that are needed to construct the larger message
      */
-    public Set<Integer> getMissingPacketNumbers() {
-        return (Set<Integer>) missingPackets.clone();
+    public int getNumMissingPackets() {
+        return totalPackets - receivedPackets;
+    }
+
+    /**
+     * @return the number of packets missing below the highest sequence number received. If the packets are sent in order
+     * of their sequence numbers, these are the packets that were lost, while the packets above it were not sent yet.
+     */
+    public int getNumMissingPacketsBelowHighestReceived() {
+        return highestReceivedPacket + 1 - receivedPackets;
+    }
+
+    /**
+     * @return <code>true</code> if a packet was received, so that the total number of packets is known, and every packet
+     * of the given stripe has been received
+     */
+    public boolean receivedAllStripePackets(int stripe) {
+        return received != null && stripeMissingPackets[stripe] == 0;
+    }
+
+    /**
+     * @return the number of packets missing from the given stripe, or 0 if no packet was received yet
+     */
+    public int getNumMissingPackets(int stripe) {
+        return received != null ? stripeMissingPackets[stripe] : 0;
+    }
+
+    /**
+     * @return the cumulative acknowledgement number for the packets of the given stripe received so far, i.e., the lowest
+     * sequence number of the stripe that has not been received. All packets of the stripe below this number have been
+     * received; the packets below it that are in other stripes may not have been.
+     */
+    public int getCumulativeAckNumber(int stripe) {
+        return received != null ? stripeLowestMissingPacket[stripe] : 0;
+    }
+
+    /**
+     * @param maxNumPackets the max number of sequence numbers to include
+     * @return the lowest sequence numbers of the packets missing from the given stripe, up to maxNumPackets of them,
+     * encoded as ranges
+     */
+    public SequenceRanges getMissingPacketRanges(int stripe, int maxNumPackets) {
+        SequenceRanges missingRanges = new SequenceRanges();
+        if (received == null) {
+            return missingRanges;
+        }
+        for (int i = received.nextClearBit(stripeLowestMissingPacket[stripe]); i < totalPackets && missingRanges.size() < maxNumPackets;
+             i = received.nextClearBit(i + 1)) {
+            if (i % numStripes == stripe) {
+                missingRanges.add(i);
+            }
+        }
+        return missingRanges;
+    }
+
+    /**
+     * @return the sequence numbers of the packets of the given stripe received above the stripe's cumulative
+     * acknowledgement number, encoded as ranges
+     */
+    public SequenceRanges getSelectiveAckRanges(int stripe) {
+        SequenceRanges selectiveAcks = new SequenceRanges();
+        if (received == null) {
+            return selectiveAcks;
+        }
+        for (int i = received.nextSetBit(stripeLowestMissingPacket[stripe] + 1); i >= 0 && i <= stripeHighestReceivedPacket[stripe];
+             i = received.nextSetBit(i + 1)) {
+            if (i % numStripes == stripe) {
+                selectiveAcks.add(i);
+            }
+        }
+        return selectiveAcks;
+    }
+
+    /**
+     * Perform the given action for the sequence number of each packet missing that is needed to construct the larger
+     * message, in ascending order
+     */
+    public void forEachMissingPacket(IntConsumer action) {
+        if (received == null) {
+            return;
+        }
+        for (int i = received.nextClearBit(lowestMissingPacket); i < totalPackets; i = received.nextClearBit(i + 1)) {
+            action.accept(i);
+        }
+    }
+
+    /**
+     * @return the cumulative acknowledgement number for the packets received so far, i.e., the lowest sequence number
+     * that has not been received. All packets below this number have been received.
+     */
+    public int getCumulativeAckNumber() {
+        return lowestMissingPacket;
+    }
+
+    /**
+     * @return the sequence numbers of the packets missing that are needed to construct the larger message, encoded as
+     * ranges
+     */
+    public SequenceRanges getMissingPacketRanges() {
+        SequenceRanges missingRanges = new SequenceRanges();
+        forEachMissingPacket(missingRanges::add);
+        return missingRanges;
+    }
+
+    /**
+     * @param maxNumPackets the max number of sequence numbers to include
+     * @return the lowest sequence numbers of the packets missing, up to maxNumPackets of them, encoded as ranges. This
+     * keeps a report of the missing packets small enough to fit in a single datagram.
+     */
+    public SequenceRanges getMissingPacketRanges(int maxNumPackets) {
+        SequenceRanges missingRanges = new SequenceRanges();
+        if (received == null) {
+            return missingRanges;
+        }
+        for (int i = received.nextClearBit(lowestMissingPacket); i < totalPackets && missingRanges.size() < maxNumPackets;
+             i = received.nextClearBit(i + 1)) {
+            missingRanges.add(i);
+        }
+        return missingRanges;
+    }
+
+    /**
+     * @param maxSequenceNum the sequence number to stop at, exclusive
+     * @return the sequence numbers of the packets received below maxSequenceNum, encoded as ranges
+     */
+    public SequenceRanges getReceivedPacketRanges(int maxSequenceNum) {
+        SequenceRanges receivedRanges = new SequenceRanges();
+        if (received == null) {
+            return receivedRanges;
+        }
+        for (int i = received.nextSetBit(0); i >= 0 && i < maxSequenceNum; i = received.nextSetBit(i + 1)) {
+            receivedRanges.add(i);
+        }
+        return receivedRanges;
+    }
+
+    /**
+     * @return the sequence numbers of the packets received above the cumulative acknowledgement number, encoded as
+     * ranges
+     */
+    public SequenceRanges getSelectiveAckRanges() {
+        SequenceRanges selectiveAcks = new SequenceRanges();
+        if (received == null) {
+            return selectiveAcks;
+        }
+        for (int i = received.nextSetBit(lowestMissingPacket + 1); i >= 0 && i <= highestReceivedPacket; i = received.nextSetBit(i + 1)) {
+            selectiveAcks.add(i);
+        }
+        return selectiveAcks;
     }
 
     /**
@@ -132,6 +569,59 @@ public class MultiPacketDecoder {
         return args.get(key);
     }
 
+    /**
+     * @return <code>true</code> if all packets were received and the digest of the full message matches the digest sent
+     * with the message, or if the sender did not send a digest, else <code>false</code>. If the sender sent a digest,
+     * the message's own digest must have been computed for it to match.
+     */
+    public boolean fileDigestMatches() {
+        if (!receivedAllPackets()) {
+            return false;
+        }
+        if (expectedFileDigest == null) {
+            return true;
+        }
+        return computedFileDigest != null && Arrays.equals(expectedFileDigest, computedFileDigest);
+    }
+
+    /**
+     * @return <code>true</code> if this decoder resumed a transfer, and a packet was added that is from a different
+     * message than the packets already written to the sink, e.g., because the sender's file changed since the transfer
+     * was interrupted
+     */
+    public boolean isMessageChanged() {
+        return messageChanged;
+    }
+
+    /**
+     * @return the sequence numbers of the packets received so far, or null if no packet was received
+     */
+    public BitSet getReceivedPackets() {
+        return received != null ? (BitSet) received.clone() : null;
+    }
+
+    /**
+     * @return the digest of the full message as sent by the sender, or null if it was not received yet
+     */
+    public byte[] getExpectedFileDigest() {
+        return expectedFileDigest;
+    }
+
+    /**
+     * @return the number of packets discarded because they were corrupted
+     */
+    public int getNumCorruptPackets() {
+        return corruptPackets;
+    }
+
+    /**
+     * @return the number of packets that were read back from the sink to digest them, because they were stored while an
+     * earlier packet was missing
+     */
+    public int getNumPacketsReadForDigest() {
+        return packetsReadForDigest;
+    }
+
     public int getNumReceivedPackets() {
         return receivedPackets;
     }
@@ -140,6 +630,10 @@ public class MultiPacketDecoder {
         return totalPackets;
     }
 
+    public int getNumStripes() {
+        return numStripes;
+    }
+
     public float getPercentComplete() {
         return percentComplete;
     }
@@ -1,68 +1,327 @@
 // Avromi Schneierson - 11/3/2023
 package src.InternetProtocolHandling;
 
+import src.InternetProtocolHandling.enums.Codec;
 import src.InternetProtocolHandling.enums.PacketArgKey;
+import src.InternetProtocolHandling.enums.WireFormat;
 
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+import java.security.MessageDigest;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * This class is responsible for taking a full message and encoding it into packet Strings formatted to be sent to or
- * from a Client
+ * This class is responsible for taking a full message and encoding it into packets formatted to be sent to or from a
+ * Client. The message can either be given as bytes, in which case all the packets are created up front, or
+ * read from a {@link FileSegmentSource}, in which case each packet is created from the file when it is requested.
+ * <p>
+ * Packets requested with {@link #getEncodedPacket(int, WireFormat, Codec)} are encoded, and compressed if requested, once
+ * and cached, up to MAX_CACHED_BYTES, so that resending a packet, e.g., to retransmit it or to send it to another client,
+ * only writes its bytes. As the encoded packets are never modified, one encoder can be shared by any number of sessions.
+ * <p>
+ * Every encoded packet includes its checksum, and the last packet of the message includes the digest of the full message,
+ * so that the receiver can verify what it receives (see {@link PacketChecksums}).
  */
 public class MultiPacketEncoder {
-    private final int MAX_MESSAGE_LENGTH = 100;
+    /**
+     * The max length of each packet's message when no length is specified
+     */
+    public static final int DEFAULT_MAX_MESSAGE_LENGTH = 100;
+    /**
+     * The bounds that a requested max message length is clamped to
+     */
+    public static final int MIN_MAX_MESSAGE_LENGTH = 16;
+    public static final int MAX_MAX_MESSAGE_LENGTH = 64 * 1024;
+    /**
+     * The max length of each packet's message when each packet is sent as a UDP datagram, so that a packet fits in a
+     * single IP packet on a typical link and is not fragmented
+     */
+    public static final int MAX_DATAGRAM_MESSAGE_LENGTH = 1400;
+    private final long MAX_CACHED_BYTES = 16L * 1024 * 1024;
+    private final int maxMessageLength;
     private final ArrayList<PacketEncoder> packets = new ArrayList<>();
+    private final FileSegmentSource source;
+    private final EncodedPacket[][] encodedPackets;  // the cached packets, by wire format and codec and then sequence number
+    private final AtomicLong cachedBytes = new AtomicLong();
+    private final byte[] fileDigest;  // the digest of a message given as bytes
+    private volatile int[] segmentChecksums;  // the checksums of the segments sent as a separate header and message
 
     private int totalPackets = 0;
 
+    /**
+     * Constructor that creates the individual packet(s) for this message, with each packet's message having a max length
+     * of DEFAULT_MAX_MESSAGE_LENGTH
+     */
+    public MultiPacketEncoder(HashMap<PacketArgKey, String> args, HashMap<PacketArgKey, Object[]> arrayArgs, byte[] fullMessage) {
+        this(args, arrayArgs, fullMessage, DEFAULT_MAX_MESSAGE_LENGTH);
+    }
+
     /**
      * Constructor that creates the individual packet(s) for this message
      *
-     * @param fullMessage the message to send, if applicable. If included, it will be broken up into packets each with a
-     *                    max length of MAX_MESSAGE_LENGTH. The Completed, TotalPackets, and SequenceNum args are
-     *                    automatically applied to the packets as broken down.
-     * @param args        the args to include in each packet. This is primarily used when trying to send a packet without any
-     *                    message (e.g., a packet sent from the client just indicating which packets it is missing). However, it
-     *                    can also be used to include additional args besides for the auto-generated ones when sending a message.
-     */
-    public MultiPacketEncoder(HashMap<PacketArgKey, String> args, HashMap<PacketArgKey, Object[]> arrayArgs, String fullMessage) {
-        boolean containsMessage = fullMessage != null && fullMessage.length() > 0;
+     * @param fullMessage      the message to send, if applicable. If included, it will be broken up into packets each with a
+     *                         max length of maxMessageLength. The Completed, TotalPackets, and SequenceNum args are
+     *                         automatically applied to the packets as broken down.
+     * @param args             the args to include in each packet. This is primarily used when trying to send a packet without any
+     *                         message (e.g., a packet sent from the client just indicating which packets it is missing). However, it
+     *                         can also be used to include additional args besides for the auto-generated ones when sending a message.
+     * @param maxMessageLength the max length of each packet's message. This is clamped to between MIN_MAX_MESSAGE_LENGTH
+     *                         and MAX_MAX_MESSAGE_LENGTH.
+     */
+    public MultiPacketEncoder(HashMap<PacketArgKey, String> args, HashMap<PacketArgKey, Object[]> arrayArgs, byte[] fullMessage,
+                              int maxMessageLength) {
+        this.maxMessageLength = clampMaxMessageLength(maxMessageLength);
+        this.source = null;
+        boolean containsMessage = fullMessage != null && fullMessage.length > 0;
         if (containsMessage) {
-            totalPackets = (fullMessage.length() / MAX_MESSAGE_LENGTH) +
-                    (fullMessage.length() % MAX_MESSAGE_LENGTH > 0 ? 1 : 0);
-            StringBuilder currMessage = new StringBuilder();
+            totalPackets = (fullMessage.length / this.maxMessageLength) +
+                    (fullMessage.length % this.maxMessageLength > 0 ? 1 : 0);
             int sequenceNum = 0;
-            for (int charNum = 0; charNum < fullMessage.length(); charNum++) {
-                currMessage.append(fullMessage.charAt(charNum));
-                if ((charNum + 1) % MAX_MESSAGE_LENGTH == 0 || charNum == fullMessage.length() - 1) {
-                    PacketEncoder packet = new PacketEncoder(args, arrayArgs, currMessage.toString());
-
-                    // All packets are given a default value of F, even the last. It is up to the packet sender to modify
-                    // this value if it is the last packet they send, as they determine which packet is actually sent last.
-                    packet.setArg(PacketArgKey.COMPLETED, "F");
-                    packet.setArg(PacketArgKey.TOTAL_PACKETS, String.valueOf(totalPackets));
-                    packet.setArg(PacketArgKey.SEQUENCE_NUM, String.valueOf(sequenceNum));
-                    sequenceNum++;
-                    packets.add(packet);
-                    currMessage = new StringBuilder();
-                }
+            for (int start = 0; start < fullMessage.length; start += this.maxMessageLength) {
+                byte[] currMessage = Arrays.copyOfRange(fullMessage, start, Math.min(start + this.maxMessageLength, fullMessage.length));
+                PacketEncoder packet = new PacketEncoder(args, arrayArgs, currMessage);
+
+                // All packets are given a default value of F, even the last. It is up to the packet sender to modify
+                // this value if it is the last packet they send, as they determine which packet is actually sent last.
+                packet.setArg(PacketArgKey.COMPLETED, "F");
+                packet.setArg(PacketArgKey.TOTAL_PACKETS, String.valueOf(totalPackets));
+                packet.setArg(PacketArgKey.SEQUENCE_NUM, String.valueOf(sequenceNum));
+                sequenceNum++;
+                packets.add(packet);
             }
+            MessageDigest digest = PacketChecksums.newFileDigest();
+            digest.update(fullMessage);
+            fileDigest = digest.digest();
+            packets.get(totalPackets - 1).setArg(PacketArgKey.FILE_DIGEST, PacketChecksums.digestToString(fileDigest));
         } else {
+            fileDigest = null;
             packets.add(new PacketEncoder(args, arrayArgs));
         }
+        encodedPackets = new EncodedPacket[WireFormat.values().length * Codec.values().length][];
+    }
+
+    /**
+     * Constructor for a message read from a file. No packets are created up front; instead each packet is read from the
+     * file when it is requested with {@link #getPacket(int)}, so the file's contents are never held in memory.
+     *
+     * @param source           the file to read the message from. The source is not closed by this class.
+     * @param maxMessageLength the max length of each packet's message. This is clamped to between MIN_MAX_MESSAGE_LENGTH
+     *                         and MAX_MAX_MESSAGE_LENGTH.
+     */
+    public MultiPacketEncoder(FileSegmentSource source, int maxMessageLength) {
+        this.maxMessageLength = clampMaxMessageLength(maxMessageLength);
+        this.source = source;
+        this.fileDigest = null;
+        totalPackets = source.getNumSegments(this.maxMessageLength);
+        encodedPackets = new EncodedPacket[WireFormat.values().length * Codec.values().length][];
     }
 
     /**
-     * @return an ArrayList of all the packets
+     * @return an ArrayList of all the packets. For a message read from a file, this is empty; use
+     * {@link #getPacket(int)} instead.
      */
     public ArrayList<PacketEncoder> getPackets() {
         return packets;
     }
 
+    /**
+     * Get the packet with the given sequence number. The packet returned has a COMPLETED arg of F; as with
+     * {@link #getPackets()}, it is up to the packet sender to set it if it is the last packet they send.
+     *
+     * @throws IOException if the message is read from a file and the packet could not be read from it
+     */
+    public PacketEncoder getPacket(int sequenceNum) throws IOException {
+        if (source == null) {
+            return packets.get(sequenceNum);
+        }
+        PacketEncoder packet = getPacketWithoutMessage(sequenceNum);
+        packet.setMessage(source.readSegment(sequenceNum, maxMessageLength));
+        return packet;
+    }
+
+    /**
+     * @return <code>true</code> if the message is read from a file, so that each packet's message can be written directly
+     * from the file with {@link #transferMessage(int, WritableByteChannel)}
+     */
+    public boolean canTransferMessages() {
+        return source != null;
+    }
+
+    /**
+     * Get the header of the packet with the given sequence number, encoded in the given wire format, for a packet whose
+     * message is written separately with {@link #transferMessage(int, WritableByteChannel)}. Headers are small, so they
+     * are encoded each time rather than cached. The header holds the checksum of the message; the checksums of all the
+     * messages are computed in a single pass over the file the first time any header is requested.
+     *
+     * @throws IOException           if the packet's message could not be read from the file
+     * @throws IllegalStateException if the message is not read from a file
+     */
+    public EncodedPacket getEncodedHeader(int sequenceNum, WireFormat wireFormat) throws IOException {
+        if (source == null) {
+            throw new IllegalStateException("Only the packets of a message read from a file are sent as a separate header and message");
+        }
+        PacketEncoder packet = getPacketWithoutMessage(sequenceNum);
+        packet.setArg(PacketArgKey.CHECKSUM, PacketChecksums.checksumToString(getSegmentChecksum(sequenceNum)));
+        int messageLength = source.getSegmentLength(sequenceNum, maxMessageLength);
+        return wireFormat == WireFormat.BINARY ? new BinaryPacketEncoder(packet).getEncodedHeader(messageLength) :
+                packet.getEncodedHeader(messageLength);
+    }
+
+    /**
+     * Write the message of the packet with the given sequence number directly from the file to the given channel, without
+     * copying it into memory where the OS supports it. The packet's header must be written first, with
+     * {@link #getEncodedHeader(int, WireFormat)}.
+     *
+     * @param target the channel to write to, which must be in blocking mode
+     * @return the number of bytes written
+     * @throws IllegalStateException if the message is not read from a file
+     */
+    public int transferMessage(int sequenceNum, WritableByteChannel target) throws IOException {
+        if (source == null) {
+            throw new IllegalStateException("Only the messages of packets read from a file can be transferred");
+        }
+        return source.transferSegment(sequenceNum, maxMessageLength, target);
+    }
+
+    /**
+     * @return the checksum of the segment with the given sequence number. The checksums of all the segments are computed
+     * together, in a single sequential read of the file, the first time any is requested, so that the segments sent
+     * from the file with zero-copy are not each read into memory again to compute their checksums.
+     */
+    private int getSegmentChecksum(int sequenceNum) throws IOException {
+        int[] checksums = segmentChecksums;
+        if (checksums == null) {
+            synchronized (this) {
+                if (segmentChecksums == null) {
+                    segmentChecksums = source.getSegmentChecksums(maxMessageLength);
+                }
+                checksums = segmentChecksums;
+            }
+        }
+        return checksums[sequenceNum];
+    }
+
+    /**
+     * @return a packet with the args of the packet with the given sequence number, with a COMPLETED arg of F, and without
+     * its message or checksum. The last packet of the message includes the digest of the file, which is computed the
+     * first time it is requested.
+     * @throws IOException if the file could not be read to compute its digest
+     */
+    private PacketEncoder getPacketWithoutMessage(int sequenceNum) throws IOException {
+        PacketEncoder packet = new PacketEncoder();
+        packet.setArg(PacketArgKey.COMPLETED, "F");
+        packet.setArg(PacketArgKey.TOTAL_PACKETS, String.valueOf(totalPackets));
+        packet.setArg(PacketArgKey.SEQUENCE_NUM, String.valueOf(sequenceNum));
+        if (sequenceNum == totalPackets - 1) {
+            packet.setArg(PacketArgKey.FILE_DIGEST, PacketChecksums.digestToString(getFileDigest(sequenceNum)));
+        }
+        return packet;
+    }
+
+    /**
+     * @return the digest of the full message if it is included in the packet with the given sequence number, i.e., the
+     * last packet, else null
+     * @throws IOException if the message is read from a file and the file could not be read to compute its digest
+     */
+    private byte[] getFileDigest(int sequenceNum) throws IOException {
+        if (sequenceNum != totalPackets - 1) {
+            return null;
+        }
+        return getFileDigest();
+    }
+
+    /**
+     * @return the digest of the full message, which is sent in the last packet
+     * @throws IOException if the message is read from a file and the file could not be read to compute its digest
+     */
+    public byte[] getFileDigest() throws IOException {
+        return source != null ? source.getFileDigest() : fileDigest;
+    }
+
+    /**
+     * Get the packet with the given sequence number, encoded in the given wire format, without compression
+     *
+     * @throws IOException if the message is read from a file and the packet could not be read from it
+     */
+    public EncodedPacket getEncodedPacket(int sequenceNum, WireFormat wireFormat) throws IOException {
+        return getEncodedPacket(sequenceNum, wireFormat, Codec.NONE);
+    }
+
+    /**
+     * Get the packet with the given sequence number, encoded in the given wire format with its message compressed with
+     * the given codec. The message is only compressed if that makes it smaller, in which case the packet's COMPRESSED
+     * arg is set to T. The packet's CHECKSUM arg is computed from its message as it is sent. The packet is only encoded
+     * and compressed the first time it is requested in each format with each codec, as long as there is room in the
+     * cache.
+     *
+     * @throws IOException if the message is read from a file and the packet could not be read from it
+     */
+    public EncodedPacket getEncodedPacket(int sequenceNum, WireFormat wireFormat, Codec codec) throws IOException {
+        EncodedPacket[] cache = getCache(wireFormat, codec);
+        EncodedPacket encodedPacket = cache[sequenceNum];
+        if (encodedPacket != null) {
+            return encodedPacket;
+        }
+        // The packets of a message given as bytes are shared, so they are copied before their args are set
+        PacketEncoder packet = source == null ? new PacketEncoder(getPacket(sequenceNum)) : getPacket(sequenceNum);
+        PayloadCodec payloadCodec = PayloadCodec.of(codec);
+        if (payloadCodec != null) {
+            byte[] compressedMessage = payloadCodec.encode(packet.getMessage());
+            if (compressedMessage != null) {
+                packet.setMessage(compressedMessage);
+                packet.setArg(PacketArgKey.COMPRESSED, "T");
+            }
+        }
+        int checksum = PacketChecksums.getChecksum(sequenceNum, totalPackets, "T".equals(packet.getArg(PacketArgKey.COMPRESSED)),
+                getFileDigest(sequenceNum), packet.getMessage());
+        packet.setArg(PacketArgKey.CHECKSUM, PacketChecksums.checksumToString(checksum));
+        encodedPacket = wireFormat == WireFormat.BINARY ? new BinaryPacketEncoder(packet).getEncodedPacket() : packet.getEncodedPacket();
+        if (cachedBytes.addAndGet(encodedPacket.getLength()) <= MAX_CACHED_BYTES) {
+            cache[sequenceNum] = encodedPacket;  // the packet is immutable, so it is safe to share without locking
+        } else {
+            cachedBytes.addAndGet(-encodedPacket.getLength());
+        }
+        return encodedPacket;
+    }
+
+    /**
+     * @return the cache of the packets encoded in the given wire format with the given codec, which is created the
+     * first time it is used, so that no room is taken up for the formats and codecs that are never requested
+     */
+    private synchronized EncodedPacket[] getCache(WireFormat wireFormat, Codec codec) {
+        int index = wireFormat.ordinal() * Codec.values().length + codec.ordinal();
+        if (encodedPackets[index] == null) {
+            encodedPackets[index] = new EncodedPacket[totalPackets];
+        }
+        return encodedPackets[index];
+    }
+
     public int getNumTotalPackets() {
         return totalPackets;
     }
+
+    public int getMaxMessageLength() {
+        return maxMessageLength;
+    }
+
+    /**
+     * @return the given max message length, clamped to between MIN_MAX_MESSAGE_LENGTH and MAX_MAX_MESSAGE_LENGTH. Both
+     * the server and the client clamp a requested length with this method so that they agree on the length used.
+     */
+    public static int clampMaxMessageLength(int maxMessageLength) {
+        return Math.max(MIN_MAX_MESSAGE_LENGTH, Math.min(MAX_MAX_MESSAGE_LENGTH, maxMessageLength));
+    }
+
+    /**
+     * @return the given max message length, clamped to between MIN_MAX_MESSAGE_LENGTH and MAX_DATAGRAM_MESSAGE_LENGTH,
+     * for packets sent as datagrams
+     */
+    public static int clampDatagramMessageLength(int maxMessageLength) {
+        return Math.min(MAX_DATAGRAM_MESSAGE_LENGTH, clampMaxMessageLength(maxMessageLength));
+    }
 }
 
 
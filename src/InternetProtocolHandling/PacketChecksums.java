@@ -0,0 +1,107 @@
+package src.InternetProtocolHandling;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.zip.CRC32C;
+
+/**
+ * This class computes the integrity checks of a message sent in packets:
+ * <ul>
+ *     <li>the checksum of each packet, a CRC32C of the packet's header fields, except for the COMPLETED arg, which is set
+ *     as the packet is sent, followed by its message as it is sent, i.e., after it is compressed. The header fields are
+ *     the sequence number and total number of packets, each as 4 big-endian bytes, a byte of 1 if the message is
+ *     compressed or 0 if not, and the digest of the full message if the packet includes it. Covering the header fields
+ *     ensures that a corrupted packet is not written to the wrong place in the file, or decompressed when it should not
+ *     be.</li>
+ *     <li>the digest of the full message, a SHA-256 of the message's bytes in order</li>
+ * </ul>
+ * Both are encoded in uppercase hex in the text format.
+ */
+public class PacketChecksums {
+    public static final String FILE_DIGEST_ALGORITHM = "SHA-256";
+    public static final int FILE_DIGEST_LENGTH = 32;
+    private static final HexFormat HEX_FORMAT = HexFormat.of().withUpperCase();
+
+    private PacketChecksums() {
+    }
+
+    /**
+     * @param fileDigest the digest of the full message included in the packet, or null if it is not included
+     * @return the checksum of the packet with the given header fields and message
+     */
+    public static int getChecksum(int sequenceNum, int totalPackets, boolean compressed, byte[] fileDigest, byte[] message) {
+        return getChecksum(sequenceNum, totalPackets, compressed, fileDigest, ByteBuffer.wrap(message));
+    }
+
+    /**
+     * @param fileDigest the digest of the full message included in the packet, or null if it is not included
+     * @param message    the packet's message, from its position to its limit. The buffer's position is advanced to its
+     *                   limit.
+     * @return the checksum of the packet with the given header fields and message
+     */
+    public static int getChecksum(int sequenceNum, int totalPackets, boolean compressed, byte[] fileDigest, ByteBuffer message) {
+        CRC32C crc = new CRC32C();
+        updateInt(crc, sequenceNum);
+        updateInt(crc, totalPackets);
+        crc.update(compressed ? 1 : 0);
+        if (fileDigest != null) {
+            crc.update(fileDigest);
+        }
+        crc.update(message);
+        return (int) crc.getValue();
+    }
+
+    private static void updateInt(CRC32C crc, int value) {
+        for (int shift = 24; shift >= 0; shift -= 8) {
+            crc.update(value >>> shift);
+        }
+    }
+
+    /**
+     * @return a new digest to compute the digest of a full message with
+     */
+    public static MessageDigest newFileDigest() {
+        try {
+            return MessageDigest.getInstance(FILE_DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(FILE_DIGEST_ALGORITHM + " is required to be supported by every JVM", e);
+        }
+    }
+
+    /**
+     * @return the given checksum, as the value of a CHECKSUM arg
+     */
+    public static String checksumToString(int checksum) {
+        return HEX_FORMAT.toHexDigits(checksum);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the value is not a valid checksum
+     */
+    public static int parseChecksum(String value) {
+        if (value.length() != 8) {
+            throw new IllegalArgumentException("Checksum '" + value + "' is not 8 hex digits");
+        }
+        return HexFormat.fromHexDigits(value);
+    }
+
+    /**
+     * @return the given digest, as the value of a FILE_DIGEST arg
+     */
+    public static String digestToString(byte[] digest) {
+        return HEX_FORMAT.formatHex(digest);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the value is not a valid digest
+     */
+    public static byte[] parseDigest(String value) {
+        byte[] digest = HEX_FORMAT.parseHex(value);
+        if (digest.length != FILE_DIGEST_LENGTH) {
+            throw new IllegalArgumentException("File digest '" + value + "' is not " + FILE_DIGEST_LENGTH + " bytes");
+        }
+        return digest;
+    }
+}
@@ -3,15 +3,27 @@ package src.InternetProtocolHandling;
 
 import src.InternetProtocolHandling.enums.PacketArgKey;
 
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.HashMap;
 
 /**
- * This class decodes a string of tokens sent as a packet into a map of the args and the message string, if applicable
+ * This class decodes the bytes of a packet into a map of the args and the message bytes, if applicable. The header of a
+ * packet is made up of ASCII characters, while the message can hold any bytes.
  */
 public class PacketDecoder {
+    /**
+     * The max length of a packet's contents, i.e., of its header and message, which a packet's length indicator may
+     * give. The header of a client's report or request can list the sequence numbers of many packets, so it is allowed
+     * far more room than the message.
+     */
+    public static final int MAX_CONTENTS_LENGTH = MultiPacketEncoder.MAX_MAX_MESSAGE_LENGTH + 16 * 1024 * 1024;
+    private final int INITIAL_PACKET_CAPACITY = 16;
+    private final int MAX_PREALLOCATED_LENGTH = 128 * 1024;  // the most room made for a packet before its bytes arrive
     private HashMap<PacketArgKey, String> args = new HashMap<>();
-    private final StringBuilder message = new StringBuilder();
-    private final StringBuilder packetString = new StringBuilder();
+    private byte[] message = new byte[0];
+    private byte[] packetBytes = new byte[INITIAL_PACKET_CAPACITY];
+    private int packetLength = 0;
 
     // Packet symbols:
     private final char LEADING_LENGTH_INDICATOR_CHAR = '(';
@@ -28,36 +40,147 @@ public class PacketDecoder {
      */
     private int lengthIndicatorNumChars = 0;
     /**
-     * The length of the packet string, as indicated in the packet strings preceding parentheses. This does not include
+     * The length of the packet in bytes, as indicated in the packet's preceding parentheses. This does not include
      * the length of the characters in the length indicator itself.
      */
     private int packetContentsLength = 0;
+    /**
+     * Whether the full length indicator, including the closing parenthesis, has been received
+     */
+    private boolean lengthIndicatorParsed = false;
+    /**
+     * The number of bytes received so far after the length indicator
+     */
+    private int receivedContentsLength = 0;
 
     /**
-     * Construct a packet with the packet String
+     * Construct an empty packet, whose bytes are added with {@link #appendToPacket(byte[], int, int)} as they are received
      */
-    public PacketDecoder(String packet) {
-        packetString.append(packet);
-        if (packetLengthMatchesIndicator()) {
-            parseContents(packet);
+    public PacketDecoder() {
+    }
+
+    /**
+     * Construct a packet with the packet's bytes
+     */
+    public PacketDecoder(byte[] packet) {
+        this(packet, 0, packet.length);
+    }
+
+    /**
+     * Construct a packet with the packet's bytes, found in the given range of the array. The bytes are copied, so the
+     * array can be reused once this returns.
+     */
+    public PacketDecoder(byte[] packet, int offset, int length) {
+        appendToPacket(packet, offset, length);
+    }
+
+    /**
+     * Construct a packet from its contents, i.e., its bytes after the length indicator, when the length indicator was
+     * already read, e.g., by a {@link PacketFrameReader}. The array is used as is rather than copied, so it should not be
+     * modified afterwards.
+     *
+     * @throws IllegalArgumentException if the contents are not a valid packet
+     */
+    public static PacketDecoder fromContents(byte[] contents) {
+        PacketDecoder packet = new PacketDecoder();
+        packet.packetBytes = contents;
+        packet.packetLength = contents.length;
+        packet.packetContentsLength = contents.length;
+        packet.receivedContentsLength = contents.length;
+        packet.lengthIndicatorParsed = true;
+        packet.parseContents();
+        return packet;
+    }
+
+    /**
+     * Add additional bytes to the packet. Once the Packet class has received all the bytes, the Packet is parsed. Bytes
+     * beyond the length given by the length indicator are not added.
+     *
+     * @return the number of bytes that were added to the packet, which is less than the given length if the packet was
+     * completed before all of them were added
+     * @throws IllegalArgumentException if the bytes do not form a valid length indicator, or the length indicator gives a
+     *                                  length over {@link #MAX_CONTENTS_LENGTH}
+     */
+    public int appendToPacket(byte[] additional, int offset, int length) {
+        int i = offset;
+        int end = offset + length;
+        for (; i < end && !lengthIndicatorParsed; i++) {
+            appendToPacket(additional[i]);
         }
+        // Once the length indicator is parsed, the rest of the contents can be appended in bulk
+        int numToAppend = Math.min(end - i, packetContentsLength - receivedContentsLength);
+        if (numToAppend > 0) {
+            if (packetLength + numToAppend > packetBytes.length) {
+                int totalLength = lengthIndicatorNumChars + packetContentsLength;
+                packetBytes = Arrays.copyOf(packetBytes, Math.max(packetLength + numToAppend, Math.min(totalLength, packetBytes.length * 2)));
+            }
+            System.arraycopy(additional, i, packetBytes, packetLength, numToAppend);
+            packetLength += numToAppend;
+            receivedContentsLength += numToAppend;
+            i += numToAppend;
+            if (isComplete()) {
+                parseContents();
+            }
+        }
+        return i - offset;
     }
 
     /**
-     * Add additional characters to the packet string. Once the Packet class has received all the characters, the Packet
-     * is parsed.
+     * Add a single additional byte to the packet. Once the Packet class has received all the bytes, the Packet is parsed.
      *
-     * @return a <code>boolean</code> indicating if the additional characters were added to the packet string
+     * @return a <code>boolean</code> indicating if the byte was added to the packet
+     * @throws IllegalArgumentException if the byte is not valid as part of the length indicator, or the length indicator
+     *                                  gives a length over {@link #MAX_CONTENTS_LENGTH}
      */
-    public boolean appendToPacketString(String additional) {
-        if (!packetLengthMatchesIndicator()) {
-            packetString.append(additional);
-            if (packetLengthMatchesIndicator()) {
-                parseContents(this.packetString.toString());
+    public boolean appendToPacket(byte additional) {
+        if (isComplete()) {
+            return false;
+        }
+        if (packetLength == packetBytes.length) {
+            packetBytes = Arrays.copyOf(packetBytes, packetBytes.length * 2);
+        }
+        packetBytes[packetLength++] = additional;
+        if (lengthIndicatorParsed) {
+            receivedContentsLength++;
+        } else {
+            parseLengthIndicatorChar((char) (additional & 0xFF));
+            if (lengthIndicatorParsed) {
+                // The full length of the packet is now known, so make room for all of it at once, unless it is long
+                // enough that the room is better made as its bytes arrive
+                packetBytes = Arrays.copyOf(packetBytes, Math.min(lengthIndicatorNumChars + packetContentsLength, MAX_PREALLOCATED_LENGTH));
+            }
+        }
+        if (isComplete()) {
+            parseContents();
+        }
+        return true;
+    }
+
+    /**
+     * Parse the next character of the length indicator. The length indicator is parsed as it is received so that the
+     * packet's completeness can be tracked with a counter rather than by re-parsing the packet string.
+     */
+    private void parseLengthIndicatorChar(char c) {
+        lengthIndicatorNumChars++;
+        if (lengthIndicatorNumChars == 1) {
+            if (c != LEADING_LENGTH_INDICATOR_CHAR) {
+                throw new IllegalArgumentException("Packet must start with '" + LEADING_LENGTH_INDICATOR_CHAR + "', not '" + c + "'");
+            }
+        } else if (c == TRAILING_LENGTH_INDICATOR_CHAR && lengthIndicatorNumChars > 2) {
+            lengthIndicatorParsed = true;
+        } else if (c >= '0' && c <= '9') {
+            // The length is given by the peer, so it is bounded before room is made for the packet
+            try {
+                packetContentsLength = Math.addExact(Math.multiplyExact(packetContentsLength, 10), c - '0');
+            } catch (ArithmeticException e) {
+                packetContentsLength = Integer.MAX_VALUE;
             }
-            return true;
+            if (packetContentsLength > MAX_CONTENTS_LENGTH) {
+                throw new IllegalArgumentException("Packet length indicator exceeds the max packet length of " + MAX_CONTENTS_LENGTH);
+            }
+        } else {
+            throw new IllegalArgumentException("Invalid character '" + c + "' in packet length indicator");
         }
-        return false;
     }
 
     public HashMap<PacketArgKey, String> getArgs() {
@@ -122,27 +245,29 @@ public class PacketDecoder {
     }
 
     /**
-     * @return the message included in this packet if the packet is complete, else null.
+     * @return the message bytes included in this packet if the packet is complete, else null. The array is not copied,
+     * so it should not be modified.
      * Note that even if some of the message has been received, if the packet has not been fully received this method will still
      * return null
      */
-    public String getMessage() {
+    public byte[] getMessage() {
         if (packetLengthMatchesIndicator())
-            return message.toString();
+            return message;
         return null;
     }
 
     /**
-     * Takes a packet string and parses it - putting the args and message into their respective variables
+     * Parses the packet's bytes - putting the args and message into their respective variables
      */
-    private void parseContents(String packet) {
+    private void parseContents() {
         String currKey = "";
         HashMap<PacketArgKey, String> keyValueMap = new HashMap<>();
         StringBuilder currToken = new StringBuilder();
         int i = lengthIndicatorNumChars;  // start from after the length indicator
         boolean ignoreCommas = false;
-        for (; i < packet.length() && packet.charAt(i) != '\n'; i++) {
-            switch (packet.charAt(i)) {
+        for (; i < packetLength && packetBytes[i] != END_HEADER_INDICATOR; i++) {
+            char currChar = (char) (packetBytes[i] & 0xFF);
+            switch (currChar) {
                 case KEY_TO_VALUE_SEPARATOR:
                     currKey = currToken.toString();
                     currToken.setLength(0);
@@ -163,14 +288,14 @@ public class PacketDecoder {
                     }
                 case LEADING_ARRAY_INDICATOR:
                     ignoreCommas = true;  // so that array elements are not treated as separate args
-                    currToken.append(packet.charAt(i));
+                    currToken.append(currChar);
                     break;
                 case TRAILING_ARRAY_INDICATOR:
                     ignoreCommas = false;
-                    currToken.append(packet.charAt(i));
+                    currToken.append(currChar);
                     break;
                 default:
-                    currToken.append(Character.toUpperCase(packet.charAt(i)));
+                    currToken.append(Character.toUpperCase(currChar));
             }
         }
         try {
@@ -178,9 +303,9 @@ public class PacketDecoder {
         } catch (IllegalArgumentException e) {
             throw new IllegalArgumentException(currKey + " is not a valid PacketArg. " + e.getMessage());
         }
-        boolean containsMessage = i + 1 < packet.length();
+        boolean containsMessage = i + 1 < packetLength;
         if (containsMessage) {
-            message.append(packet.substring(i + 1));
+            message = Arrays.copyOfRange(packetBytes, i + 1, packetLength);
         }
         args = keyValueMap;
     }
@@ -198,45 +323,20 @@ public class PacketDecoder {
      * subsequent args, etc. as indicated by the packet string's length with the 'Length' arg
      */
     public boolean packetLengthMatchesIndicator() {
-        if (getPacketStringLength(true) == packetString.length()) {
-            return true;
-        }
-        return packetLengthMatchesIndicator(this.packetString.toString());
+        return lengthIndicatorParsed && receivedContentsLength == packetContentsLength;
     }
 
     /**
-     * @return a boolean indicating if the specified packet is complete, i.e., contains the full packet string and
-     * subsequent args, etc. as indicated by the packet string's length with the 'Length' arg
-     */
-    private boolean packetLengthMatchesIndicator(String packet) {
-        /*
-         * First, make sure the packet has at least the num of characters for the length indicator and starts with the
-         * correct character. Then, if it matches the contentsLength + num chars of the length indicator, it has all chars
-         * and is complete. If not, then extract the length indicator and check if the length matches up.
-         * */
-        final int NUM_ENCLOSING_CHARS = 2;
-        if (packet.length() < NUM_ENCLOSING_CHARS + 1 || packet.charAt(0) != LEADING_LENGTH_INDICATOR_CHAR || packet.indexOf(TRAILING_LENGTH_INDICATOR_CHAR) < 2) {
-            return false;
-        }
-        if (packetContentsLength + lengthIndicatorNumChars == packet.length()) {
-            return true;
-        }
-        String lengthString = packet.substring(1, packet.indexOf(TRAILING_LENGTH_INDICATOR_CHAR));
-        packetContentsLength = Integer.parseInt(lengthString);
-        lengthIndicatorNumChars = lengthString.length() + NUM_ENCLOSING_CHARS;
-        int actualLengthWithoutIndicator = packet.length() - lengthIndicatorNumChars;  // length of the packet's length indicator is not included in the packets length count
-        return actualLengthWithoutIndicator == packetContentsLength;
-    }
-
-    private int getPacketStringLength(boolean withLengthIndicator) {
-        return withLengthIndicator ? packetContentsLength + lengthIndicatorNumChars : packetContentsLength;
-    }
-
-    /**
-     * @return a String of this packet in the correct format for transmission
+     * @return a String of this packet's bytes, with each byte mapped to one character. This is meant for display, e.g.,
+     * in logs, as the message bytes are not decoded with their actual encoding.
      */
     public String getPacketString() {
-        return packetString.toString();
+        String packetString = new String(packetBytes, 0, packetLength, StandardCharsets.ISO_8859_1);
+        // A packet constructed from its contents does not hold its length indicator
+        if (lengthIndicatorParsed && lengthIndicatorNumChars == 0) {
+            return LEADING_LENGTH_INDICATOR_CHAR + String.valueOf(packetContentsLength) + TRAILING_LENGTH_INDICATOR_CHAR + packetString;
+        }
+        return packetString;
     }
 
     public String toString() {
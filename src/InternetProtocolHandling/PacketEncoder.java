@@ -3,14 +3,17 @@ package src.InternetProtocolHandling;
 
 import src.InternetProtocolHandling.enums.PacketArgKey;
 
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.HashMap;
 
 /**
- * This class encodes args and an optional message into the appropriate string of tokens to be sent as a packet
+ * This class encodes args and an optional message into the appropriate bytes to be sent as a packet. The header of the
+ * packet is made up of ASCII characters, while the message can hold any bytes.
  */
 public class PacketEncoder {
     private HashMap<PacketArgKey, String> args = new HashMap<>();
-    private final StringBuilder message = new StringBuilder();
+    private byte[] message = new byte[0];
 
     // Packet symbols:
     private final char LEADING_LENGTH_INDICATOR_CHAR = '(';
@@ -25,7 +28,7 @@ public class PacketEncoder {
     public PacketEncoder() {
     }
 
-    public PacketEncoder(HashMap<PacketArgKey, String> args, HashMap<PacketArgKey, Object[]> arrayArgs, String message) {
+    public PacketEncoder(HashMap<PacketArgKey, String> args, HashMap<PacketArgKey, Object[]> arrayArgs, byte[] message) {
         setArgs(args, arrayArgs, true);
         setMessage(message);
     }
@@ -38,6 +41,15 @@ public class PacketEncoder {
         setArgs(args, new HashMap<>(), true);
     }
 
+    /**
+     * Construct a copy of the given packet, so that the copy's args and message can be modified without modifying the
+     * original packet
+     */
+    public PacketEncoder(PacketEncoder packet) {
+        setArgs(packet.args, new HashMap<>(), true);
+        setMessage(packet.getMessage());
+    }
+
     /**
      * Set multiple args at a time
      *
@@ -78,6 +90,13 @@ public class PacketEncoder {
         setArg(key, valuesStr.toString());
     }
 
+    /**
+     * @return the value for the specified arg, if it exists, else null
+     */
+    public String getArg(PacketArgKey key) {
+        return this.args.get(key);
+    }
+
     public void deleteArg(PacketArgKey key) {
         this.args.remove(key);
     }
@@ -85,37 +104,109 @@ public class PacketEncoder {
     /**
      * Set the packet's message
      *
-     * @param message the String to set as this packet's message
+     * @param message the bytes to set as this packet's message. The array is not copied, so it should not be modified
+     *                while this packet is in use.
      */
-    public void setMessage(String message) {
-        this.message.setLength(0);
-        this.message.append(message);
+    public void setMessage(byte[] message) {
+        this.message = message;
     }
 
-    public void addToMessage(String additional) {
-        message.append(additional);
+    public void addToMessage(byte[] additional) {
+        byte[] combined = Arrays.copyOf(message, message.length + additional.length);
+        System.arraycopy(additional, 0, combined, message.length, additional.length);
+        message = combined;
     }
 
-    public String getMessage() {
-        return message.toString();
+    public byte[] getMessage() {
+        return message;
     }
 
     /**
-     * @return a String of this packet in the correct format for transmission
+     * @return the bytes of this packet in the correct format for transmission. The length indicator gives the length of
+     * the packet in bytes.
      */
-    public String getPacketString() {
-        StringBuilder packet = new StringBuilder();
+    public byte[] getPacketBytes() {
+        return encode(null);
+    }
+
+    /**
+     * Encode this packet once so that it can be sent any number of times, each time with either value of its COMPLETED
+     * arg, without being encoded again
+     *
+     * @throws IllegalStateException if the COMPLETED arg is not set to T or F
+     */
+    public EncodedPacket getEncodedPacket() {
+        String completed = args.get(PacketArgKey.COMPLETED);
+        if (!"T".equals(completed) && !"F".equals(completed)) {
+            throw new IllegalStateException("The " + PacketArgKey.COMPLETED + " arg must be T or F to encode the packet, but was " + completed);
+        }
+        int[] completedIndex = new int[1];
+        byte[] packetBytes = encode(completedIndex);
+        return new EncodedPacket(packetBytes, completedIndex[0], (byte) 'F', (byte) 'T');
+    }
+
+    /**
+     * Encode only this packet's header, for a packet whose message has the given length, so that the message can be
+     * written after the header from elsewhere, e.g., directly from a file. The header can be sent with either value of
+     * its COMPLETED arg, as with {@link #getEncodedPacket()}.
+     *
+     * @param messageLength the length of the message that will follow the header
+     * @throws IllegalStateException if the COMPLETED arg is not set to T or F
+     */
+    public EncodedPacket getEncodedHeader(int messageLength) {
+        String completed = args.get(PacketArgKey.COMPLETED);
+        if (!"T".equals(completed) && !"F".equals(completed)) {
+            throw new IllegalStateException("The " + PacketArgKey.COMPLETED + " arg must be T or F to encode the packet, but was " + completed);
+        }
+        int[] completedIndex = new int[1];
+        byte[] headerBytes = encodeHeader(completedIndex, messageLength);
+        return new EncodedPacket(headerBytes, completedIndex[0], (byte) 'F', (byte) 'T');
+    }
+
+    /**
+     * @param completedIndex if not null, the index of the COMPLETED arg's value in the packet is stored in its first element
+     * @return the bytes of this packet in the correct format for transmission
+     */
+    private byte[] encode(int[] completedIndex) {
+        byte[] headerBytes = encodeHeader(completedIndex, message.length);
+        byte[] packet = Arrays.copyOf(headerBytes, headerBytes.length + message.length);
+        System.arraycopy(message, 0, packet, headerBytes.length, message.length);
+        return packet;
+    }
+
+    /**
+     * @param completedIndex if not null, the index of the COMPLETED arg's value in the header is stored in its first element
+     * @param messageLength  the length of the message that follows the header, which is included in the length indicator
+     * @return the bytes of this packet's header, including the length indicator
+     */
+    private byte[] encodeHeader(int[] completedIndex, int messageLength) {
+        StringBuilder header = new StringBuilder();
+        int completedValueIndex = -1;
         for (PacketArgKey key : args.keySet()) {
-            packet.append(key).append(KEY_TO_VALUE_SEPARATOR).append(args.get(key)).append(ARG_SEPARATOR);
+            header.append(key).append(KEY_TO_VALUE_SEPARATOR);
+            if (key == PacketArgKey.COMPLETED) {
+                completedValueIndex = header.length();
+            }
+            header.append(args.get(key)).append(ARG_SEPARATOR);
         }
-        packet.setCharAt(packet.length() - 1, END_HEADER_INDICATOR);
-        packet.append(getMessage());
-        String packetStr = packet.toString();
+        header.setCharAt(header.length() - 1, END_HEADER_INDICATOR);
 
         // Now, prepend the length indicator
-        int packetLength = packetStr.length();
-        packetStr = LEADING_LENGTH_INDICATOR_CHAR + String.valueOf(packetLength) + TRAILING_LENGTH_INDICATOR_CHAR + packetStr;
-        return packetStr;
+        int packetLength = header.length() + messageLength;
+        String lengthIndicator = LEADING_LENGTH_INDICATOR_CHAR + String.valueOf(packetLength) + TRAILING_LENGTH_INDICATOR_CHAR;
+        header.insert(0, lengthIndicator);
+        if (completedIndex != null) {
+            completedIndex[0] = completedValueIndex + lengthIndicator.length();
+        }
+        return header.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * @return a String of this packet's bytes, with each byte mapped to one character. This is meant for display, e.g.,
+     * in logs, as the message bytes are not decoded with their actual encoding.
+     */
+    public String getPacketString() {
+        return new String(getPacketBytes(), StandardCharsets.ISO_8859_1);
     }
 
     public String toString() {
@@ -0,0 +1,84 @@
+package src.InternetProtocolHandling;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * This class reads whole packets from a stream of bytes. The packet's length indicator is read first, after which the
+ * rest of the packet is read in bulk, straight into the array that the packet is decoded from.
+ */
+public class PacketFrameReader {
+    private final char LEADING_LENGTH_INDICATOR_CHAR = '(';
+    private final char TRAILING_LENGTH_INDICATOR_CHAR = ')';
+    private final InputStream in;
+
+    /**
+     * @param in the stream to read packets from. The stream should be buffered, as the length indicator is read one
+     *           byte at a time.
+     */
+    public PacketFrameReader(InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Read the next packet from the stream, blocking until the full packet is received.
+     *
+     * @return the next packet, or null if the stream ended before another packet was started
+     * @throws IOException if the stream ends partway through a packet, the packet does not start with a valid length
+     *                     indicator, or the packet is malformed
+     */
+    public PacketDecoder readPacket() throws IOException {
+        int characterVal = in.read();
+        if (characterVal == -1) {
+            return null;
+        }
+        if (characterVal != LEADING_LENGTH_INDICATOR_CHAR) {
+            throw new IOException("Malformed packet: expected '" + LEADING_LENGTH_INDICATOR_CHAR + "' but received '" +
+                    (char) characterVal + "'");
+        }
+        int contentsLength = readLengthIndicator();
+        byte[] contents = new byte[contentsLength];
+        int numRead = in.readNBytes(contents, 0, contentsLength);
+        if (numRead < contentsLength) {
+            throw new EOFException("Stream ended after " + numRead + " of " + contentsLength + " packet bytes");
+        }
+        try {
+            return PacketDecoder.fromContents(contents);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Malformed packet: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Read the digits of the length indicator and its closing character
+     *
+     * @return the length of the packet contents, as given by the length indicator
+     * @throws IOException if the length indicator is malformed, or gives a length over
+     *                     {@link PacketDecoder#MAX_CONTENTS_LENGTH}
+     */
+    private int readLengthIndicator() throws IOException {
+        int contentsLength = 0;
+        int numDigits = 0;
+        int characterVal;
+        while ((characterVal = in.read()) != TRAILING_LENGTH_INDICATOR_CHAR) {
+            if (characterVal == -1) {
+                throw new EOFException("Stream ended while reading a packet's length indicator");
+            }
+            if (characterVal < '0' || characterVal > '9') {
+                throw new IOException("Malformed packet: invalid character '" + (char) characterVal + "' in length indicator");
+            }
+            contentsLength = contentsLength * 10 + (characterVal - '0');
+            // Checked after each digit, so that the length never grows large enough to overflow
+            if (contentsLength > PacketDecoder.MAX_CONTENTS_LENGTH) {
+                throw new IOException("Malformed packet: length indicator exceeds the max packet length of " +
+                        PacketDecoder.MAX_CONTENTS_LENGTH);
+            }
+            numDigits++;
+        }
+        if (numDigits == 0) {
+            throw new IOException("Malformed packet: empty length indicator");
+        }
+        return contentsLength;
+    }
+}
@@ -0,0 +1,41 @@
+package src.InternetProtocolHandling;
+
+import src.InternetProtocolHandling.enums.Codec;
+
+import java.io.IOException;
+
+/**
+ * A compression algorithm for the message of a single packet. Each message is compressed independently of every other,
+ * so any packet can be decompressed on its own, no matter which packets were received before it - a retransmitted
+ * packet is decoded the same as one received in order.
+ * <p>
+ * Implementations must be safe to use from multiple threads at once, as one codec is shared by all the sessions sending
+ * the same message.
+ */
+public interface PayloadCodec {
+    /**
+     * @param message the message to compress
+     * @return the compressed message, or null if compressing the message does not make it any smaller, in which case
+     * it should be sent as is
+     */
+    byte[] encode(byte[] message);
+
+    /**
+     * @param payload   a message compressed with {@link #encode(byte[])}
+     * @param maxLength the max length of the decompressed message. Decompressing stops at this length, so a malformed
+     *                  or malicious payload cannot expand past it.
+     * @return the decompressed message
+     * @throws IOException if the payload is not validly compressed or decompresses to more than maxLength bytes
+     */
+    byte[] decode(byte[] payload, int maxLength) throws IOException;
+
+    /**
+     * @return the codec that implements the given algorithm, or null for {@link Codec#NONE}
+     */
+    static PayloadCodec of(Codec codec) {
+        if (codec == Codec.DEFLATE) {
+            return DeflateCodec.INSTANCE;
+        }
+        return null;
+    }
+}
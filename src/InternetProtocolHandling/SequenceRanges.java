@@ -0,0 +1,246 @@
+package src.InternetProtocolHandling;
+
+import java.util.BitSet;
+import java.util.function.IntConsumer;
+
+/**
+ * This class encodes a set of sequence numbers compactly, to be used as the value of an array arg. The set is encoded in
+ * whichever of the following forms is shorter:
+ * <ul>
+ *     <li>a list of ranges, e.g., <code>[3-9,12,40-1000]</code>. Runs of consecutive numbers, which are common when
+ *     packets are lost in bursts, are encoded as a single range, so the encoded length grows with the number of runs
+ *     rather than the number of sequence numbers.</li>
+ *     <li>a bitmap, e.g., <code>[@40/C8]</code>, which holds the first number followed by a bit for each number from the
+ *     first number on, in hex, with the highest bit of each hex digit first. The example holds 40, 41, and 44. When
+ *     packets are lost randomly, the runs are short and a bitmap takes fewer characters per number than ranges.</li>
+ * </ul>
+ * <p>
+ * A plain list of numbers (e.g., <code>[3,2,6]</code>) is also a valid encoding, so the static methods of this class can
+ * decode lists sent in the original array format. The encoded ranges are decoded without creating a list of the numbers,
+ * by iterating over the numbers of each range.
+ */
+public class SequenceRanges {
+    private static final char LEADING_ARRAY_INDICATOR = '[';
+    private static final char TRAILING_ARRAY_INDICATOR = ']';
+    private static final char RANGES_SEPARATOR = ',';
+    private static final char RANGE_INDICATOR = '-';
+    private static final char BITMAP_INDICATOR = '@';
+    private static final char BITMAP_START_SEPARATOR = '/';
+    private static final int BITS_PER_HEX_DIGIT = 4;
+    private final StringBuilder ranges = new StringBuilder();
+    private final BitSet sequenceNums = new BitSet();
+    private int firstSequenceNum = -1;
+    private int rangeStart = -1;
+    private int rangeEnd = -1;
+    private int size = 0;
+
+    /**
+     * Add a sequence number. Numbers must be added in ascending order.
+     *
+     * @throws IllegalArgumentException if the number is negative or not greater than the last number added
+     */
+    public void add(int sequenceNum) {
+        if (sequenceNum < 0 || sequenceNum <= rangeEnd) {
+            throw new IllegalArgumentException("Sequence number " + sequenceNum + " must be non-negative and greater than " + rangeEnd);
+        }
+        if (firstSequenceNum < 0) {
+            firstSequenceNum = sequenceNum;
+        }
+        sequenceNums.set(sequenceNum - firstSequenceNum);
+        if (rangeEnd >= 0 && sequenceNum == rangeEnd + 1) {
+            rangeEnd = sequenceNum;
+        } else {
+            appendRange(ranges);
+            rangeStart = sequenceNum;
+            rangeEnd = sequenceNum;
+        }
+        size++;
+    }
+
+    /**
+     * Append the range currently being built, if any, to the given ranges
+     */
+    private void appendRange(StringBuilder ranges) {
+        if (rangeStart < 0) {
+            return;
+        }
+        if (ranges.length() > 0) {
+            ranges.append(RANGES_SEPARATOR);
+        }
+        ranges.append(rangeStart);
+        if (rangeEnd > rangeStart) {
+            ranges.append(RANGE_INDICATOR).append(rangeEnd);
+        }
+    }
+
+    /**
+     * @return the number of sequence numbers added
+     */
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return the encoded sequence numbers, in the shorter of the ranges and bitmap forms, enclosed in the array
+     * indicators
+     */
+    public String toString() {
+        StringBuilder encoded = new StringBuilder(ranges.length() + 24);
+        encoded.append(ranges);
+        appendRange(encoded);
+        int bitmapLength = (rangeEnd - firstSequenceNum) / BITS_PER_HEX_DIGIT + 1;
+        if (!isEmpty() && 2 + String.valueOf(firstSequenceNum).length() + bitmapLength < encoded.length()) {
+            encoded.setLength(0);
+            encoded.append(BITMAP_INDICATOR).append(firstSequenceNum).append(BITMAP_START_SEPARATOR);
+            for (int i = 0; i < bitmapLength; i++) {
+                int digit = 0;
+                for (int bit = 0; bit < BITS_PER_HEX_DIGIT; bit++) {
+                    digit = (digit << 1) | (sequenceNums.get(i * BITS_PER_HEX_DIGIT + bit) ? 1 : 0);
+                }
+                encoded.append(Character.toUpperCase(Character.forDigit(digit, 16)));
+            }
+        }
+        return encoded.insert(0, LEADING_ARRAY_INDICATOR).append(TRAILING_ARRAY_INDICATOR).toString();
+    }
+
+    /**
+     * Perform the given action for each sequence number in the encoded ranges, in the order they are encoded
+     *
+     * @throws IllegalArgumentException if the value is not a valid encoding
+     */
+    public static void forEach(String encoded, IntConsumer action) {
+        parse(encoded, (start, end) -> {
+            // Stops at the end of the range rather than past it, as a range may end at Integer.MAX_VALUE
+            for (int i = start; ; i++) {
+                action.accept(i);
+                if (i == end) {
+                    break;
+                }
+            }
+        });
+    }
+
+    /**
+     * @return the number of sequence numbers in the encoded ranges
+     * @throws IllegalArgumentException if the value is not a valid encoding, or holds more than Integer.MAX_VALUE numbers
+     */
+    public static int count(String encoded) {
+        long[] count = {0};
+        parse(encoded, (start, end) -> {
+            // A single range can hold more numbers than an int can count, e.g., [0-2147483647]
+            count[0] += (long) end - start + 1;
+            if (count[0] > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Sequence ranges '" + encoded + "' hold more than " +
+                        Integer.MAX_VALUE + " sequence numbers");
+            }
+        });
+        return (int) count[0];
+    }
+
+    /**
+     * @return the sequence numbers in the encoded ranges, in the order they are encoded
+     * @throws IllegalArgumentException if the value is not a valid encoding
+     */
+    public static int[] toArray(String encoded) {
+        int[] sequenceNums = new int[count(encoded)];
+        int[] i = {0};
+        forEach(encoded, sequenceNum -> sequenceNums[i[0]++] = sequenceNum);
+        return sequenceNums;
+    }
+
+    /**
+     * An action performed on each range, with the first and last numbers of the range (inclusive)
+     */
+    private interface RangeAction {
+        void accept(int start, int end);
+    }
+
+    /**
+     * Parse the encoded ranges, performing the action on each range
+     */
+    private static void parse(String encoded, RangeAction action) {
+        if (encoded == null || encoded.length() < 2
+                || encoded.charAt(0) != LEADING_ARRAY_INDICATOR
+                || encoded.charAt(encoded.length() - 1) != TRAILING_ARRAY_INDICATOR) {
+            throw new IllegalArgumentException("Sequence ranges must be enclosed in '" + LEADING_ARRAY_INDICATOR + "' and '" +
+                    TRAILING_ARRAY_INDICATOR + "', but were '" + encoded + "'");
+        }
+        int end = encoded.length() - 1;
+        int i = 1;
+        try {
+            if (i < end && encoded.charAt(i) == BITMAP_INDICATOR) {
+                parseBitmap(encoded, action);
+                return;
+            }
+            while (i < end) {
+                int rangeStart = 0;
+                int numDigits = 0;
+                for (; i < end && isDigit(encoded.charAt(i)); i++, numDigits++) {
+                    rangeStart = Math.addExact(Math.multiplyExact(rangeStart, 10), encoded.charAt(i) - '0');
+                }
+                int rangeEnd = rangeStart;
+                if (i < end && encoded.charAt(i) == RANGE_INDICATOR) {
+                    rangeEnd = 0;
+                    int numEndDigits = 0;
+                    for (i++; i < end && isDigit(encoded.charAt(i)); i++, numEndDigits++) {
+                        rangeEnd = Math.addExact(Math.multiplyExact(rangeEnd, 10), encoded.charAt(i) - '0');
+                    }
+                    if (numEndDigits == 0) {
+                        numDigits = 0;  // a range indicator must be followed by the end of the range
+                    }
+                }
+                if (numDigits == 0 || rangeEnd < rangeStart || (i < end && encoded.charAt(i) != RANGES_SEPARATOR)) {
+                    throw new IllegalArgumentException("Invalid sequence range at index " + i + " of '" + encoded + "'");
+                }
+                action.accept(rangeStart, rangeEnd);
+                i++;  // skip the separator
+            }
+        } catch (ArithmeticException e) {
+            throw new IllegalArgumentException("Sequence number at index " + i + " of '" + encoded + "' is too large", e);
+        }
+    }
+
+    /**
+     * Parse an encoding in the bitmap form, performing the action on each run of consecutive numbers
+     */
+    private static void parseBitmap(String encoded, RangeAction action) {
+        int end = encoded.length() - 1;
+        int i = 2;  // after the bitmap indicator
+        int firstSequenceNum = 0;
+        int numDigits = 0;
+        for (; i < end && isDigit(encoded.charAt(i)); i++, numDigits++) {
+            firstSequenceNum = Math.addExact(Math.multiplyExact(firstSequenceNum, 10), encoded.charAt(i) - '0');
+        }
+        if (numDigits == 0 || i >= end || encoded.charAt(i) != BITMAP_START_SEPARATOR) {
+            throw new IllegalArgumentException("Invalid sequence bitmap start at index " + i + " of '" + encoded + "'");
+        }
+        int runStart = -1;
+        int sequenceNum = firstSequenceNum;
+        for (i++; i < end; i++) {
+            int digit = Character.digit(encoded.charAt(i), 16);
+            if (digit < 0) {
+                throw new IllegalArgumentException("Invalid sequence bitmap digit at index " + i + " of '" + encoded + "'");
+            }
+            for (int bit = BITS_PER_HEX_DIGIT - 1; bit >= 0; bit--, sequenceNum = Math.addExact(sequenceNum, 1)) {
+                boolean isSet = (digit & (1 << bit)) != 0;
+                if (isSet && runStart < 0) {
+                    runStart = sequenceNum;
+                } else if (!isSet && runStart >= 0) {
+                    action.accept(runStart, sequenceNum - 1);
+                    runStart = -1;
+                }
+            }
+        }
+        if (runStart >= 0) {
+            action.accept(runStart, sequenceNum - 1);
+        }
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+}
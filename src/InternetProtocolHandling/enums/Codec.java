@@ -0,0 +1,17 @@
+package src.InternetProtocolHandling.enums;
+
+/**
+ * The codecs that the message of each packet sent from the server can be compressed with. The client requests a codec in
+ * its initial request packet with the CODEC arg; if no codec is requested, NONE is used. Each packet is compressed on its
+ * own, and only if compressing it makes it smaller, so a packet that is compressed is flagged as such in its header.
+ */
+public enum Codec {
+    /**
+     * No compression - each packet's message is sent as is
+     */
+    NONE,
+    /**
+     * The DEFLATE algorithm (RFC 1951), without a zlib header or checksum
+     */
+    DEFLATE
+}
@@ -10,6 +10,18 @@ public enum PacketArgKey {
     TOTAL_PACKETS,
     SEQUENCE_NUM,
     TOTAL_PACKETS_MISSING,
-    MISSING_PACKET_NUMS
+    MISSING_PACKET_NUMS,
+    WIRE_FORMAT,
+    SEGMENT_SIZE,
+    TRANSFER_MODE,
+    ACK_NUM,
+    SELECTIVE_ACKS,
+    CODEC,
+    COMPRESSED,
+    CHECKSUM,
+    FILE_DIGEST,
+    RECEIVED_PACKET_NUMS,
+    STRIPE_INDEX,
+    STRIPE_COUNT
 
 }
@@ -0,0 +1,18 @@
+package src.InternetProtocolHandling.enums;
+
+/**
+ * The ways that the server can send the packets of a message and recover the packets that were lost. The client requests
+ * a mode in its initial request packet with the TRANSFER_MODE arg; if no mode is requested, ROUNDS is used.
+ */
+public enum TransferMode {
+    /**
+     * The server sends all outstanding packets in a round, and the client reports the packets it is missing once the
+     * last packet of the round is received
+     */
+    ROUNDS,
+    /**
+     * The server keeps a bounded window of packets in flight, and the client acknowledges packets as they are received,
+     * which allows lost packets to be retransmitted as soon as they are detected
+     */
+    WINDOWED
+}
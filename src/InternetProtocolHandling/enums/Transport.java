@@ -0,0 +1,17 @@
+package src.InternetProtocolHandling.enums;
+
+/**
+ * The transports that a message can be sent over. The server serves clients over both transports on the same port number.
+ */
+public enum Transport {
+    /**
+     * The packets are sent over a TCP connection, which never loses or reorders packets, so the loss that the protocol
+     * recovers from is simulated by the server
+     */
+    TCP,
+    /**
+     * Each packet is sent as a single UDP datagram, so packets can be lost and reordered by the network, and the
+     * protocol recovers from real loss. Only the ROUNDS transfer mode is supported.
+     */
+    UDP
+}
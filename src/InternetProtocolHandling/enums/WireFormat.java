@@ -0,0 +1,16 @@
+package src.InternetProtocolHandling.enums;
+
+/**
+ * The formats that packets sent from the server can be encoded in. The client requests a format in its initial request
+ * packet with the WIRE_FORMAT arg; if no format is requested, TEXT is used.
+ */
+public enum WireFormat {
+    /**
+     * The text format, where args are encoded as KEY:VALUE pairs in the header
+     */
+    TEXT,
+    /**
+     * The binary format, where the header is a fixed set of varint and flag fields
+     */
+    BINARY
+}
@@ -1,6 +1,8 @@
 // Avromi Schneierson - 11/3/2023
 package src;
 
+import src.engine.Logger;
+import src.engine.Logger.Level;
 import javafx.application.Application;
 import javafx.concurrent.WorkerStateEvent;
 import javafx.event.EventHandler;
@@ -19,7 +21,7 @@ import javafx.stage.FileChooser;
 import javafx.stage.Stage;
 import java.io.*;
 import java.nio.file.Files;
-import java.util.Arrays;
+import java.nio.file.Path;
 
 /**
  * The GUI application for the Server. This class is responsible for setting up the Server GUI and managing the MessageSender
@@ -35,7 +37,7 @@ public class ServerApplication extends Application {
     private Label fileSenderMessageLabel;
     private ProgressBar progressBar;
     private File fileToSend;
-    private String fileContentToSend;
+    private Path filePathToSend;
     private CheckBox allowConnectionsCheckbox;
     private Button selectFileButtonCheckbox;
     private MessageSender messageSenderTask;
@@ -48,7 +50,7 @@ public class ServerApplication extends Application {
     public void start(Stage stage) {
         // Build the GUI
 
-        allowConnectionsCheckbox = new CheckBox("Send file once connection is established");
+        allowConnectionsCheckbox = new CheckBox("Send file to clients as they connect");
         selectFileButtonCheckbox = new Button("Select file...");
         progressBar = new ProgressBar();
         progressBar.setPrefWidth(215);
@@ -71,10 +73,12 @@ public class ServerApplication extends Application {
         // GUI handlers:
 
         // When allow connections is selected - allow sending of a file once one is selected, or send a file if a file
-        // was already selected.
+        // was already selected. When it is deselected, stop sending the file to clients.
         allowConnectionsCheckbox.setOnAction(actionEvent -> {
-            if (allowConnectionsCheckbox.isSelected() && fileContentToSend != null) {
-                startMessageSendTask(fileContentToSend);
+            if (allowConnectionsCheckbox.isSelected() && filePathToSend != null) {
+                startMessageSendTask(filePathToSend);
+            } else if (!allowConnectionsCheckbox.isSelected() && messageSenderTask != null && messageSenderTask.isRunning()) {
+                messageSenderTask.cancel();
             }
         });
 
@@ -90,21 +94,21 @@ public class ServerApplication extends Application {
                     fileToSend = oldFileToSend;  // retain last selected file, if applicable
                     return;
                 }
-                fileContentToSend = getFileContents(fileToSend);
-                if (fileContentToSend.equals("")) {
-                    fileContentToSend = null;
+                filePathToSend = fileToSend.toPath();
+                if (Files.size(filePathToSend) == 0) {
+                    filePathToSend = null;
                     appMessageLabel.setText("Please select a non-empty file to send");
                     return;
                 }
             } catch (IOException e) {
                 appMessageLabel.setText("Error selecting file");
-                System.out.println("SERVER-IOException while attempting to read file selected by user at path: '" + fileToSend.getPath() +
-                        "'\n" + e.getMessage() + "\n" + Arrays.toString(e.getStackTrace()));
+                Logger.log(Level.ERROR, "SERVER-IOException while attempting to read file selected by user at path: '" +
+                        fileToSend.getPath() + "'", e);
                 return;
             }
             fileSelectedLabel.setText(fileToSend.getName());
             if (allowConnectionsCheckbox.isSelected()) {
-                startMessageSendTask(fileContentToSend);
+                startMessageSendTask(filePathToSend);
             }
         });
 
@@ -141,19 +145,17 @@ public class ServerApplication extends Application {
      * Launch the MessageSender Task if connections are allowed and the task isn't currently running (if it hasn't
      * started, or it has finished a previous run)
      */
-    private void startMessageSendTask(String fileContentToSend) {
+    private void startMessageSendTask(Path filePathToSend) {
         // Start the file sender task if it is not already running.
         if (messageSenderTask == null || !messageSenderTask.isRunning()) {
-            System.out.println("Creating and starting Thread to send file at '" + fileToSend.getAbsolutePath() + "'");
+            Logger.log(Level.INFO, "Creating and starting Thread to send file at '" + fileToSend.getAbsolutePath() + "'");
             appMessageLabel.setText("Sending file at '" + fileToSend.getAbsolutePath() + "'");
-            messageSenderTask = new MessageSender(fileContentToSend, PORT_NUM);
+            messageSenderTask = new MessageSender(filePathToSend, PORT_NUM);
 
-            // Disable controls while task is running:
-            allowConnectionsCheckbox.setDisable(true);
+            // Disable file selection while task is running. The checkbox stays enabled so that deselecting it stops the task.
             selectFileButtonCheckbox.setDisable(true);
             EventHandler<WorkerStateEvent> reenableControls = event -> {
                 allowConnectionsCheckbox.setSelected(false);
-                allowConnectionsCheckbox.setDisable(false);
                 selectFileButtonCheckbox.setDisable(false);
             };
             messageSenderTask.setOnSucceeded(reenableControls);
@@ -165,11 +167,4 @@ public class ServerApplication extends Application {
             new Thread(messageSenderTask, "SERVER-FileSenderThread").start();
         }
     }
-
-    /**
-     * Read the given file and return the contents as a String
-     */
-    private String getFileContents(File file) throws IOException {
-        return new String(Files.readAllBytes(file.toPath()));
-    }
 }
@@ -0,0 +1,96 @@
+package src;
+
+import src.engine.MessageServer;
+import src.engine.Logger;
+import src.engine.TransferListener;
+import src.engine.TransferStatistics;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * The command-line application for the Server, for running without a GUI, e.g., on a headless machine or in a scripted
+ * load test. The server sends the given file to every client that connects, and prints its aggregate progress while it
+ * runs. It stops when interrupted (e.g., with Ctrl-C), or after the number of sessions given with --sessions have ended,
+ * and then prints the throughput, retransmission ratio, and wall time of the run.
+ * <p>
+ * With --drop-probability P, each packet sent over TCP is 'dropped' with the probability P instead of the default. With
+ * 0, no packets are dropped, and the packets' messages are sent straight from the file to the socket when possible.
+ * <p>
+ * With --udp true, clients can also receive the file over UDP on the same port number. UDP is off by default, as the
+ * address a UDP request comes from cannot be verified.
+ * <p>
+ * With --event-loops true, the TCP clients are served from a few event-loop threads, rather than a thread for each client,
+ * so that any number of clients can be served at once.
+ * <p>
+ * Usage: <code>ServerLauncher &lt;file&gt; [--port N] [--sessions N] [--drop-probability P] [--udp true|false] [--event-loops true|false] [--log-level TRACE|DEBUG|INFO|WARN|ERROR]</code>
+ */
+public class ServerLauncher {
+    private static final int DEFAULT_PORT_NUM = 30121;
+    private static final int REPORT_INTERVAL = 1000;  // ms between progress reports
+
+    public static void main(String[] args) throws InterruptedException {
+        Path fileToSend;
+        int portNumber;
+        int maxSessions;
+        float packetDropProbability;
+        boolean serveDatagrams;
+        boolean useEventLoops;
+        try {
+            CommandLineOptions options = new CommandLineOptions(args);
+            if (options.getPositional(0) == null) {
+                throw new IllegalArgumentException("missing the file to send");
+            }
+            fileToSend = Path.of(options.getPositional(0));
+            if (!Files.isRegularFile(fileToSend)) {
+                throw new IllegalArgumentException("'" + fileToSend + "' is not a file");
+            }
+            portNumber = options.getPositiveInt("port", DEFAULT_PORT_NUM);
+            maxSessions = options.getPositiveInt("sessions", Integer.MAX_VALUE);
+            packetDropProbability = options.getProbability("drop-probability", MessageServer.DEFAULT_PACKET_DROP_PROBABILITY);
+            serveDatagrams = options.getBoolean("udp", false);
+            useEventLoops = options.getBoolean("event-loops", false);
+            if (options.has("log-level")) {
+                Logger.setLevel(options.getEnum("log-level", Logger.Level.class, Logger.Level.INFO));
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("usage: ServerLauncher <file> [--port N] [--sessions N] [--drop-probability P] [--udp true|false] [--event-loops true|false] [--log-level TRACE|DEBUG|INFO|WARN|ERROR]");
+            System.exit(2);
+            return;
+        }
+
+        MessageServer server = new MessageServer(fileToSend, portNumber, packetDropProbability, serveDatagrams, useEventLoops,
+                TransferListener.NONE);
+        boolean[] sentToAnyClient = new boolean[1];
+        Thread serverThread = new Thread(() -> sentToAnyClient[0] = server.serve(), "SERVER-Main");
+        serverThread.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.cancel();
+            try {
+                serverThread.join();
+            } catch (InterruptedException ignored) {
+            }
+        }));
+
+        TransferStatistics statistics = server.getStatistics();
+        while (serverThread.isAlive()) {
+            serverThread.join(REPORT_INTERVAL);
+            System.err.println("clients: " + statistics.getActiveSessions() + " active, " + statistics.getCompletedSessions() +
+                    " completed, " + statistics.getFailedSessions() + " failed - packets sent: " + statistics.getPacketsSent() +
+                    " - " + String.format("%,.1f", statistics.getThroughput() / 1024) + " KB/s");
+            if (statistics.getCompletedSessions() + statistics.getFailedSessions() >= maxSessions) {
+                server.cancel();
+            }
+        }
+
+        Logger.flush();  // so that the results are printed after the server's log
+        long packetsSent = statistics.getPacketsSent();
+        System.out.println("sessions completed: " + statistics.getCompletedSessions() + ", failed: " + statistics.getFailedSessions());
+        System.out.println("throughput: " + String.format("%,.1f", statistics.getThroughput() / 1024) + " KB/s");
+        System.out.println("retransmission ratio: " + String.format("%.3f",
+                packetsSent == 0 ? 0 : (packetsSent - statistics.getPacketsConfirmed()) / (double) packetsSent));
+        System.out.println("wall time: " + String.format("%,.3f", statistics.getElapsedSeconds()) + " s");
+        System.exit(sentToAnyClient[0] ? 0 : 1);
+    }
+}
@@ -0,0 +1,116 @@
+package src.benchmarks;
+
+import src.engine.SendWindow;
+import src.engine.congestion.CongestionController;
+import src.engine.congestion.DelayBasedCongestionController;
+import src.engine.congestion.FixedWindowController;
+import src.engine.congestion.RenoCongestionController;
+
+import java.util.ArrayDeque;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * This class simulates a windowed transfer over a link with a bottleneck queue, to compare the goodput and retransmission
+ * ratio of each congestion controller. The simulation runs on a virtual clock, one millisecond per step, so it runs in
+ * a fraction of a second and gives the same results for the same seed.
+ * <p>
+ * Packets are lost the same way as in {@link src.engine.SenderSession}: each packet is 'dropped' with a probability
+ * of PACKET_DROP_PROBABILITY, except for packets that ask for an acknowledgement (see
+ * {@link SendWindow#shouldRequestAcknowledgement()}), which are never dropped. Packets that arrive at the bottleneck
+ * while its queue is full are also dropped, which is the loss that congestion control is meant to avoid.
+ * <p>
+ * Usage: <code>java src.benchmarks.CongestionSimulation [dropProbability]</code>
+ */
+public class CongestionSimulation {
+    private static final int NUM_PACKETS = 20_000;
+    private static final int MAX_WINDOW_SIZE = 256;
+    private static final int PACKETS_PER_MILLISECOND = 1;  // the bandwidth of the bottleneck
+    private static final int QUEUE_CAPACITY = 100;  // the packets the bottleneck can queue before dropping packets
+    private static final int PROPAGATION_DELAY = 20;  // ms to cross the link in each direction
+    private static final float DEFAULT_PACKET_DROP_PROBABILITY = 0.2f;
+    private static final long SEED = 42;
+
+    private final CongestionController congestionController;
+    private final float packetDropProbability;
+    private final Random random = new Random(SEED);
+    private long now = 0;  // ms
+
+    private CongestionSimulation(CongestionController congestionController, float packetDropProbability) {
+        this.congestionController = congestionController;
+        this.packetDropProbability = packetDropProbability;
+    }
+
+    public static void main(String[] args) {
+        float packetDropProbability = args.length > 0 ? Float.parseFloat(args[0]) : DEFAULT_PACKET_DROP_PROBABILITY;
+        System.out.println("Sending " + NUM_PACKETS + " packets over a " + PACKETS_PER_MILLISECOND * 1000 +
+                " packets/s link with a " + 2 * PROPAGATION_DELAY + " ms round trip, a " + QUEUE_CAPACITY +
+                " packet queue, and a drop probability of " + packetDropProbability + "\n");
+        System.out.println(String.format("%-12s %10s %16s %14s %16s %12s %14s", "Controller", "Time (ms)",
+                "Goodput (pkt/s)", "Packets sent", "Retransmissions", "Queue drops", "Avg queue len"));
+        List<CongestionController> controllers = List.of(
+                new FixedWindowController(MAX_WINDOW_SIZE),
+                new RenoCongestionController(MAX_WINDOW_SIZE),
+                new DelayBasedCongestionController(MAX_WINDOW_SIZE));
+        for (CongestionController controller : controllers) {
+            new CongestionSimulation(controller, packetDropProbability).run();
+        }
+    }
+
+    /**
+     * Run the transfer until every packet is acknowledged, and print its results
+     */
+    private void run() {
+        SendWindow window = new SendWindow(NUM_PACKETS, congestionController, () -> now * 1_000_000);
+        ArrayDeque<Integer> bottleneckQueue = new ArrayDeque<>();
+        ArrayDeque<long[]> acksInFlight = new ArrayDeque<>();  // {arrival time, cumulative ack num, sequence num}
+        BitSet received = new BitSet(NUM_PACKETS);
+        int cumulativeAckNum = 0;
+        long packetsSent = 0;
+        long queueDrops = 0;
+        long totalQueueLength = 0;
+
+        while (!window.isComplete()) {
+            // Deliver the acknowledgements that have crossed the link back to the sender
+            while (!acksInFlight.isEmpty() && acksInFlight.peek()[0] <= now) {
+                long[] ack = acksInFlight.poll();
+                window.acknowledge((int) ack[1], new int[]{(int) ack[2]});
+            }
+
+            // Send as many packets as the window allows
+            while (window.hasPacketToSend()) {
+                int sequenceNum = window.takeNextPacket();
+                boolean requestsAck = window.shouldRequestAcknowledgement();
+                packetsSent++;
+                if (!requestsAck && random.nextFloat() < packetDropProbability) {
+                    continue;
+                }
+                if (!requestsAck && bottleneckQueue.size() >= QUEUE_CAPACITY) {
+                    queueDrops++;
+                    continue;
+                }
+                bottleneckQueue.add(sequenceNum);
+            }
+            if (window.needsProbe()) {
+                bottleneckQueue.add(window.takeProbePacket());
+                packetsSent++;
+            }
+
+            // Forward packets through the bottleneck. Each packet is received, and its acknowledgement sent, after it
+            // crosses the link, and the acknowledgement arrives back at the sender after crossing it again.
+            totalQueueLength += bottleneckQueue.size();
+            for (int i = 0; i < PACKETS_PER_MILLISECOND && !bottleneckQueue.isEmpty(); i++) {
+                int sequenceNum = bottleneckQueue.poll();
+                received.set(sequenceNum);
+                cumulativeAckNum = received.nextClearBit(cumulativeAckNum);
+                acksInFlight.add(new long[]{now + 2L * PROPAGATION_DELAY, cumulativeAckNum, sequenceNum});
+            }
+            now++;
+        }
+
+        System.out.println(String.format("%-12s %,10d %,16.0f %,14d %15.1f%% %,12d %,14.1f", congestionController, now,
+                NUM_PACKETS * 1000.0 / now, packetsSent, (packetsSent - NUM_PACKETS) * 100.0 / packetsSent, queueDrops,
+                totalQueueLength / (double) now));
+    }
+}
@@ -0,0 +1,248 @@
+package src.benchmarks;
+
+import src.InternetProtocolHandling.enums.Codec;
+import src.InternetProtocolHandling.enums.TransferMode;
+import src.InternetProtocolHandling.enums.Transport;
+import src.InternetProtocolHandling.enums.WireFormat;
+import src.engine.AdaptiveSegmentSize;
+import src.engine.Logger;
+import src.engine.MessageClient;
+import src.engine.MessageServer;
+import src.engine.TransferListener;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class measures how the time to receive a file changes with the number of streams (connections) it is striped
+ * across. The server and the client run in this process, and the client connects to the server through a relay that
+ * emulates a link with a long round trip: each chunk of bytes is delayed by ONE_WAY_DELAY, and at most WINDOW_SIZE
+ * bytes of each connection may be in flight in each direction, with room freed a full round trip after the bytes were
+ * sent. Like a TCP connection whose window is WINDOW_SIZE, each connection therefore carries at most WINDOW_SIZE bytes
+ * per round trip, however fast the link is - on plain loopback the round trip is so short that a single connection is
+ * never limited this way.
+ * <p>
+ * Each received file is compared with the file sent, so a striped transfer that reassembles the file incorrectly fails
+ * the benchmark instead of reporting a time.
+ * <p>
+ * Usage: <code>java src.benchmarks.StripedTransferBenchmark [maxStreams] [fileSizeMB]</code>
+ */
+public class StripedTransferBenchmark {
+    private static final int SERVER_PORT = 30131;
+    private static final int RELAY_PORT = 30132;
+    private static final int ONE_WAY_DELAY = 20;  // ms to cross the emulated link in each direction
+    private static final int WINDOW_SIZE = 128 * 1024;  // the bytes each connection may have in flight in each direction
+    private static final int RELAY_CHUNK_SIZE = 16 * 1024;  // the most bytes the relay reads from a socket at once
+    private static final int SERVER_START_TIMEOUT = 10_000;  // the max ms the relay waits for the server to listen
+    private static final int SERVER_START_POLL_INTERVAL = 50;  // ms
+    private static final int SEGMENT_SIZE = 8192;
+    private static final int DEFAULT_MAX_STREAMS = 8;
+    private static final int DEFAULT_FILE_SIZE_MB = 16;
+    private static final long SEED = 42;
+
+    public static void main(String[] args) throws Exception {
+        int maxStreams = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_MAX_STREAMS;
+        int fileSizeMB = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_FILE_SIZE_MB;
+        Logger.setLevel(Logger.Level.WARN);
+        Path fileToSend = Files.createTempFile("striped-benchmark", ".bin");
+        Path outputFile = Files.createTempFile("striped-benchmark", ".out");
+        byte[] contents = new byte[fileSizeMB * 1024 * 1024];
+        new Random(SEED).nextBytes(contents);
+        Files.write(fileToSend, contents);
+
+        MessageServer server = new MessageServer(fileToSend, SERVER_PORT, TransferListener.NONE);
+        Thread serverThread = new Thread(server::serve, "BENCHMARK-Server");
+        serverThread.start();
+        try (LatencyRelay relay = new LatencyRelay(RELAY_PORT, SERVER_PORT)) {
+            relay.start();
+            System.out.println("Receiving a " + fileSizeMB + " MB file over a link with a " + 2 * ONE_WAY_DELAY +
+                    " ms round trip and a " + WINDOW_SIZE / 1024 + " KB window per connection\n");
+            System.out.println(String.format("%-10s %-8s %10s %18s %9s", "Mode", "Streams", "Time (ms)",
+                    "Throughput (MB/s)", "Speedup"));
+            for (TransferMode transferMode : TransferMode.values()) {
+                long singleStreamTime = 0;
+                for (int numStreams = 1; numStreams <= maxStreams; numStreams *= 2) {
+                    long time = receive(transferMode, numStreams, fileToSend, outputFile);
+                    if (numStreams == 1) {
+                        singleStreamTime = time;
+                    }
+                    System.out.println(String.format("%-10s %-8d %10d %18.2f %8.2fx", transferMode, numStreams,
+                            time / 1_000_000, (double) fileSizeMB / (time / 1e9), (double) singleStreamTime / time));
+                }
+            }
+        } finally {
+            server.cancel();
+            serverThread.join();
+            Files.deleteIfExists(fileToSend);
+            Files.deleteIfExists(outputFile);
+        }
+    }
+
+    /**
+     * Receive the file through the relay over the given number of streams, and check that it was received intact
+     *
+     * @return the time the transfer took, in nanoseconds
+     */
+    private static long receive(TransferMode transferMode, int numStreams, Path fileToSend, Path outputFile)
+            throws IOException {
+        Files.deleteIfExists(outputFile);
+        MessageClient client = new MessageClient(InetAddress.getLoopbackAddress().getHostAddress(), RELAY_PORT,
+                outputFile, WireFormat.BINARY, Codec.NONE, transferMode, Transport.TCP, numStreams,
+                AdaptiveSegmentSize.fixed(SEGMENT_SIZE), TransferListener.NONE);
+        long start = System.nanoTime();
+        boolean received = client.receive();
+        long time = System.nanoTime() - start;
+        if (!received || Files.mismatch(fileToSend, outputFile) != -1) {
+            throw new IllegalStateException("The file was not received intact over " + numStreams + " streams in " +
+                    transferMode + " mode");
+        }
+        return time;
+    }
+
+    /**
+     * Accepts connections and relays each to the server, delaying the bytes in each direction and limiting the bytes
+     * in flight, as described in {@link StripedTransferBenchmark}
+     */
+    private static class LatencyRelay implements Closeable {
+        private static final byte[] END_OF_STREAM = new byte[0];
+        private final ServerSocket serverSocket;
+        private final int targetPort;
+        private final ScheduledExecutorService windowUpdates = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "RELAY-WindowUpdates");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        private LatencyRelay(int portNumber, int targetPort) throws IOException {
+            this.serverSocket = new ServerSocket(portNumber);
+            this.targetPort = targetPort;
+        }
+
+        private void start() {
+            startThread("RELAY-Accept", () -> {
+                while (!serverSocket.isClosed()) {
+                    Socket client;
+                    try {
+                        client = serverSocket.accept();
+                    } catch (IOException e) {
+                        return;  // the relay was closed
+                    }
+                    try {
+                        Socket server = connectToServer();
+                        client.setTcpNoDelay(true);
+                        server.setTcpNoDelay(true);
+                        relay(client, server);
+                        relay(server, client);
+                    } catch (IOException | InterruptedException e) {
+                        close(client);
+                    }
+                }
+            });
+        }
+
+        /**
+         * Connect to the server, retrying while it starts up - the server only listens once it has read the file
+         */
+        private Socket connectToServer() throws IOException, InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(SERVER_START_TIMEOUT);
+            while (true) {
+                try {
+                    return new Socket(InetAddress.getLoopbackAddress(), targetPort);
+                } catch (ConnectException e) {
+                    if (System.nanoTime() > deadline) {
+                        throw e;
+                    }
+                    Thread.sleep(SERVER_START_POLL_INTERVAL);
+                }
+            }
+        }
+
+        /**
+         * Relay the bytes read from one socket to the other. One thread reads the bytes and queues them with the time
+         * they are due; another writes them once due, so that the delay does not slow down reading.
+         */
+        private void relay(Socket from, Socket to) {
+            Semaphore window = new Semaphore(WINDOW_SIZE);
+            BlockingQueue<DelayedChunk> queue = new LinkedBlockingQueue<>();
+            startThread("RELAY-Reader", () -> {
+                byte[] buffer = new byte[RELAY_CHUNK_SIZE];
+                try (InputStream in = from.getInputStream()) {
+                    int bytesRead;
+                    while ((bytesRead = in.read(buffer)) != -1) {
+                        window.acquire(bytesRead);
+                        queue.put(new DelayedChunk(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ONE_WAY_DELAY),
+                                Arrays.copyOf(buffer, bytesRead)));
+                    }
+                } catch (IOException | InterruptedException ignored) {
+                }
+                queue.add(new DelayedChunk(System.nanoTime(), END_OF_STREAM));
+            });
+            startThread("RELAY-Writer", () -> {
+                try (OutputStream out = to.getOutputStream()) {
+                    DelayedChunk chunk;
+                    while ((chunk = queue.take()).bytes != END_OF_STREAM) {
+                        long delay = chunk.dueTime - System.nanoTime();
+                        if (delay > 0) {
+                            TimeUnit.NANOSECONDS.sleep(delay);
+                        }
+                        out.write(chunk.bytes);
+                        // The room is freed once the bytes' acknowledgement would have crossed back over the link
+                        int length = chunk.bytes.length;
+                        windowUpdates.schedule(() -> window.release(length), ONE_WAY_DELAY, TimeUnit.MILLISECONDS);
+                    }
+                } catch (IOException | InterruptedException | RejectedExecutionException ignored) {
+                    // The connection or the relay was closed
+                } finally {
+                    close(from);
+                    close(to);
+                }
+            });
+        }
+
+        private static void startThread(String name, Runnable task) {
+            Thread thread = new Thread(task, name);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        private static void close(Socket socket) {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            serverSocket.close();
+            windowUpdates.shutdownNow();
+        }
+
+        private static class DelayedChunk {
+            private final long dueTime;  // the System.nanoTime() at which the bytes may be written
+            private final byte[] bytes;
+
+            private DelayedChunk(long dueTime, byte[] bytes) {
+                this.dueTime = dueTime;
+                this.bytes = bytes;
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package src.engine;
+
+import src.InternetProtocolHandling.MultiPacketEncoder;
+
+/**
+ * Chooses the segment size (the max length of each packet's message) that a client requests from the server. After
+ * each transfer, the loss rate observed during the transfer is recorded, and the segment size is doubled if the loss
+ * rate was low or halved if it was high. Larger segments cut the header overhead and number of writes per byte on clean
+ * links, while smaller segments limit how much has to be resent for each lost packet on lossy links.
+ * <p>
+ * A single instance should be used across transfers to the same server, and can be shared between threads.
+ */
+public class AdaptiveSegmentSize {
+    private final double LOW_LOSS_RATE = 0.01;
+    private final double HIGH_LOSS_RATE = 0.05;
+    private final int minSegmentSize;
+    private final int maxSegmentSize;
+    private int segmentSize;
+
+    /**
+     * Construct an adaptive segment size that starts at the default size, and grows up to the largest size the server
+     * supports. The size never shrinks below the default size.
+     */
+    public AdaptiveSegmentSize() {
+        this(MultiPacketEncoder.DEFAULT_MAX_MESSAGE_LENGTH, MultiPacketEncoder.DEFAULT_MAX_MESSAGE_LENGTH,
+                MultiPacketEncoder.MAX_MAX_MESSAGE_LENGTH);
+    }
+
+    /**
+     * @param initialSegmentSize the segment size to request for the first transfer
+     * @param minSegmentSize     the smallest size the segment size can shrink to
+     * @param maxSegmentSize     the largest size the segment size can grow to
+     */
+    public AdaptiveSegmentSize(int initialSegmentSize, int minSegmentSize, int maxSegmentSize) {
+        this.minSegmentSize = MultiPacketEncoder.clampMaxMessageLength(minSegmentSize);
+        this.maxSegmentSize = MultiPacketEncoder.clampMaxMessageLength(maxSegmentSize);
+        this.segmentSize = Math.max(this.minSegmentSize, Math.min(this.maxSegmentSize, initialSegmentSize));
+    }
+
+    /**
+     * @return a segment size that never changes, regardless of the loss rate
+     */
+    public static AdaptiveSegmentSize fixed(int segmentSize) {
+        return new AdaptiveSegmentSize(segmentSize, segmentSize, segmentSize);
+    }
+
+    /**
+     * @return the segment size to request for the next transfer
+     */
+    public synchronized int getSegmentSize() {
+        return segmentSize;
+    }
+
+    /**
+     * Record the loss observed during a transfer and adjust the segment size accordingly
+     *
+     * @param packetsExpected the number of packets the server sent, counting each retransmission
+     * @param packetsReceived the number of those packets that were received
+     */
+    public synchronized void recordTransfer(long packetsExpected, long packetsReceived) {
+        if (packetsExpected <= 0) {
+            return;
+        }
+        double lossRate = 1 - (packetsReceived / (double) packetsExpected);
+        if (lossRate <= LOW_LOSS_RATE) {
+            segmentSize = Math.min(maxSegmentSize, segmentSize * 2);
+        } else if (lossRate >= HIGH_LOSS_RATE) {
+            segmentSize = Math.max(minSegmentSize, segmentSize / 2);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package src.engine;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * This class buffers the packets written to a socket's stream so that many packets are passed to the socket in a single
+ * write, rather than one write (and likely one TCP segment) per packet. The buffer is written to the socket when it is
+ * full, when {@link #flush()} is called, or when a write happens after the oldest buffered byte has waited
+ * maxDelayNanos, so that packets are not held back for long when they are sent slowly.
+ * <p>
+ * The number of writes made to the underlying stream, each of which is a system call for a socket, is counted along with
+ * the bytes written, to measure how well the packets are batched.
+ */
+public class BatchingOutputStream extends OutputStream {
+    private final OutputStream out;
+    private final byte[] buffer;
+    private final long maxDelayNanos;
+    private int count = 0;  // the number of bytes in the buffer
+    private long firstBufferedTime = 0;  // when the oldest byte in the buffer was written
+    private long numWrites = 0;
+    private long numBytesWritten = 0;
+
+    /**
+     * @param out           the stream to write batches to
+     * @param bufferSize    the max number of bytes to batch into a single write
+     * @param maxDelayNanos the max time, in nanoseconds, that bytes are buffered for before a later write flushes them
+     */
+    public BatchingOutputStream(OutputStream out, int bufferSize, long maxDelayNanos) {
+        this.out = out;
+        this.buffer = new byte[bufferSize];
+        this.maxDelayNanos = maxDelayNanos;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (count == buffer.length) {
+            writeBuffer();
+        }
+        if (count == 0) {
+            firstBufferedTime = System.nanoTime();
+        }
+        buffer[count++] = (byte) b;
+        flushIfDelayed();
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (len >= buffer.length) {
+            // The bytes would not fit in a batch anyway, so write them directly after the bytes already buffered
+            writeBuffer();
+            out.write(b, off, len);
+            numWrites++;
+            numBytesWritten += len;
+            return;
+        }
+        if (len > buffer.length - count) {
+            writeBuffer();
+        }
+        if (count == 0) {
+            firstBufferedTime = System.nanoTime();
+        }
+        System.arraycopy(b, off, buffer, count, len);
+        count += len;
+        flushIfDelayed();
+    }
+
+    /**
+     * Write the buffered bytes to the underlying stream and flush it
+     */
+    @Override
+    public void flush() throws IOException {
+        writeBuffer();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            out.close();
+        }
+    }
+
+    private void flushIfDelayed() throws IOException {
+        if (count > 0 && System.nanoTime() - firstBufferedTime >= maxDelayNanos) {
+            flush();
+        }
+    }
+
+    private void writeBuffer() throws IOException {
+        if (count > 0) {
+            out.write(buffer, 0, count);
+            numWrites++;
+            numBytesWritten += count;
+            count = 0;
+        }
+    }
+
+    /**
+     * @return the number of writes made to the underlying stream
+     */
+    public long getNumWrites() {
+        return numWrites;
+    }
+
+    /**
+     * @return the number of bytes written to the underlying stream
+     */
+    public long getNumBytesWritten() {
+        return numBytesWritten;
+    }
+}
@@ -0,0 +1,244 @@
+package src.engine;
+
+import src.InternetProtocolHandling.MultiPacketEncoder;
+import src.InternetProtocolHandling.PacketChecksums;
+import src.InternetProtocolHandling.PacketDecoder;
+import src.InternetProtocolHandling.SequenceRanges;
+import src.InternetProtocolHandling.enums.Codec;
+import src.InternetProtocolHandling.enums.PacketArgKey;
+import src.InternetProtocolHandling.enums.TransferMode;
+import src.InternetProtocolHandling.enums.WireFormat;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+
+/**
+ * This class interprets the packets that a client sends to the server, so that every kind of sender session handles
+ * them the same way.
+ */
+class ClientPackets {
+    private ClientPackets() {
+    }
+
+    /**
+     * @return <code>true</code> if the packet is the client's initial request for the message
+     */
+    static boolean isMessageRequest(PacketDecoder packet) {
+        return packet.containsArg(PacketArgKey.REQUEST_TYPE) && packet.getArg(PacketArgKey.REQUEST_TYPE).equals("MESSAGE");
+    }
+
+    /**
+     * @return <code>true</code> if the packet is a report from the client that it is still missing packets
+     */
+    static boolean isMissingPacketsReport(PacketDecoder packet) {
+        return packet.containsArg(PacketArgKey.COMPLETED) && packet.getArg(PacketArgKey.COMPLETED).equals("F");
+    }
+
+    /**
+     * @return <code>true</code> if the packet is a report from the client that it received the full message
+     */
+    static boolean isCompletedReport(PacketDecoder packet) {
+        return packet.containsArg(PacketArgKey.COMPLETED) && packet.getArg(PacketArgKey.COMPLETED).equals("T");
+    }
+
+    /**
+     * @param log logs a message if the requested format is not supported
+     * @return the wire format requested in the client's initial request packet. If the client did not request a format
+     * or requested one that is not supported, the TEXT format is used.
+     */
+    static WireFormat getRequestedWireFormat(PacketDecoder requestPacket, Consumer<String> log) {
+        if (requestPacket.containsArg(PacketArgKey.WIRE_FORMAT)) {
+            try {
+                return WireFormat.valueOf(requestPacket.getArg(PacketArgKey.WIRE_FORMAT));
+            } catch (IllegalArgumentException e) {
+                log.accept("unsupported wire format '" + requestPacket.getArg(PacketArgKey.WIRE_FORMAT) + "' requested - using " + WireFormat.TEXT);
+            }
+        }
+        return WireFormat.TEXT;
+    }
+
+    /**
+     * @param log logs a message if the requested codec is not supported
+     * @return the codec requested in the client's initial request packet. If the client did not request a codec or
+     * requested one that is not supported, NONE is used, so the packets are sent uncompressed.
+     */
+    static Codec getRequestedCodec(PacketDecoder requestPacket, Consumer<String> log) {
+        if (requestPacket.containsArg(PacketArgKey.CODEC)) {
+            try {
+                return Codec.valueOf(requestPacket.getArg(PacketArgKey.CODEC));
+            } catch (IllegalArgumentException e) {
+                log.accept("unsupported codec '" + requestPacket.getArg(PacketArgKey.CODEC) + "' requested - using " + Codec.NONE);
+            }
+        }
+        return Codec.NONE;
+    }
+
+    /**
+     * @param log logs a message if the requested mode is not supported
+     * @return the transfer mode requested in the client's initial request packet. If the client did not request a mode
+     * or requested one that is not supported, the ROUNDS mode is used.
+     */
+    static TransferMode getRequestedTransferMode(PacketDecoder requestPacket, Consumer<String> log) {
+        if (requestPacket.containsArg(PacketArgKey.TRANSFER_MODE)) {
+            try {
+                return TransferMode.valueOf(requestPacket.getArg(PacketArgKey.TRANSFER_MODE));
+            } catch (IllegalArgumentException e) {
+                log.accept("unsupported transfer mode '" + requestPacket.getArg(PacketArgKey.TRANSFER_MODE) + "' requested - using " + TransferMode.ROUNDS);
+            }
+        }
+        return TransferMode.ROUNDS;
+    }
+
+    /**
+     * @param log logs a message if the requested segment size is not valid
+     * @return the segment size requested in the client's initial request packet, clamped to the supported range. If the
+     * client did not request a valid segment size, the default size is used.
+     */
+    static int getRequestedSegmentSize(PacketDecoder requestPacket, Consumer<String> log) {
+        if (requestPacket.containsArg(PacketArgKey.SEGMENT_SIZE)) {
+            try {
+                return MultiPacketEncoder.clampMaxMessageLength(Integer.parseInt(requestPacket.getArg(PacketArgKey.SEGMENT_SIZE)));
+            } catch (NumberFormatException e) {
+                log.accept("invalid segment size '" + requestPacket.getArg(PacketArgKey.SEGMENT_SIZE) + "' requested - using the default size");
+            }
+        }
+        return MultiPacketEncoder.DEFAULT_MAX_MESSAGE_LENGTH;
+    }
+
+    /**
+     * @return the sequence numbers of the given arg, which is encoded as {@link SequenceRanges}, or null if the arg is not
+     * valid or includes sequence numbers outside of the message
+     */
+    static int[] getSequenceNums(PacketDecoder packet, PacketArgKey key, int totalPackets) {
+        try {
+            String encoded = packet.getArg(key);
+            // Check the count before decoding, so that an invalid packet cannot make us decode a huge range
+            if (SequenceRanges.count(encoded) > totalPackets) {
+                return null;
+            }
+            int[] sequenceNums = SequenceRanges.toArray(encoded);
+            for (int sequenceNum : sequenceNums) {
+                if (sequenceNum >= totalPackets) {
+                    return null;
+                }
+            }
+            return sequenceNums;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Get the packets to send in the first round of a transfer: every packet of the message, except those that the client
+     * lists in the request's RECEIVED_PACKET_NUMS arg as already received, in an earlier transfer that was interrupted.
+     * The arg is only honored if the request's TOTAL_PACKETS arg, and its FILE_DIGEST arg if given, match the message,
+     * as otherwise the packets the client has are from a different file or segment size.
+     * <p>
+     * If the request has the STRIPE_INDEX and STRIPE_COUNT args, the client receives the message over several
+     * connections, and only the packets of the requested stripe are sent over this one: those whose sequence number
+     * modulo STRIPE_COUNT is STRIPE_INDEX. If the client already has every packet of the stripe, or the stripe is empty,
+     * the last packet of the message is sent anyway, so that the client learns the total number of packets and that the
+     * stripe is complete.
+     *
+     * @param log logs a message if the client asked to resume a transfer that cannot be resumed, or requested an invalid
+     *            stripe
+     * @return the sequence numbers of the packets to send, in ascending order
+     */
+    static int[] getPacketNumsToSend(PacketDecoder requestPacket, MultiPacketEncoder messageEncoder, Consumer<String> log) {
+        int totalPackets = messageEncoder.getNumTotalPackets();
+        int[] stripe = getRequestedStripe(requestPacket, log);
+        BitSet packetsToSend = new BitSet(totalPackets);
+        for (int i = stripe[0]; i < totalPackets; i += stripe[1]) {
+            packetsToSend.set(i);
+        }
+        if (requestPacket.containsArg(PacketArgKey.RECEIVED_PACKET_NUMS)) {
+            if (resumedMessageMatches(requestPacket, messageEncoder)) {
+                int[] receivedPacketNums = getSequenceNums(requestPacket, PacketArgKey.RECEIVED_PACKET_NUMS, totalPackets);
+                if (receivedPacketNums != null && receivedPacketNums.length < totalPackets) {
+                    for (int sequenceNum : receivedPacketNums) {
+                        packetsToSend.clear(sequenceNum);
+                    }
+                } else {
+                    log.accept("invalid " + PacketArgKey.RECEIVED_PACKET_NUMS + " in request - sending all packets");
+                }
+            } else {
+                log.accept("the transfer to resume is of a different file or segment size - sending all packets");
+            }
+        }
+        if (packetsToSend.isEmpty()) {
+            packetsToSend.set(totalPackets - 1);
+        }
+        return packetsToSend.stream().toArray();
+    }
+
+    /**
+     * @param log logs a message if the requested stripe is not valid
+     * @return the stripe requested in the client's initial request packet, as the stripe's index followed by the number
+     * of stripes. If the client did not request a valid stripe, the single stripe of all packets is used.
+     */
+    static int[] getRequestedStripe(PacketDecoder requestPacket, Consumer<String> log) {
+        if (requestPacket.containsArg(PacketArgKey.STRIPE_INDEX) || requestPacket.containsArg(PacketArgKey.STRIPE_COUNT)) {
+            try {
+                int stripeIndex = Integer.parseInt(requestPacket.getArg(PacketArgKey.STRIPE_INDEX));
+                int stripeCount = Integer.parseInt(requestPacket.getArg(PacketArgKey.STRIPE_COUNT));
+                if (stripeCount > 0 && stripeIndex >= 0 && stripeIndex < stripeCount) {
+                    return new int[]{stripeIndex, stripeCount};
+                }
+            } catch (NumberFormatException ignored) {
+            }
+            log.accept("invalid stripe " + requestPacket.getArg(PacketArgKey.STRIPE_INDEX) + " of " +
+                    requestPacket.getArg(PacketArgKey.STRIPE_COUNT) + " requested - sending all packets");
+        }
+        return new int[]{0, 1};
+    }
+
+    /**
+     * @param numPacketsToSend the number of packets to send, as returned by
+     *                         {@link #getPacketNumsToSend(PacketDecoder, MultiPacketEncoder, Consumer)}
+     * @return a description of the packets to send for the request, for a log of the transfer, e.g.,
+     * <code>"250 of the 1000 packets (stripe 1 of 4)"</code>, or <code>"1000 packets"</code> if all packets are sent
+     */
+    static String describePacketsToSend(PacketDecoder requestPacket, MultiPacketEncoder messageEncoder, int numPacketsToSend) {
+        int[] stripe = getRequestedStripe(requestPacket, message -> {});
+        boolean resuming = requestPacket.containsArg(PacketArgKey.RECEIVED_PACKET_NUMS);
+        if (stripe[1] == 1 && !resuming) {
+            return numPacketsToSend + " packets";
+        }
+        return numPacketsToSend + " of the " + messageEncoder.getNumTotalPackets() + " packets (" +
+                (stripe[1] > 1 ? "stripe " + stripe[0] + " of " + stripe[1] : "") + (stripe[1] > 1 && resuming ? ", " : "") +
+                (resuming ? "resuming a transfer" : "") + ")";
+    }
+
+    /**
+     * @return <code>true</code> if the TOTAL_PACKETS arg of the request, and its FILE_DIGEST arg if given, match the
+     * message
+     */
+    private static boolean resumedMessageMatches(PacketDecoder requestPacket, MultiPacketEncoder messageEncoder) {
+        try {
+            if (Integer.parseInt(requestPacket.getArg(PacketArgKey.TOTAL_PACKETS)) != messageEncoder.getNumTotalPackets()) {
+                return false;
+            }
+            return !requestPacket.containsArg(PacketArgKey.FILE_DIGEST) || Arrays.equals(
+                    PacketChecksums.parseDigest(requestPacket.getArg(PacketArgKey.FILE_DIGEST)), messageEncoder.getFileDigest());
+        } catch (IllegalArgumentException | IOException e) {
+            return false;  // also thrown if the arg is missing
+        }
+    }
+
+    /**
+     * Shuffle the array in place, so that the packets are sent out of order
+     */
+    static void shuffle(int[] packetNums) {
+        Random random = ThreadLocalRandom.current();
+        for (int i = packetNums.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int temp = packetNums[i];
+            packetNums[i] = packetNums[j];
+            packetNums[j] = temp;
+        }
+    }
+}
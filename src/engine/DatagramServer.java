@@ -0,0 +1,408 @@
+package src.engine;
+
+import src.InternetProtocolHandling.EncodedPacket;
+import src.InternetProtocolHandling.MultiPacketEncoder;
+import src.InternetProtocolHandling.PacketDecoder;
+import src.InternetProtocolHandling.enums.Codec;
+import src.InternetProtocolHandling.enums.PacketArgKey;
+import src.InternetProtocolHandling.enums.TransferMode;
+import src.InternetProtocolHandling.enums.WireFormat;
+import src.engine.Logger.Level;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.function.IntFunction;
+
+/**
+ * This class sends the message to clients over UDP, with each packet sent as a single datagram. Unlike over TCP, the
+ * network itself can lose and reorder the packets, so the packets are not 'dropped' on purpose; the ROUNDS transfer mode
+ * recovers from the real loss with the client's reports of its missing packets.
+ * <p>
+ * All clients are served from a single thread and a single non-blocking channel. Each client is identified by the
+ * address its datagrams come from, and has a session that holds the round of packets being sent to it. UDP has no flow
+ * control, so a round sent all at once would overflow the client's receive buffer and mostly be lost. Instead, each
+ * session sends a burst of SEND_BURST packets every SEND_INTERVAL, which paces every client at the same rate, and keeps
+ * one client's round from holding up the others.
+ * <p>
+ * A client's request or report can be lost as well. The client sends it again when it stops receiving packets, so this
+ * server treats a repeated request as a request to start over, and a report received in the middle of a round as
+ * replacing the rest of the round. A session that has not heard from its client in SESSION_TIMEOUT ends as failed.
+ * <p>
+ * The address a request comes from is not verified, so a forged request could otherwise make this server send the whole
+ * message to an address that never asked for it. Until a session's client sends its first report, which shows that it
+ * receives the packets, the session only sends the first MAX_UNCONFIRMED_PACKETS packets of each request, and the
+ * session ends if the client does not report within UNCONFIRMED_SESSION_TIMEOUT. At most MAX_SESSIONS sessions run at
+ * once. A session that fails while processing a datagram or sending a packet ends on its own, without affecting the
+ * other sessions.
+ */
+public class DatagramServer implements Closeable {
+    private final int MAX_DATAGRAM_SIZE = 65_507;
+    private final int SOCKET_SEND_BUFFER_SIZE = 1024 * 1024;
+    private final int SEND_BURST = 16;  // the packets each session sends per SEND_INTERVAL
+    private final int SEND_INTERVAL = 1;  // ms between bursts
+    private final int SELECT_TIMEOUT = 500;  // ms to wait for a datagram before checking if the server was closed
+    private final long SESSION_TIMEOUT = 30_000_000_000L;  // ns without hearing from a client before its session ends
+    private final long UNCONFIRMED_SESSION_TIMEOUT = 5_000_000_000L;  // ns from a session's start for its client to report
+    private final int MAX_UNCONFIRMED_PACKETS = SEND_BURST;  // the packets sent per request until the client reports
+    private final int MAX_SESSIONS = 64;
+    private final int portNumber;
+    private final IntFunction<MultiPacketEncoder> packetsBySegmentSize;
+    private final TransferStatistics statistics;
+    private final HashMap<SocketAddress, DatagramSession> sessions = new HashMap<>();
+    private final ByteBuffer receiveBuffer = ByteBuffer.allocate(MAX_DATAGRAM_SIZE);
+    private final ByteBuffer sendBuffer = ByteBuffer.allocate(MAX_DATAGRAM_SIZE);
+    private DatagramChannel channel;
+    private Selector selector;
+    private volatile boolean closed = false;
+    private int sessionCount = 0;
+
+    /**
+     * @param packetsBySegmentSize provides the packets of the message to send, broken up with the given segment size.
+     *                             The segment size passed is already clamped to fit in a datagram.
+     * @param statistics           the statistics to update as packets are sent
+     */
+    public DatagramServer(int portNumber, IntFunction<MultiPacketEncoder> packetsBySegmentSize, TransferStatistics statistics) {
+        this.portNumber = portNumber;
+        this.packetsBySegmentSize = packetsBySegmentSize;
+        this.statistics = statistics;
+    }
+
+    /**
+     * Start listening for clients' datagrams. This returns once the server is listening; the clients are served on the
+     * server's own thread until the server is closed.
+     *
+     * @throws IOException if the server could not listen on its port
+     */
+    public void start() throws IOException {
+        try {
+            channel = DatagramChannel.open();
+            channel.setOption(StandardSocketOptions.SO_SNDBUF, SOCKET_SEND_BUFFER_SIZE);
+            channel.bind(new InetSocketAddress(portNumber));
+            channel.configureBlocking(false);
+            selector = Selector.open();
+            channel.register(selector, SelectionKey.OP_READ);
+        } catch (IOException e) {
+            closeChannel();
+            throw e;
+        }
+        Thread thread = new Thread(this::run, "SERVER-DatagramLoop");
+        thread.setDaemon(true);
+        thread.start();
+        log(Level.INFO, "listening for datagrams on port " + portNumber);
+    }
+
+    /**
+     * Stop serving clients. Every session that is still running ends as failed.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        if (selector != null) {
+            selector.wakeup();
+        }
+    }
+
+    private void run() {
+        try {
+            SelectionKey key = channel.keyFor(selector);
+            while (!closed) {
+                // Wait for datagrams until the next burst is due, or the channel can accept more datagrams if it was full
+                selector.select(hasPacketsToSend() ? SEND_INTERVAL : SELECT_TIMEOUT);
+                selector.selectedKeys().clear();
+                receiveDatagrams();
+                boolean channelIsFull = sendDatagrams();
+                key.interestOps(channelIsFull ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+                endIdleSessions();
+            }
+        } catch (IOException e) {
+            log(Level.ERROR, "EXCEPTION: exception while serving datagrams", e);
+        } finally {
+            for (DatagramSession session : sessions.values()) {
+                session.log(Level.INFO, "session cancelled - message not sent");
+                statistics.sessionEnded(false);
+            }
+            sessions.clear();
+            closeChannel();
+        }
+    }
+
+    /**
+     * Receive and process every datagram waiting on the channel
+     */
+    private void receiveDatagrams() throws IOException {
+        while (true) {
+            receiveBuffer.clear();
+            SocketAddress address = channel.receive(receiveBuffer);
+            if (address == null) {
+                return;  // no more datagrams are waiting
+            }
+            PacketDecoder packet;
+            try {
+                packet = new PacketDecoder(receiveBuffer.array(), 0, receiveBuffer.position());
+            } catch (IllegalArgumentException e) {
+                log(Level.WARN, "malformed datagram from " + address + " - ignoring it");
+                continue;
+            }
+            if (!packet.isComplete()) {
+                log(Level.WARN, "incomplete datagram from " + address + " - ignoring it");
+                continue;
+            }
+            DatagramSession session = sessions.get(address);
+            if (session == null) {
+                if (!ClientPackets.isMessageRequest(packet)) {
+                    continue;  // e.g., a repeated report from a client whose session already ended
+                }
+                if (sessions.size() >= MAX_SESSIONS) {
+                    log(Level.WARN, "already serving " + MAX_SESSIONS + " clients - ignoring the request from " + address);
+                    continue;
+                }
+                sessionCount++;
+                log(Level.INFO, "client " + address + " requested the message - starting session " + sessionCount);
+                session = new DatagramSession(sessionCount, address);
+                sessions.put(address, session);
+            }
+            try {
+                session.processPacket(packet);
+            } catch (IllegalArgumentException e) {
+                session.log(Level.WARN, "invalid packet - ignoring it: " + e.getMessage());
+            } catch (RuntimeException e) {
+                failSession(session, "EXCEPTION: exception while processing a packet", e);
+            }
+        }
+    }
+
+    /**
+     * Send a burst of packets from each session whose burst is due
+     *
+     * @return <code>true</code> if the channel could not accept more datagrams
+     */
+    private boolean sendDatagrams() throws IOException {
+        long now = System.nanoTime();
+        for (DatagramSession session : new ArrayList<>(sessions.values())) {
+            if (!session.hasPacketToSend() || now - session.lastBurstTime < SEND_INTERVAL * 1_000_000L) {
+                continue;
+            }
+            session.lastBurstTime = now;
+            try {
+                for (int i = 0; i < SEND_BURST && session.hasPacketToSend(); i++) {
+                    if (!session.sendNextPacket()) {
+                        return true;
+                    }
+                }
+            } catch (RuntimeException e) {
+                failSession(session, "EXCEPTION: exception while sending a packet", e);
+            }
+        }
+        return false;
+    }
+
+    private boolean hasPacketsToSend() {
+        for (DatagramSession session : sessions.values()) {
+            if (session.hasPacketToSend()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void endIdleSessions() {
+        long now = System.nanoTime();
+        Iterator<DatagramSession> iterator = sessions.values().iterator();
+        while (iterator.hasNext()) {
+            DatagramSession session = iterator.next();
+            if (now - session.lastHeardFrom > SESSION_TIMEOUT) {
+                session.log(Level.WARN, "no datagrams from the client for " + SESSION_TIMEOUT / 1_000_000_000 + " seconds - message not sent");
+            } else if (!session.confirmed && now - session.startTime > UNCONFIRMED_SESSION_TIMEOUT) {
+                session.log(Level.WARN, "no report from the client within " + UNCONFIRMED_SESSION_TIMEOUT / 1_000_000_000 +
+                        " seconds of its request - message not sent");
+            } else {
+                continue;
+            }
+            iterator.remove();
+            statistics.sessionEnded(false);
+        }
+    }
+
+    /**
+     * End a session that failed unexpectedly, so that the other sessions keep being served
+     */
+    private void failSession(DatagramSession session, String message, RuntimeException e) {
+        session.log(Level.ERROR, message + " - message not sent", e);
+        sessions.remove(session.address);
+        statistics.sessionEnded(false);
+    }
+
+    private void closeChannel() {
+        try {
+            if (selector != null) {
+                selector.close();
+            }
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void log(Level level, String message) {
+        if (Logger.isEnabled(level)) {
+            Logger.log(level, "SERVER - " + message);
+        }
+    }
+
+    private void log(Level level, String message, Exception e) {
+        if (Logger.isEnabled(level)) {
+            Logger.log(level, "SERVER - " + message, e);
+        }
+    }
+
+    /**
+     * The state of the transfer to a single client
+     */
+    private class DatagramSession {
+        private final int sessionId;
+        private final SocketAddress address;
+        private MultiPacketEncoder messageEncoder;
+        private WireFormat wireFormat;
+        private Codec codec;
+        private int[] packetNumsToSend = new int[0];  // the packets of the current round
+        private int[] firstRoundPacketNums;  // the packets sent in the first round, which leave out any the client already has
+        private int roundIndex = 0;  // the index of the next packet of the round to send
+        private int packetsOutstanding = 0;  // packets the client has not yet confirmed receiving
+        private int packetsSent = 0;
+        private boolean confirmed = false;  // set once the client reports, which shows that it receives the packets
+        private final long startTime = System.nanoTime();
+        private long lastHeardFrom = startTime;
+        private long lastBurstTime = System.nanoTime() - SEND_INTERVAL * 1_000_000L;  // the first burst is due right away
+
+        private DatagramSession(int sessionId, SocketAddress address) {
+            this.sessionId = sessionId;
+            this.address = address;
+            statistics.sessionStarted();
+        }
+
+        private void processPacket(PacketDecoder packet) {
+            lastHeardFrom = System.nanoTime();
+            log(Level.DEBUG, "RECEIVED: '" + packet.getPacketString() + "'");
+            if (ClientPackets.isMessageRequest(packet)) {
+                if (messageEncoder != null) {
+                    // The client has not received any packets, so it sent its request again
+                    log(Level.INFO, "request repeated - sending the first round of packets again");
+                    startRound(firstRoundPacketNums.clone());
+                    return;
+                }
+                wireFormat = ClientPackets.getRequestedWireFormat(packet, message -> log(Level.WARN, message));
+                codec = ClientPackets.getRequestedCodec(packet, message -> log(Level.WARN, message));
+                if (ClientPackets.getRequestedTransferMode(packet, message -> log(Level.WARN, message)) != TransferMode.ROUNDS) {
+                    log(Level.WARN, "only the " + TransferMode.ROUNDS + " transfer mode is supported over UDP - using it instead");
+                }
+                int segmentSize = MultiPacketEncoder.clampDatagramMessageLength(ClientPackets.getRequestedSegmentSize(packet, message -> log(Level.WARN, message)));
+                messageEncoder = packetsBySegmentSize.apply(segmentSize);
+                firstRoundPacketNums = ClientPackets.getPacketNumsToSend(packet, messageEncoder, message -> log(Level.WARN, message));
+                packetsOutstanding = firstRoundPacketNums.length;
+                statistics.packetsRequired(packetsOutstanding);
+                log(Level.INFO, "sending " + ClientPackets.describePacketsToSend(packet, messageEncoder, packetsOutstanding) +
+                        " in " + wireFormat + " format with a segment size of " +
+                        segmentSize + " over UDP" + (codec != Codec.NONE ? " with " + codec + " compression" : ""));
+                startRound(firstRoundPacketNums.clone());
+            } else if (messageEncoder != null && ClientPackets.isMissingPacketsReport(packet)) {
+                confirmed = true;
+                int[] missingPacketNums = ClientPackets.getSequenceNums(packet, PacketArgKey.MISSING_PACKET_NUMS,
+                        messageEncoder.getNumTotalPackets());
+                if (missingPacketNums == null || missingPacketNums.length == 0) {
+                    log(Level.WARN, "unable to retrieve " + PacketArgKey.MISSING_PACKET_NUMS + " from packet - ignoring it");
+                    return;
+                }
+                // The report may only list some of the missing packets, so only the packets it lists are retransmitted
+                // and the rest stay outstanding until a later report
+                int totalMissing = Math.max(missingPacketNums.length, parseTotalMissing(packet));
+                statistics.packetsConfirmed(packetsOutstanding - totalMissing);
+                packetsOutstanding = totalMissing;
+                startRound(missingPacketNums);
+            } else if (messageEncoder != null && ClientPackets.isCompletedReport(packet)) {
+                statistics.packetsConfirmed(packetsOutstanding);
+                log(Level.INFO, "Message successfully sent.");
+                log(Level.INFO, "total packets sent: " + packetsSent);
+                sessions.remove(address);
+                statistics.sessionEnded(true);
+            }
+        }
+
+        private int parseTotalMissing(PacketDecoder packet) {
+            try {
+                int totalMissing = Integer.parseInt(packet.getArg(PacketArgKey.TOTAL_PACKETS_MISSING));
+                return Math.min(totalMissing, packetsOutstanding);
+            } catch (NumberFormatException e) {
+                return 0;
+            }
+        }
+
+        private void startRound(int[] packetNums) {
+            packetNumsToSend = packetNums;
+            roundIndex = 0;
+        }
+
+        /**
+         * @return the number of packets of the current round that may be sent, which is limited to
+         * MAX_UNCONFIRMED_PACKETS until the client reports
+         */
+        private int getRoundLength() {
+            return confirmed ? packetNumsToSend.length : Math.min(packetNumsToSend.length, MAX_UNCONFIRMED_PACKETS);
+        }
+
+        private boolean hasPacketToSend() {
+            return roundIndex < getRoundLength();
+        }
+
+        /**
+         * Send the next packet of the round as a datagram. The last packet of the round that may be sent has a COMPLETED
+         * arg of T, which asks the client to report the packets it is missing. It may still be lost, in which case the
+         * client reports its missing packets once it stops receiving packets.
+         *
+         * @return <code>true</code> if the packet was sent, or <code>false</code> if the channel could not accept it, in
+         * which case it is sent on the next call
+         */
+        private boolean sendNextPacket() throws IOException {
+            int sequenceNum = packetNumsToSend[roundIndex];
+            boolean completed = roundIndex == getRoundLength() - 1;
+            EncodedPacket packet = messageEncoder.getEncodedPacket(sequenceNum, wireFormat, codec);
+            sendBuffer.clear();
+            packet.writeTo(sendBuffer, 0, completed);
+            sendBuffer.flip();
+            if (channel.send(sendBuffer, address) == 0) {
+                return false;
+            }
+            statistics.socketWrites(1);
+            int numBytes = packet.getLength();
+            if (Logger.isEnabled(Level.TRACE)) {
+                log(Level.TRACE, "sent packet " + sequenceNum + " (" + numBytes + " bytes)");
+            }
+            roundIndex++;
+            packetsSent++;
+            statistics.packetSent(numBytes, false);
+            return true;
+        }
+
+        private void log(Level level, String message) {
+            if (Logger.isEnabled(level)) {
+                Logger.log(level, "SERVER - session " + sessionId + " - " + message);
+            }
+        }
+
+        private void log(Level level, String message, Exception e) {
+            if (Logger.isEnabled(level)) {
+                Logger.log(level, "SERVER - session " + sessionId + " - " + message, e);
+            }
+        }
+    }
+}
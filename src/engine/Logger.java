@@ -0,0 +1,154 @@
+package src.engine;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class is a leveled, asynchronous log shared by the server and client. Messages are queued and written to standard
+ * out in batches by a background thread, so that logging never blocks a transfer on console I/O. Messages below the
+ * current level are discarded. The level defaults to INFO, which logs the events of each session and transfer, and can
+ * be set with the <code>tcpsim.logLevel</code> system property or {@link #setLevel(Level)}.
+ * <p>
+ * Messages logged for every packet should be logged at TRACE, and only built after checking {@link #isEnabled(Level)},
+ * so that they cost nothing when tracing is off.
+ * <p>
+ * If the queue fills up because messages are logged faster than they can be written, messages below WARN are dropped
+ * rather than blocking the caller, and the number dropped is logged once the queue drains.
+ */
+public final class Logger {
+    public enum Level {
+        TRACE,  // every packet sent and received
+        DEBUG,  // the control packets exchanged, e.g., requests, reports, and acknowledgements
+        INFO,  // the start, end, and summary of each session and transfer
+        WARN,  // unexpected packets and lost connections
+        ERROR  // exceptions
+    }
+
+    private static final int QUEUE_CAPACITY = 64 * 1024;
+    private static final int WRITER_POLL_INTERVAL = 20;  // the max ms a flush waits for the writer to release its lock
+    private static final BlockingQueue<String> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private static final AtomicLong droppedMessages = new AtomicLong();
+    private static volatile Level level = getInitialLevel();
+
+    static {
+        Thread writer = new Thread(Logger::writeMessages, "Logger");
+        writer.setDaemon(true);
+        writer.start();
+        // Write the messages still queued when the program exits
+        Runtime.getRuntime().addShutdownHook(new Thread(Logger::flush));
+    }
+
+    private Logger() {
+    }
+
+    public static void setLevel(Level newLevel) {
+        level = newLevel;
+    }
+
+    /**
+     * @return <code>true</code> if messages at the given level are logged. Check this before building a message that is
+     * logged often.
+     */
+    public static boolean isEnabled(Level messageLevel) {
+        return messageLevel.compareTo(level) >= 0;
+    }
+
+    /**
+     * Queue the message to be logged if its level is enabled. This only blocks for WARN and ERROR messages, and only
+     * when the queue is full.
+     */
+    public static void log(Level messageLevel, String message) {
+        if (!isEnabled(messageLevel)) {
+            return;
+        }
+        if (messageLevel.compareTo(Level.WARN) >= 0) {
+            try {
+                queue.put(message);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        } else if (!queue.offer(message)) {
+            droppedMessages.incrementAndGet();
+        }
+    }
+
+    /**
+     * Queue the message to be logged, followed by the exception's stack trace, if its level is enabled
+     */
+    public static void log(Level messageLevel, String message, Throwable exception) {
+        if (!isEnabled(messageLevel)) {
+            return;
+        }
+        StringWriter stackTrace = new StringWriter();
+        exception.printStackTrace(new PrintWriter(stackTrace));
+        log(messageLevel, message + "\n" + stackTrace.toString().stripTrailing());
+    }
+
+    /**
+     * Write all the messages queued so far on the calling thread
+     */
+    public static synchronized void flush() {
+        List<String> messages = new ArrayList<>();
+        queue.drainTo(messages);
+        write(messages);
+    }
+
+    private static void writeMessages() {
+        List<String> messages = new ArrayList<>();
+        while (true) {
+            // The lock is held while waiting for a message, so that a message taken from the queue is always written
+            // before a flush writes the messages after it
+            synchronized (Logger.class) {
+                try {
+                    String message = queue.poll(WRITER_POLL_INTERVAL, TimeUnit.MILLISECONDS);
+                    if (message != null) {
+                        messages.add(message);
+                        queue.drainTo(messages);
+                        write(messages);
+                        messages.clear();
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Write the messages to standard out as a single write
+     */
+    private static void write(List<String> messages) {
+        long numDropped = droppedMessages.getAndSet(0);
+        if (messages.isEmpty() && numDropped == 0) {
+            return;
+        }
+        StringBuilder output = new StringBuilder();
+        for (String message : messages) {
+            output.append(message).append('\n');
+        }
+        if (numDropped > 0) {
+            output.append("Logger - ").append(numDropped).append(" messages dropped as they were logged faster than they could be written\n");
+        }
+        System.out.print(output);
+        System.out.flush();
+    }
+
+    private static Level getInitialLevel() {
+        String property = System.getProperty("tcpsim.logLevel");
+        if (property != null) {
+            try {
+                return Level.valueOf(property.toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                System.err.println("Logger - unknown log level '" + property + "', using INFO");
+            }
+        }
+        return Level.INFO;
+    }
+}
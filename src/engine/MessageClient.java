@@ -0,0 +1,858 @@
+package src.engine;
+
+import src.InternetProtocolHandling.BinaryPacketDecoder;
+import src.InternetProtocolHandling.FileSegmentSink;
+import src.InternetProtocolHandling.MultiPacketDecoder;
+import src.InternetProtocolHandling.MultiPacketEncoder;
+import src.InternetProtocolHandling.PacketChecksums;
+import src.InternetProtocolHandling.PacketDecoder;
+import src.InternetProtocolHandling.PacketEncoder;
+import src.InternetProtocolHandling.PacketFrameReader;
+import src.InternetProtocolHandling.SequenceRanges;
+import src.InternetProtocolHandling.enums.Codec;
+import src.InternetProtocolHandling.enums.PacketArgKey;
+import src.InternetProtocolHandling.enums.TransferMode;
+import src.InternetProtocolHandling.enums.Transport;
+import src.InternetProtocolHandling.enums.WireFormat;
+import src.engine.Logger.Level;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class is responsible for receiving a message from a Server and writing it to a file. It does not depend on any UI
+ * toolkit, so it can run on any thread; the status and progress of the transfer are reported to a {@link TransferListener}.
+ */
+public class MessageClient {
+    private final int ACK_INTERVAL = 16;  // the packets to receive between acknowledgements in the WINDOWED mode
+    private final int MAX_DATAGRAM_SIZE = 65_507;
+    private final int SOCKET_RECEIVE_BUFFER_SIZE = 4 * 1024 * 1024;  // the OS may limit this to a smaller size
+    private final int DATAGRAM_TIMEOUT = 250;  // ms without a datagram before resending the last request or report
+    private final int MAX_DATAGRAM_TIMEOUTS = 40;  // timeouts in a row before the server is considered lost
+    private final int MAX_MISSING_PER_REPORT = 4096;  // keeps a report of the missing packets within a single datagram
+    private final int COMPLETED_REPORT_COPIES = 3;  // as the final report is not answered, it is sent more than once
+    private final int PROGRESS_SAMPLE_RATE = 15;  // the times per second that the progress is reported to the listener
+    private final long JOURNAL_INTERVAL = 1_000_000_000L;  // ns between saves of the receive journal during a transfer
+    private final int MAX_RESUME_ARG_LENGTH = 16_384;  // keeps a request to resume a transfer within a single datagram
+    private final String ip;
+    private final int portNumber;
+    private final Path outputFile;
+    private final WireFormat wireFormat;
+    private final Codec codec;
+    private final TransferMode transferMode;
+    private final Transport transport;
+    private final AdaptiveSegmentSize segmentSize;
+    private final int numStreams;
+    private final TransferListener listener;
+    private final ReceiveJournal journal;
+    private MultiPacketDecoder currentTransfer;  // the packets received so far, which are journaled if the transfer fails
+    private int currentSegmentSize;
+    private volatile boolean discardPartialFile = false;  // set if the packets received must not be used to resume the transfer
+    private boolean fileDigestChecked = false;
+    private long lastJournalSave;
+    private volatile boolean cancelled = false;
+    private final Set<Socket> clientSockets = ConcurrentHashMap.newKeySet();  // the connections while receiving over TCP, closed on cancellation
+    private volatile boolean transferAborted = false;  // set once a connection fails, so that the others stop
+    // Each connection receiving a stripe updates the packet counts, so they are only updated while holding the lock of
+    // the transfer's decoder. They are volatile so that they can be read from any thread.
+    private volatile long packetsExpected = 0;  // the number of packets the server sent, including 'dropped' packets
+    private volatile long packetsReceived = 0;
+    private volatile long packetsRequired = 0;  // the number of packets in the message not yet received when the transfer started
+    private final AtomicLong uniquePacketsReceived = new AtomicLong();  // sampled from another thread to report progress
+    private long lastReportedProgress = -1;
+    private volatile String finalStatus = "";  // the status at the end of the transfer, reported once the progress no longer is
+
+    /**
+     * Constructor for a client that receives the message uncompressed, over a single connection
+     *
+     * @see #MessageClient(String, int, Path, WireFormat, Codec, TransferMode, Transport, AdaptiveSegmentSize, TransferListener)
+     */
+    public MessageClient(String ip, int portNumber, Path outputFile, WireFormat wireFormat, TransferMode transferMode,
+                         Transport transport, AdaptiveSegmentSize segmentSize, TransferListener listener) {
+        this(ip, portNumber, outputFile, wireFormat, Codec.NONE, transferMode, transport, segmentSize, listener);
+    }
+
+    /**
+     * Constructor for a client that receives the message over a single connection
+     *
+     * @see #MessageClient(String, int, Path, WireFormat, Codec, TransferMode, Transport, int, AdaptiveSegmentSize, TransferListener)
+     */
+    public MessageClient(String ip, int portNumber, Path outputFile, WireFormat wireFormat, Codec codec,
+                         TransferMode transferMode, Transport transport, AdaptiveSegmentSize segmentSize,
+                         TransferListener listener) {
+        this(ip, portNumber, outputFile, wireFormat, codec, transferMode, transport, 1, segmentSize, listener);
+    }
+
+    /**
+     * @param outputFile   the file to write the message to. Each packet is written to the file as it is received. If
+     *                     the full message is not received, the file is kept along with a {@link ReceiveJournal} of
+     *                     the packets written to it, and the next transfer to the same file only requests the rest.
+     * @param wireFormat   the format to request that the server send the message packets in
+     * @param codec        the codec to request that the server compress the message packets with. The server only
+     *                     compresses the packets that get smaller, so this is worthwhile for compressible files, e.g.,
+     *                     text, and only costs CPU time for files that are already compressed.
+     * @param transferMode the mode to request that the server send the message packets and recover lost packets in
+     * @param transport    the transport to receive the message over. Over UDP, only the ROUNDS transfer mode is
+     *                     supported, so the transfer mode is ignored.
+     * @param numStreams   the number of TCP connections to receive the message over at once. The packets are split
+     *                     into that many stripes, each sent over its own connection with its own loss recovery, so the
+     *                     transfer is not limited by what a single connection can carry, e.g., over a link with a long
+     *                     round trip. Over UDP, a single stream is used.
+     * @param segmentSize  provides the segment size to request from the server. When the transfer completes, the loss
+     *                     observed during the transfer is recorded to it, so that later transfers can adapt their
+     *                     segment size.
+     * @param listener     receives the status and progress of the transfer
+     */
+    public MessageClient(String ip, int portNumber, Path outputFile, WireFormat wireFormat, Codec codec,
+                         TransferMode transferMode, Transport transport, int numStreams, AdaptiveSegmentSize segmentSize,
+                         TransferListener listener) {
+        if (numStreams < 1) {
+            throw new IllegalArgumentException("The number of streams must be positive: " + numStreams);
+        }
+        this.ip = ip;
+        this.portNumber = portNumber;
+        this.outputFile = outputFile;
+        this.wireFormat = wireFormat;
+        this.codec = codec;
+        this.transferMode = transport == Transport.UDP ? TransferMode.ROUNDS : transferMode;
+        this.transport = transport;
+        this.segmentSize = segmentSize;
+        this.numStreams = transport == Transport.UDP ? 1 : numStreams;
+        this.listener = listener;
+        this.journal = new ReceiveJournal(outputFile);
+    }
+
+    /**
+     * Connect to the server and receive a message. This blocks until the message is received, the transfer fails, or
+     * {@link #cancel()} is called.
+     * <p>
+     * This method does the following:
+     *     <ul>
+     *         <li>creates a socket and waits for the server to connect</li>
+     *         <li>upon connecting to the server, sends the initial message request packet</li>
+     *         <li>waits for and receives the packets containing the message, writing each packet to its place in the
+     *         output file as it is received</li>
+     *         <li>when the server indicates that it is done sending all packets, this method sends a packet to the server
+     *         indicating which packets it has still not received (that were 'dropped')</li>
+     *         <li>this repeats until this method has received all packets, at which point this method sends a
+     *         final packet indicating success to the server and terminates</li>
+     *         <li>in the WINDOWED mode, this method also acknowledges the packets received every ACK_INTERVAL packets,
+     *         and replies to the server's COMPLETED packets with an acknowledgement instead of the missing packets</li>
+     *         <li>with more than one stream, this is done over that many connections at once, each receiving its own
+     *         stripe of the packets, by {@link #receiveStripes(MultiPacketDecoder, FileSegmentSink, int, int)}</li>
+     *         <li>over UDP, the message is received by {@link #receiveDatagrams()} instead</li>
+     *     </ul>
+     * </p>
+     * <p>
+     * The packets received are journaled periodically, and when the transfer fails, so that if the connection is lost,
+     * or either side crashes, the next call (on this or another client for the same output file) resumes the transfer:
+     * it lists the packets already received in its request, and the server only sends the rest. If the server's file
+     * turns out to have changed since, the packets received are discarded, and the transfer after that starts over.
+     * </p>
+     *
+     * @return <code>true</code> if the message was received, or <code>false</code> if a message wasn't received or an
+     * error occurred
+     */
+    public boolean receive() {
+        transferAborted = false;
+        clientSockets.clear();
+        packetsExpected = 0;
+        packetsReceived = 0;
+        packetsRequired = 0;
+        uniquePacketsReceived.set(0);
+        lastReportedProgress = -1;
+        finalStatus = "";
+        boolean received;
+        ProgressSampler progressSampler = new ProgressSampler(this::reportProgress, PROGRESS_SAMPLE_RATE);
+        try {
+            received = transport == Transport.UDP ? receiveDatagrams() : receiveMessage();
+        } finally {
+            progressSampler.close();
+        }
+        updateMessage(finalStatus);
+        boolean resumable = !discardPartialFile && currentTransfer != null && currentTransfer.getNumReceivedPackets() > 0;
+        try {
+            if (received) {
+                journal.delete();
+            } else if (resumable) {
+                // The output file was closed, so every packet written to it is on the storage device
+                saveJournal();
+                log(Level.INFO, "kept the " + currentTransfer.getNumReceivedPackets() + " packets received in '" + outputFile +
+                        "' - requesting the message again resumes the transfer");
+            } else if (discardPartialFile || !Files.exists(journal.getJournalFile())) {
+                journal.delete();
+                Files.deleteIfExists(outputFile);
+            }  // else, no packet was received, so the journal of the transfer that was interrupted still applies
+        } catch (IOException e) {
+            log(Level.WARN, "unable to update the journal at '" + journal.getJournalFile() + "' or delete the incomplete file at '" + outputFile + "'");
+        }
+        currentTransfer = null;
+        discardPartialFile = false;
+        return received;
+    }
+
+    /**
+     * Stop receiving the message. This may be called from any thread; {@link #receive()} returns <code>false</code> soon
+     * after, and the incomplete output file is kept so that the transfer can be resumed.
+     */
+    public void cancel() {
+        cancelled = true;
+        closeConnections();
+    }
+
+    /**
+     * Stop receiving the message over every connection, after one of them failed
+     */
+    private void abortConnections() {
+        transferAborted = true;
+        closeConnections();
+    }
+
+    private void closeConnections() {
+        for (Socket socket : clientSockets) {
+            try {
+                socket.close();  // unblocks a read waiting on the server
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * @return the number of packets the server sent during the transfer, including packets that were lost or 'dropped'.
+     * This and the other packet counts are only complete once {@link #receive()} returns.
+     */
+    public long getPacketsExpected() {
+        return packetsExpected;
+    }
+
+    /**
+     * @return the number of packets received, including duplicates
+     */
+    public long getPacketsReceived() {
+        return packetsReceived;
+    }
+
+    /**
+     * @return the number of packets that the message is made up of, less any that were already received by a transfer
+     * that this one resumed, or 0 if no packet was received
+     */
+    public long getPacketsRequired() {
+        return packetsRequired;
+    }
+
+    private boolean receiveMessage() {
+        // The segment size is fixed for the whole transfer, as the segments are written to the file based on it
+        boolean resuming = loadJournal(MultiPacketEncoder.MAX_MAX_MESSAGE_LENGTH);
+        int requestedSegmentSize = resuming ? journal.getSegmentSize() : MultiPacketEncoder.clampMaxMessageLength(segmentSize.getSegmentSize());
+        try (FileSegmentSink sink = new FileSegmentSink(outputFile, requestedSegmentSize, resuming)) {
+            MultiPacketDecoder allPacketsDecoder = startTransfer(sink, resuming);
+            int resumedPackets = allPacketsDecoder.getNumReceivedPackets();
+            boolean received = numStreams == 1 ? receiveStripe(0, allPacketsDecoder, sink, requestedSegmentSize, resumedPackets)
+                    : receiveStripes(allPacketsDecoder, sink, requestedSegmentSize, resumedPackets);
+            if (received) {
+                segmentSize.recordTransfer(packetsExpected, packetsReceived);
+                log(Level.INFO, "message received and written to '" + outputFile + "'");
+            }
+            return received;
+        } catch (IOException e) {
+            finalStatus = "Connection error";
+            log(Level.ERROR, "EXCEPTION: exception while writing to '" + outputFile + "'", e);
+            return false;
+        }
+    }
+
+    /**
+     * Receive the message over numStreams connections at once, each receiving one stripe of the packets with
+     * {@link #receiveStripe(int, MultiPacketDecoder, FileSegmentSink, int, int)}. If any connection fails, the others are
+     * closed, as the message can no longer be received in full.
+     *
+     * @return <code>true</code> if every stripe was received
+     */
+    private boolean receiveStripes(MultiPacketDecoder allPacketsDecoder, FileSegmentSink sink, int requestedSegmentSize,
+                                   int resumedPackets) {
+        ExecutorService connections = Executors.newFixedThreadPool(numStreams);
+        CompletionService<Boolean> stripes = new ExecutorCompletionService<>(connections);
+        for (int i = 0; i < numStreams; i++) {
+            int stripe = i;
+            stripes.submit(() -> receiveStripe(stripe, allPacketsDecoder, sink, requestedSegmentSize, resumedPackets));
+        }
+        connections.shutdown();
+        boolean received = true;
+        try {
+            for (int i = 0; i < numStreams; i++) {
+                boolean stripeReceived;
+                try {
+                    stripeReceived = stripes.take().get();
+                } catch (ExecutionException e) {
+                    finalStatus = "Connection error";
+                    log(Level.ERROR, "EXCEPTION: exception while receiving a stripe of the message", e);
+                    stripeReceived = false;
+                }
+                if (!stripeReceived && received) {
+                    received = false;
+                    abortConnections();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            abortConnections();
+            connections.shutdownNow();
+            return false;
+        }
+        return received;
+    }
+
+    /**
+     * Receive one stripe of the message over its own connection: the packets whose sequence number modulo numStreams is
+     * the stripe's index, or every packet if there is a single stream. The stripe's lost packets are recovered over its
+     * connection, independently of the other stripes. Its packets are added to the decoder shared by all stripes, while
+     * holding the decoder's lock; only reading and writing the connection is done without it.
+     *
+     * @param resumedPackets the number of packets that were already received by a transfer that this one resumed
+     * @return <code>true</code> if every packet of the stripe was received, and, if that completed the message, the
+     * message's digest matched the server's
+     */
+    private boolean receiveStripe(int stripe, MultiPacketDecoder allPacketsDecoder, FileSegmentSink sink,
+                                  int requestedSegmentSize, int resumedPackets) {
+        PacketEncoder packetEncoder = new PacketEncoder();
+        if (transferAborted) {
+            return false;  // another connection failed first, and reported why
+        } else if (cancelled) {
+            return reportCancelled(stripe);
+        }
+        try (
+                Socket clientSocket = new Socket(ip, portNumber);
+                OutputStream out = new BufferedOutputStream(clientSocket.getOutputStream());
+                InputStream in = new BufferedInputStream(clientSocket.getInputStream());
+        ) {
+            clientSockets.add(clientSocket);
+            // A connection added after the connections were closed is not closed with them, so it is closed here instead
+            if (transferAborted) {
+                return false;
+            } else if (cancelled) {
+                return reportCancelled(stripe);
+            }
+            updateMessage("Connected to server, requesting message");
+            log(Level.INFO, "server connected" + describeStripe(stripe));
+            // Acknowledgements are small packets that the server waits on, so they should not be delayed to be coalesced
+            clientSocket.setTcpNoDelay(true);
+
+            // Request a message to receive from the server
+            PacketEncoder requestPacket;
+            synchronized (allPacketsDecoder) {
+                requestPacket = getRequestPacket(requestedSegmentSize, allPacketsDecoder, stripe);
+            }
+            out.write(requestPacket.getPacketBytes());
+            out.flush();  // flush is required to ensure packet get sent
+
+            // Wait for the server's response with the message packets
+            // Each packet is read whole based on its indicated length, which allows us to receive and read packets that
+            // contain newline characters.
+            PacketFrameReader packetReader = new PacketFrameReader(in);
+            int packetsSinceAck = 0;
+            int highestSequenceNum = -1;
+            while (!isCancelled()) {
+                BinaryPacketDecoder binaryPacket = null;
+                PacketDecoder packet = null;
+                int sequenceNum;
+                boolean roundCompleted;  // the server marks the last packet of a round, or a packet that waits for an ack
+                if (wireFormat == WireFormat.BINARY) {
+                    binaryPacket = BinaryPacketDecoder.readPacket(in);
+                    if (binaryPacket == null) break;
+                    sequenceNum = binaryPacket.getSequenceNum();
+                    roundCompleted = binaryPacket.isCompleted();
+                } else {
+                    packet = packetReader.readPacket();
+                    if (packet == null) break;
+                    sequenceNum = getSequenceNum(packet);
+                    roundCompleted = "T".equals(packet.getArg(PacketArgKey.COMPLETED));
+                }
+
+                PacketEncoder reply = null;
+                boolean stripeReceived = false;
+                synchronized (allPacketsDecoder) {
+                    if (binaryPacket != null) {
+                        allPacketsDecoder.addPacket(binaryPacket);
+                        if (Logger.isEnabled(Level.TRACE)) {
+                            log(Level.TRACE, "RECEIVED: '" + binaryPacket + "'");
+                        }
+                    } else {
+                        allPacketsDecoder.addPacket(packet);
+                        if (Logger.isEnabled(Level.TRACE)) {
+                            log(Level.TRACE, "RECEIVED: packet " + sequenceNum + " (" + packet.getMessage().length + " bytes)");
+                        }
+                    }
+                    if (allPacketsDecoder.isMessageChanged()) {
+                        return reportMessageChanged();
+                    }
+                    if (packetsReceived++ == 0) {
+                        packetsExpected = allPacketsDecoder.getNumTotalPackets() - resumedPackets;
+                        packetsRequired = packetsExpected;
+                    }
+                    if (transferMode == TransferMode.WINDOWED && sequenceNum < highestSequenceNum) {
+                        // New packets are sent in order, so a packet below the highest received is a retransmission
+                        packetsExpected++;
+                    }
+                    highestSequenceNum = Math.max(highestSequenceNum, sequenceNum);
+                    packetsSinceAck++;
+
+                    uniquePacketsReceived.lazySet(allPacketsDecoder.getNumReceivedPackets() - resumedPackets);
+                    journalPeriodically(sink);
+
+                    // Continue to receive all the packets until the server is finished, or we received all the packets
+                    // of the stripe.
+                    if (allPacketsDecoder.receivedAllStripePackets(stripe)) {
+                        // The stripe that completes the message checks the message before reporting that it is complete
+                        if (allPacketsDecoder.receivedAllPackets() && !fileDigestChecked) {
+                            fileDigestChecked = true;
+                            if (!verifyFileDigest(allPacketsDecoder)) {
+                                return false;
+                            }
+                        }
+                        // Send packet indicating that receipt is complete and terminate
+                        reply = getCompletedReport();
+                        stripeReceived = true;
+                    } else if (transferMode == TransferMode.WINDOWED) {
+                        // Acknowledge the packets received periodically, and whenever the server waits for an acknowledgement
+                        if (roundCompleted || packetsSinceAck >= ACK_INTERVAL) {
+                            HashMap<PacketArgKey, String> regArgs = new HashMap<>();
+                            regArgs.put(PacketArgKey.ACK_NUM, String.valueOf(allPacketsDecoder.getCumulativeAckNumber(stripe)));
+                            SequenceRanges selectiveAcks = allPacketsDecoder.getSelectiveAckRanges(stripe);
+                            if (!selectiveAcks.isEmpty()) {
+                                regArgs.put(PacketArgKey.SELECTIVE_ACKS, selectiveAcks.toString());
+                            }
+                            packetEncoder.setArgs(regArgs, new HashMap<>(), true);
+                            packetsSinceAck = 0;
+                            reply = packetEncoder;
+                        }
+                    } else if (roundCompleted) {
+                        // Send a packet indicating the missing packets and wait for more packets
+                        reply = getMissingPacketsReport(allPacketsDecoder.getMissingPacketRanges(stripe, Integer.MAX_VALUE),
+                                allPacketsDecoder.getNumMissingPackets(stripe));
+                        packetsExpected += allPacketsDecoder.getNumMissingPackets(stripe);
+                    }
+                }
+                if (reply != null) {
+                    out.write(reply.getPacketBytes());
+                    out.flush();
+                    log(Level.DEBUG, "sent packet '" + reply.getPacketString() + "'");
+                }
+                if (stripeReceived) {
+                    return true;
+                }
+            }
+            if (isCancelled()) {
+                return reportCancelled(stripe);
+            } else if (!transferAborted) {
+                // If the input stream is closed that means we stopped receiving messages from the client
+                finalStatus = "Lost connection to the server - message not received";
+                log(Level.WARN, "lost connection to the server" + describeStripe(stripe) + " - message not received");
+            }
+            return false;
+        } catch (IOException e) {
+            if (cancelled) {
+                return reportCancelled(stripe);
+            }
+            if (transferAborted) {
+                return false;  // another connection failed first, and reported why
+            }
+            finalStatus = "Connection error";
+            log(Level.ERROR, "EXCEPTION: exception while listening on port " + portNumber + " or listening for a connection, or while writing to '" + outputFile + "'", e);
+            return false;
+        }
+    }
+
+    /**
+     * @return a description of the stripe received over a connection, to follow a log of the connection's events, or an
+     * empty string if the message is received over a single connection
+     */
+    private String describeStripe(int stripe) {
+        return numStreams > 1 ? " (connection " + (stripe + 1) + " of " + numStreams + ")" : "";
+    }
+
+    /**
+     * Receive the message over UDP, in the ROUNDS transfer mode. Each datagram holds a single packet, and packets may be
+     * lost or arrive out of order. This works like {@link #receiveMessage()}, except that the last packet of a round, or
+     * this client's own request or report, may be lost as well. So if no datagram arrives for DATAGRAM_TIMEOUT, the
+     * request is sent again if no packet has arrived yet, and otherwise the packets still missing are reported again.
+     */
+    private boolean receiveDatagrams() {
+        // The segment size is fixed for the whole transfer, as the segments are written to the file based on it
+        boolean resuming = loadJournal(MultiPacketEncoder.clampDatagramMessageLength(MultiPacketEncoder.MAX_MAX_MESSAGE_LENGTH));
+        int requestedSegmentSize = resuming ? journal.getSegmentSize() : MultiPacketEncoder.clampDatagramMessageLength(segmentSize.getSegmentSize());
+        try (
+                FileSegmentSink sink = new FileSegmentSink(outputFile, requestedSegmentSize, resuming);
+                DatagramChannel channel = DatagramChannel.open();
+                Selector selector = Selector.open();
+        ) {
+            MultiPacketDecoder allPacketsDecoder = startTransfer(sink, resuming);
+            int resumedPackets = allPacketsDecoder.getNumReceivedPackets();
+            channel.setOption(StandardSocketOptions.SO_RCVBUF, SOCKET_RECEIVE_BUFFER_SIZE);
+            channel.connect(new InetSocketAddress(ip, portNumber));
+            channel.configureBlocking(false);
+            channel.register(selector, SelectionKey.OP_READ);
+            ByteBuffer datagram = ByteBuffer.allocate(MAX_DATAGRAM_SIZE);
+            updateMessage("Requesting message from server");
+            log(Level.INFO, "requesting message from " + ip + ":" + portNumber + " over UDP");
+
+            PacketEncoder requestPacket = getRequestPacket(requestedSegmentSize, allPacketsDecoder, 0);
+            sendDatagram(channel, requestPacket);
+            int numTimeouts = 0;
+            while (!isCancelled()) {
+                if (selector.select(DATAGRAM_TIMEOUT) == 0) {
+                    if (++numTimeouts > MAX_DATAGRAM_TIMEOUTS) {
+                        break;
+                    }
+                    if (packetsReceived == 0) {
+                        sendDatagram(channel, requestPacket);
+                    } else if (!isCancelled()) {
+                        sendMissingPacketsReport(channel, allPacketsDecoder);
+                    }
+                    continue;
+                }
+                selector.selectedKeys().clear();
+                numTimeouts = 0;
+
+                // Receive every datagram that is waiting
+                datagram.clear();
+                while (channel.read(datagram) > 0) {
+                    datagram.flip();
+                    boolean roundCompleted;
+                    int sequenceNum;
+                    try {
+                        if (wireFormat == WireFormat.BINARY) {
+                            BinaryPacketDecoder packet = BinaryPacketDecoder.readPacket(
+                                    new ByteArrayInputStream(datagram.array(), 0, datagram.limit()));
+                            allPacketsDecoder.addPacket(packet);
+                            sequenceNum = packet.getSequenceNum();
+                            roundCompleted = packet.isCompleted();
+                        } else {
+                            PacketDecoder packet = new PacketDecoder(datagram.array(), 0, datagram.limit());
+                            if (!packet.isComplete() || !packet.containsArg(PacketArgKey.SEQUENCE_NUM)) {
+                                throw new IOException("incomplete packet");
+                            }
+                            allPacketsDecoder.addPacket(packet);
+                            sequenceNum = getSequenceNum(packet);
+                            roundCompleted = "T".equals(packet.getArg(PacketArgKey.COMPLETED));
+                        }
+                    } catch (IOException | IllegalArgumentException e) {
+                        log(Level.WARN, "malformed datagram - ignoring it: " + e.getMessage());
+                        datagram.clear();
+                        continue;
+                    }
+                    datagram.clear();
+                    if (Logger.isEnabled(Level.TRACE)) {
+                        log(Level.TRACE, "RECEIVED: packet " + sequenceNum);
+                    }
+                    if (allPacketsDecoder.isMessageChanged()) {
+                        return reportMessageChanged();
+                    }
+                    if (packetsReceived++ == 0) {
+                        packetsExpected = allPacketsDecoder.getNumTotalPackets() - resumedPackets;
+                        packetsRequired = packetsExpected;
+                    }
+                    uniquePacketsReceived.lazySet(allPacketsDecoder.getNumReceivedPackets() - resumedPackets);
+                    journalPeriodically(sink);
+
+                    if (allPacketsDecoder.receivedAllPackets()) {
+                        if (!verifyFileDigest(allPacketsDecoder)) {
+                            return false;
+                        }
+                        PacketEncoder completedPacket = getCompletedReport();
+                        for (int i = 0; i < COMPLETED_REPORT_COPIES; i++) {
+                            sendDatagram(channel, completedPacket);
+                        }
+                        segmentSize.recordTransfer(packetsExpected, packetsReceived);
+                        log(Level.INFO, "message received and written to '" + outputFile + "'");
+                        return true;
+                    } else if (roundCompleted) {
+                        sendMissingPacketsReport(channel, allPacketsDecoder);
+                    }
+                }
+            }
+            if (isCancelled()) {
+                finalStatus = "Transfer cancelled - message not received";
+                log(Level.INFO, "transfer cancelled - message not received");
+            } else {
+                finalStatus = "Lost connection to the server - message not received";
+                log(Level.WARN, "no datagrams from the server for " + MAX_DATAGRAM_TIMEOUTS * DATAGRAM_TIMEOUT + " ms - message not received");
+            }
+            return false;
+        } catch (IOException e) {
+            finalStatus = "Connection error";
+            log(Level.ERROR, "EXCEPTION: exception while receiving datagrams from port " + portNumber + ", or while writing to '" + outputFile + "'", e);
+            return false;
+        }
+    }
+
+    /**
+     * @return the sequence number of the given packet, or -1 if its sequence number is missing or was corrupted - the
+     * decoder discards such a packet as corrupt, so it is requested again like any other corrupted packet
+     */
+    private static int getSequenceNum(PacketDecoder packet) {
+        try {
+            return Integer.parseInt(packet.getArg(PacketArgKey.SEQUENCE_NUM));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Check that the digest of the message received matches the digest the server sent with the message. The packets
+     * that were corrupted were already discarded and received again, so a mismatch means that the file was corrupted in a
+     * way that the packets' checksums did not catch, or that the server's file changed during the transfer.
+     *
+     * @return <code>true</code> if the digest matches
+     */
+    private boolean verifyFileDigest(MultiPacketDecoder allPacketsDecoder) {
+        if (allPacketsDecoder.getNumCorruptPackets() > 0) {
+            log(Level.INFO, "discarded " + allPacketsDecoder.getNumCorruptPackets() + " corrupted packets");
+        }
+        log(Level.DEBUG, "read back " + allPacketsDecoder.getNumPacketsReadForDigest() + " of " +
+                allPacketsDecoder.getNumTotalPackets() + " packets from '" + outputFile + "' to digest them");
+        if (allPacketsDecoder.getExpectedFileDigest() == null) {
+            log(Level.WARN, "the server did not send a digest of the file - the file received could not be verified");
+        }
+        if (allPacketsDecoder.fileDigestMatches()) {
+            return true;
+        }
+        discardPartialFile = true;
+        finalStatus = "The file received does not match the server's file - message not received";
+        log(Level.ERROR, "the digest of the file received does not match the server's - message not received");
+        return false;
+    }
+
+    /**
+     * Load the journal of an earlier transfer to the output file that was interrupted, so that this transfer resumes it.
+     * A journal that cannot be resumed from is deleted, so this transfer starts over.
+     *
+     * @param maxSegmentSize the largest segment size that the transport supports
+     * @return <code>true</code> if the transfer is resumed, in which case the journal's segment size must be requested
+     */
+    private boolean loadJournal(int maxSegmentSize) {
+        if (!Files.exists(journal.getJournalFile())) {
+            return false;
+        }
+        if (journal.load() && journal.getSegmentSize() <= maxSegmentSize) {
+            return true;
+        }
+        log(Level.WARN, "unable to resume from the journal at '" + journal.getJournalFile() + "' - receiving the full message");
+        try {
+            journal.delete();
+        } catch (IOException e) {
+            log(Level.WARN, "unable to delete the journal at '" + journal.getJournalFile() + "'");
+        }
+        return false;
+    }
+
+    /**
+     * @param resuming whether to resume the transfer recorded in the journal, whose packets are already in the sink's
+     *                 file
+     * @return the decoder to add the packets received to, which is journaled if the transfer fails
+     */
+    private MultiPacketDecoder startTransfer(FileSegmentSink sink, boolean resuming) {
+        MultiPacketDecoder allPacketsDecoder = new MultiPacketDecoder(sink, codec, numStreams);
+        if (resuming) {
+            BitSet receivedPackets = journal.getReceivedPackets();
+            // The last packet carries the digest of the message, which shows whether the server's file is still the one
+            // that the packets already received are from, so it is always received again
+            receivedPackets.clear(journal.getTotalPackets() - 1);
+            allPacketsDecoder.resume(journal.getTotalPackets(), receivedPackets, journal.getFileDigest());
+            log(Level.INFO, "resuming the transfer to '" + outputFile + "' - " + allPacketsDecoder.getNumReceivedPackets() +
+                    " of " + journal.getTotalPackets() + " packets were already received");
+        }
+        currentTransfer = allPacketsDecoder;
+        currentSegmentSize = sink.getSegmentSize();
+        fileDigestChecked = false;
+        lastJournalSave = System.nanoTime();
+        return allPacketsDecoder;
+    }
+
+    /**
+     * Journal the packets received so far if JOURNAL_INTERVAL has passed since they were last journaled, so that the
+     * transfer can be resumed even if this client crashes
+     */
+    private void journalPeriodically(FileSegmentSink sink) throws IOException {
+        long now = System.nanoTime();
+        if (now - lastJournalSave >= JOURNAL_INTERVAL) {
+            lastJournalSave = now;
+            sink.force();  // the journal must not list packets that are not on the storage device
+            saveJournal();
+        }
+    }
+
+    /**
+     * Save the packets of the current transfer received so far to the journal. They must already be on the storage device.
+     */
+    private void saveJournal() throws IOException {
+        if (currentTransfer.getNumReceivedPackets() > 0) {
+            journal.save(currentSegmentSize, currentTransfer.getNumTotalPackets(), currentTransfer.getExpectedFileDigest(),
+                    currentTransfer.getReceivedPackets());
+        }
+    }
+
+    /**
+     * Fail a stripe of a transfer that was cancelled
+     *
+     * @return <code>false</code>
+     */
+    private boolean reportCancelled(int stripe) {
+        finalStatus = "Transfer cancelled - message not received";
+        log(Level.INFO, "transfer cancelled" + describeStripe(stripe) + " - message not received");
+        return false;
+    }
+
+    /**
+     * Fail a resumed transfer whose packets turned out to be from a different file than the server's, so that the
+     * packets received are discarded and the next transfer starts over
+     *
+     * @return <code>false</code>
+     */
+    private boolean reportMessageChanged() {
+        discardPartialFile = true;
+        finalStatus = "The server's file changed since the transfer was interrupted - message not received";
+        log(Level.ERROR, "the server's file does not match the packets received before the transfer was interrupted - " +
+                "discarding them, so that the next transfer starts over");
+        return false;
+    }
+
+    /**
+     * Report the packets still missing to the server over UDP. At most MAX_MISSING_PER_REPORT of the missing packets are
+     * listed, so that the report fits in a single datagram; the rest are listed in later reports.
+     * <p>
+     * The server sends each round in order of the sequence numbers, and may end a round before its last packet, so only
+     * the missing packets below the highest packet received count as sent; the rest are sent for the first time.
+     */
+    private void sendMissingPacketsReport(DatagramChannel channel, MultiPacketDecoder allPacketsDecoder) throws IOException {
+        SequenceRanges missingPackets = allPacketsDecoder.getMissingPacketRanges(MAX_MISSING_PER_REPORT);
+        packetsExpected += Math.min(missingPackets.size(), allPacketsDecoder.getNumMissingPacketsBelowHighestReceived());
+        sendDatagram(channel, getMissingPacketsReport(missingPackets, allPacketsDecoder.getNumMissingPackets()));
+    }
+
+    private void sendDatagram(DatagramChannel channel, PacketEncoder packet) throws IOException {
+        channel.write(ByteBuffer.wrap(packet.getPacketBytes()));
+        log(Level.DEBUG, "sent packet '" + packet.getPacketString() + "'");
+    }
+
+    /**
+     * @param allPacketsDecoder the decoder of the transfer. If it resumes an earlier transfer, the packets it already
+     *                          received are listed in the request, along with the total number of packets and the
+     *                          message's digest if known, so that the server only sends the rest.
+     * @param stripe            the stripe of the packets to request, if the message is received over several connections
+     * @return the initial packet requesting the message from the server
+     */
+    private PacketEncoder getRequestPacket(int requestedSegmentSize, MultiPacketDecoder allPacketsDecoder, int stripe) {
+        HashMap<PacketArgKey, String> reqArgs = new HashMap<>();
+        reqArgs.put(PacketArgKey.REQUEST_TYPE, "MESSAGE");
+        if (wireFormat != WireFormat.TEXT) {  // the server defaults to TEXT, so only request other formats
+            reqArgs.put(PacketArgKey.WIRE_FORMAT, wireFormat.name());
+        }
+        if (codec != Codec.NONE) {  // the server defaults to NONE, so only request other codecs
+            reqArgs.put(PacketArgKey.CODEC, codec.name());
+        }
+        if (transferMode != TransferMode.ROUNDS) {  // the server defaults to ROUNDS, so only request other modes
+            reqArgs.put(PacketArgKey.TRANSFER_MODE, transferMode.name());
+        }
+        reqArgs.put(PacketArgKey.SEGMENT_SIZE, String.valueOf(requestedSegmentSize));
+        if (numStreams > 1) {
+            reqArgs.put(PacketArgKey.STRIPE_INDEX, String.valueOf(stripe));
+            reqArgs.put(PacketArgKey.STRIPE_COUNT, String.valueOf(numStreams));
+        }
+        if (allPacketsDecoder.getNumReceivedPackets() > 0) {
+            SequenceRanges receivedPackets = allPacketsDecoder.getReceivedPacketRanges(allPacketsDecoder.getNumTotalPackets());
+            if (transport == Transport.UDP && receivedPackets.toString().length() > MAX_RESUME_ARG_LENGTH) {
+                // Only the packets below the first missing packet are listed, as a single range, so that the request
+                // fits in a datagram. The server resends the rest, which are ignored.
+                receivedPackets = allPacketsDecoder.getReceivedPacketRanges(allPacketsDecoder.getCumulativeAckNumber());
+            }
+            if (!receivedPackets.isEmpty()) {
+                reqArgs.put(PacketArgKey.RECEIVED_PACKET_NUMS, receivedPackets.toString());
+                reqArgs.put(PacketArgKey.TOTAL_PACKETS, String.valueOf(allPacketsDecoder.getNumTotalPackets()));
+                if (allPacketsDecoder.getExpectedFileDigest() != null) {
+                    reqArgs.put(PacketArgKey.FILE_DIGEST, PacketChecksums.digestToString(allPacketsDecoder.getExpectedFileDigest()));
+                }
+            }
+        }
+        return new PacketEncoder(reqArgs, new HashMap<>());
+    }
+
+    /**
+     * @param missingPackets the missing packets to list. The missing packets are encoded as ranges or a bitmap, which
+     *                       keeps the packet small even when many are missing.
+     * @param totalMissing   the total number of packets missing, which may be more than the number listed
+     * @return a packet reporting the packets that are missing to the server
+     */
+    private PacketEncoder getMissingPacketsReport(SequenceRanges missingPackets, int totalMissing) {
+        HashMap<PacketArgKey, String> regArgs = new HashMap<>();
+        regArgs.put(PacketArgKey.COMPLETED, "F");
+        regArgs.put(PacketArgKey.TOTAL_PACKETS_MISSING, String.valueOf(totalMissing));
+        regArgs.put(PacketArgKey.MISSING_PACKET_NUMS, missingPackets.toString());
+        return new PacketEncoder(regArgs);
+    }
+
+    /**
+     * @return a packet indicating to the server that the full message was received
+     */
+    private PacketEncoder getCompletedReport() {
+        HashMap<PacketArgKey, String> regArgs = new HashMap<>();
+        regArgs.put(PacketArgKey.COMPLETED, "T");
+        return new PacketEncoder(regArgs);
+    }
+
+    /**
+     * Report the progress of the transfer to the listener if it changed since it was last reported. This is run by the
+     * {@link ProgressSampler}, so that receiving a packet only updates a counter.
+     */
+    private void reportProgress() {
+        long received = uniquePacketsReceived.get();
+        long total = packetsRequired;
+        if (total == 0 || received == lastReportedProgress) {
+            return;
+        }
+        lastReportedProgress = received;
+        updateMessage("Receiving message: " + String.format("%,.2f", received * 100f / total) + "% complete...");
+        updateProgress(received, total);
+    }
+
+    private void updateMessage(String message) {
+        listener.onStatus(message);
+    }
+
+    private void updateProgress(long workDone, long max) {
+        listener.onProgress(workDone, max);
+    }
+
+    private void log(Level level, String message) {
+        if (Logger.isEnabled(level)) {
+            Logger.log(level, "CLIENT - " + message);
+        }
+    }
+
+    private void log(Level level, String message, Exception e) {
+        if (Logger.isEnabled(level)) {
+            Logger.log(level, "CLIENT - " + message, e);
+        }
+    }
+}
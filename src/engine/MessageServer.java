@@ -0,0 +1,287 @@
+package src.engine;
+
+import src.InternetProtocolHandling.FileSegmentSource;
+import src.InternetProtocolHandling.MultiPacketEncoder;
+import src.engine.Logger.Level;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+
+/**
+ * This class is responsible for sending a full message to any number of Clients. The server keeps listening for clients
+ * until it is cancelled, and serves each client that connects in its own {@link SenderSession}. The sessions run
+ * concurrently on a bounded pool of threads; clients that connect while all threads are busy are served once a thread
+ * becomes available. Alternatively, if the server is constructed to use event loops, the clients are served by a
+ * {@link SelectorServer}, which multiplexes any number of clients on a few threads. If the server is constructed to serve datagrams, clients can also
+ * receive the message over UDP from a {@link DatagramServer} on the same port number.
+ * <p>
+ * This class does not depend on any UI toolkit; the status and progress of the server are reported to a
+ * {@link TransferListener}.
+ */
+public class MessageServer {
+    public static final float DEFAULT_PACKET_DROP_PROBABILITY = 0.2f;
+    private final int MAX_CONCURRENT_SESSIONS = 16;
+    private final int ACCEPT_POLL_INTERVAL = 500;  // ms to wait for a connection before checking if the task was cancelled
+    private final int MAX_SHARED_ENCODERS = 4;  // the number of segment sizes whose encoded packets are kept for reuse
+    private final int NUM_EVENT_LOOPS = 2;
+    private final int PROGRESS_SAMPLE_RATE = 15;  // the times per second that the progress is reported to the listener
+    private final int portNumber;
+    private final Path fileToSend;
+    private final float packetDropProbability;
+    private final boolean serveDatagrams;
+    private final boolean useEventLoops;
+    private final TransferStatistics statistics = new TransferStatistics();
+    private final Set<Socket> activeSockets = ConcurrentHashMap.newKeySet();
+    private final TransferListener listener;
+    private volatile boolean cancelled = false;
+
+    /**
+     * Construct a server that 'drops' packets sent over TCP with the DEFAULT_PACKET_DROP_PROBABILITY
+     *
+     * @see #MessageServer(Path, int, float, boolean, boolean, TransferListener)
+     */
+    public MessageServer(Path fileToSend, int portNumber, TransferListener listener) {
+        this(fileToSend, portNumber, DEFAULT_PACKET_DROP_PROBABILITY, listener);
+    }
+
+    /**
+     * Construct a server that only serves clients over TCP
+     *
+     * @see #MessageServer(Path, int, float, boolean, boolean, TransferListener)
+     */
+    public MessageServer(Path fileToSend, int portNumber, float packetDropProbability, TransferListener listener) {
+        this(fileToSend, portNumber, packetDropProbability, false, listener);
+    }
+
+    /**
+     * Construct a server that serves each TCP client on a thread of its own
+     *
+     * @see #MessageServer(Path, int, float, boolean, boolean, TransferListener)
+     */
+    public MessageServer(Path fileToSend, int portNumber, float packetDropProbability, boolean serveDatagrams,
+                         TransferListener listener) {
+        this(fileToSend, portNumber, packetDropProbability, serveDatagrams, false, listener);
+    }
+
+    /**
+     * @param fileToSend            the file to send to clients. The file is read as packets are sent, so it should not be
+     *                              modified while this server is running.
+     * @param packetDropProbability the probability that each packet sent over TCP is 'dropped' to simulate an unreliable
+     *                              network, or 0 to send every packet, which also lets the packets' messages be sent with
+     *                              zero-copy. Packets sent over UDP are never dropped on purpose, as they are really lost.
+     * @param serveDatagrams        whether to also serve clients that request the message over UDP. UDP is opt-in, as
+     *                              the address a request comes from cannot be verified.
+     * @param useEventLoops         whether to serve the TCP clients from NUM_EVENT_LOOPS threads, rather than a thread for
+     *                              each client, up to MAX_CONCURRENT_SESSIONS at once
+     * @param listener              receives the status of the server, and the aggregate progress of its sessions
+     */
+    public MessageServer(Path fileToSend, int portNumber, float packetDropProbability, boolean serveDatagrams,
+                         boolean useEventLoops, TransferListener listener) {
+        if (packetDropProbability < 0 || packetDropProbability >= 1) {
+            throw new IllegalArgumentException("The packet drop probability must be from 0 up to but not including 1: " +
+                    packetDropProbability);
+        }
+        this.fileToSend = fileToSend;
+        this.portNumber = portNumber;
+        this.packetDropProbability = packetDropProbability;
+        this.serveDatagrams = serveDatagrams;
+        this.useEventLoops = useEventLoops;
+        this.listener = listener;
+    }
+
+    /**
+     * Listen for clients and send the message to each client that connects. This blocks until {@link #cancel()} is
+     * called.
+     * <p>
+     * This method does the following:
+     *      <ul>
+     *          <li>creates a socket and waits for clients to connect</li>
+     *          <li>upon each client connection, starts a session that sends the message to that client</li>
+     *          <li>while listening, reports the aggregate progress and throughput of all sessions</li>
+     *          <li>when the server is cancelled, stops listening and closes the connections of any sessions still running</li>
+     *      </ul>
+     * </p>
+     *
+     * @return <code>true</code> if the message was successfully sent to at least one client, <code>false</code> if it was not
+     */
+    public boolean serve() {
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService sessionPool = Executors.newFixedThreadPool(MAX_CONCURRENT_SESSIONS, runnable -> {
+            Thread thread = new Thread(runnable, "SERVER-SessionThread-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        updateMessage("Waiting for clients to connect...");
+        log(Level.INFO, "waiting for clients to connect...");
+        DatagramServer datagramServer = null;
+        try (FileSegmentSource source = new FileSegmentSource(fileToSend)) {
+            // The digest of the file is sent with its last packet. It is computed up front, so that the first transfer
+            // does not stall partway through to read the whole file.
+            source.getFileDigest();
+            // The file is shared by all sessions, which each read the packets for their segment size from it on demand.
+            // The encoders of the most recently requested segment sizes are shared as well, so that a packet encoded for
+            // one client is sent to the next without being read or encoded again.
+            Map<Integer, MultiPacketEncoder> sharedEncoders = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Integer, MultiPacketEncoder> eldest) {
+                    return size() > MAX_SHARED_ENCODERS;
+                }
+            });
+            IntFunction<MultiPacketEncoder> packetsBySegmentSize = segmentSize ->
+                    sharedEncoders.computeIfAbsent(segmentSize, size -> new MultiPacketEncoder(source, size));
+            if (serveDatagrams) {
+                datagramServer = new DatagramServer(portNumber, packetsBySegmentSize, statistics);
+                datagramServer.start();
+            }
+            // The sessions only update the statistics, which are sampled to report the progress
+            ProgressSampler progressSampler = new ProgressSampler(this::updateMessageAndProgress, PROGRESS_SAMPLE_RATE);
+            try {
+                if (useEventLoops) {
+                    serveWithEventLoops(packetsBySegmentSize);
+                } else {
+                    serveWithSessionPool(packetsBySegmentSize, sessionPool);
+                }
+            } finally {
+                progressSampler.close();
+            }
+            updateMessage("Server cancelled - stopped sending to clients");
+            log(Level.INFO, "server cancelled - stopped sending to clients");
+        } catch (IOException | SecurityException | IllegalArgumentException e) {
+            updateMessage("Connection error");
+            log(Level.ERROR, "EXCEPTION: exception while listening on port " + portNumber + " or listening for a connection", e);
+        } finally {
+            // Stop any sessions that are still running. Closing their sockets unblocks sessions waiting on the client.
+            if (datagramServer != null) {
+                datagramServer.close();
+            }
+            sessionPool.shutdownNow();
+            for (Socket socket : activeSockets) {
+                try {
+                    socket.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+        log(Level.INFO, "sessions completed: " + statistics.getCompletedSessions() + "\nsessions failed: " + statistics.getFailedSessions() +
+                "\ntotal packets sent: " + statistics.getPacketsSent() + "\npackets 'dropped': " + statistics.getPacketsDropped() +
+                "\naverage throughput: " + String.format("%,.1f", statistics.getThroughput() / 1024) + " KB/s" +
+                "\nsocket writes per MB: " + String.format("%,.1f", statistics.getSocketWritesPerMegabyte()));
+        return statistics.getCompletedSessions() > 0;
+    }
+
+    /**
+     * Stop listening for clients and end the sessions still running. This may be called from any thread;
+     * {@link #serve()} returns shortly after.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * @return the statistics of all the sessions served so far, which are updated while the server runs
+     */
+    public TransferStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Accept clients until the server is cancelled, serving each client in a {@link SenderSession} on the session pool
+     */
+    private void serveWithSessionPool(IntFunction<MultiPacketEncoder> packetsBySegmentSize, ExecutorService sessionPool) throws IOException {
+        int sessionCount = 0;
+        // Clients are accepted through a channel, so that each client's socket has a channel that the packets' messages can
+        // be transferred to directly from the file
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            serverChannel.bind(new InetSocketAddress(portNumber));
+            ServerSocket serverSocket = serverChannel.socket();
+            serverSocket.setSoTimeout(ACCEPT_POLL_INTERVAL);
+            while (!isCancelled()) {
+                try {
+                    Socket clientSocket = serverSocket.accept();
+                    sessionCount++;
+                    log(Level.INFO, "client connected - starting session " + sessionCount);
+                    activeSockets.add(clientSocket);
+                    SenderSession session = new SenderSession(sessionCount, clientSocket, packetsBySegmentSize, statistics, packetDropProbability);
+                    // The session logs its own failures and counts them in the statistics; its result is not needed here
+                    sessionPool.execute(() -> {
+                        try {
+                            session.call();
+                        } finally {
+                            activeSockets.remove(clientSocket);
+                        }
+                    });
+                } catch (SocketTimeoutException e) {
+                    // no client connected during this interval, check if the server was cancelled and keep listening
+                }
+            }
+        }
+    }
+
+    /**
+     * Serve clients from a {@link SelectorServer} until the server is cancelled. The server's event loops do all the work,
+     * so this thread only waits.
+     */
+    private void serveWithEventLoops(IntFunction<MultiPacketEncoder> packetsBySegmentSize) throws IOException {
+        try (SelectorServer server = new SelectorServer(portNumber, NUM_EVENT_LOOPS, packetsBySegmentSize, statistics, packetDropProbability)) {
+            server.start();
+            while (!isCancelled()) {
+                try {
+                    Thread.sleep(ACCEPT_POLL_INTERVAL);
+                } catch (InterruptedException e) {
+                    break;  // the server was cancelled
+                }
+            }
+        }
+    }
+
+    /**
+     * Report the aggregate progress of all sessions along with the throughput sustained by the server. This is run by the
+     * {@link ProgressSampler}, and does nothing until the first client connects.
+     */
+    private void updateMessageAndProgress() {
+        if (statistics.getActiveSessions() + statistics.getCompletedSessions() + statistics.getFailedSessions() == 0) {
+            return;
+        }
+        long packetsSent = statistics.getPacketsSent();
+        updateProgress(statistics.getPacketsConfirmed(), Math.max(statistics.getPacketsRequired(), 1));
+        updateMessage("Clients: " + statistics.getActiveSessions() + " active - " + statistics.getCompletedSessions() +
+                " completed\nPackets sent: " + packetsSent + " - Packet retransmissions: " +
+                String.format("%.0f", packetsSent == 0 ? 0 : ((packetsSent - statistics.getPacketsConfirmed()) * 100) / (float) packetsSent) +
+                "%\nThroughput: " + String.format("%,.1f", statistics.getThroughput() / 1024) + " KB/s");
+    }
+
+    private void updateMessage(String message) {
+        listener.onStatus(message);
+    }
+
+    private void updateProgress(long workDone, long max) {
+        listener.onProgress(workDone, max);
+    }
+
+    private void log(Level level, String message) {
+        if (Logger.isEnabled(level)) {
+            Logger.log(level, "SERVER - " + message);
+        }
+    }
+
+    private void log(Level level, String message, Exception e) {
+        if (Logger.isEnabled(level)) {
+            Logger.log(level, "SERVER - " + message, e);
+        }
+    }
+}
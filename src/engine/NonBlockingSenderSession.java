@@ -0,0 +1,375 @@
+package src.engine;
+
+import src.InternetProtocolHandling.EncodedPacket;
+import src.InternetProtocolHandling.MultiPacketEncoder;
+import src.InternetProtocolHandling.PacketDecoder;
+import src.InternetProtocolHandling.enums.Codec;
+import src.InternetProtocolHandling.enums.PacketArgKey;
+import src.InternetProtocolHandling.enums.TransferMode;
+import src.InternetProtocolHandling.enums.WireFormat;
+import src.engine.Logger.Level;
+import src.engine.congestion.CongestionController;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.function.IntFunction;
+
+/**
+ * This class sends a full message to a single client over a non-blocking channel. It follows the same protocol as
+ * {@link SenderSession}, but instead of blocking a thread on the client's socket, it is driven by a
+ * {@link SelectorServer} event loop, which calls {@link #onReadable()} and {@link #onWritable()} as the channel becomes
+ * ready. Between those calls, the session's progress is kept in its state:
+ * <ul>
+ *     <li>AWAITING_REQUEST - waiting for the client's request for the message</li>
+ *     <li>SENDING_ROUND - sending a round of packets in the ROUNDS transfer mode. Once the last packet of the round is
+ *     written, the session moves to AWAITING_REPORT.</li>
+ *     <li>AWAITING_REPORT - waiting for the client's report of the packets it is missing, after which the session sends
+ *     another round, or ends if the client received the full message</li>
+ *     <li>WINDOWED - sending packets in the WINDOWED transfer mode, as the window allows, while processing the client's
+ *     acknowledgements as they arrive</li>
+ *     <li>ENDED - the session ended, either because the client received the full message or because of an error</li>
+ * </ul>
+ * Packets are written to a send buffer, which is written to the channel when it is full or when there are no more
+ * packets to send for now, so many packets are sent in a single write. A session is only ever called by the thread of
+ * the event loop that its channel is registered with, so it needs no synchronization.
+ * <p>
+ * A client that goes silent would otherwise hold its session and buffers indefinitely, so the event loop ends a session
+ * once no bytes have been read from or written to its client in CLIENT_TIMEOUT, with {@link #endIfIdle(long)}.
+ */
+class NonBlockingSenderSession {
+    private enum State {AWAITING_REQUEST, SENDING_ROUND, AWAITING_REPORT, WINDOWED, ENDED}
+
+    private final int MAX_WINDOW_SIZE = 64;  // the max packets in flight in the WINDOWED transfer mode
+    private final int RECEIVE_BUFFER_SIZE = 8 * 1024;
+    private final int SEND_BUFFER_SIZE = 16 * 1024;
+    private final int CLIENT_TIMEOUT = 30_000;  // the max ms without any bytes to or from the client before ending the session
+    private final int sessionId;
+    private final SocketChannel channel;
+    private final SelectionKey key;
+    private final IntFunction<MultiPacketEncoder> packetsBySegmentSize;
+    private final TransferStatistics statistics;
+    private final float packetDropProbability;
+    private final IntFunction<CongestionController> congestionControllers;
+    private final ByteBuffer receiveBuffer = ByteBuffer.allocate(RECEIVE_BUFFER_SIZE);
+    private final ByteBuffer sendBuffer = ByteBuffer.allocate(SEND_BUFFER_SIZE);
+    private State state = State.AWAITING_REQUEST;
+    private PacketDecoder partialPacket;  // the packet currently being received
+    private MultiPacketEncoder messageEncoder;
+    private WireFormat wireFormat = WireFormat.TEXT;
+    private Codec codec = Codec.NONE;
+    private SendWindow window;
+    private int[] packetNumsToSend;  // the packets of the current round, in the ROUNDS transfer mode
+    private int roundIndex = 0;  // the index of the next packet of the round to send
+    private EncodedPacket currentPacket;  // the packet being written to the send buffer
+    private int currentPacketOffset = 0;
+    private boolean currentPacketCompleted = false;
+    private int packetsOutstanding = 0;  // packets the client has not yet confirmed receiving
+    private int packetsSent = 0;
+    private int droppedPackets = 0;
+    private long lastActivityTime = System.nanoTime();  // when bytes were last read from or written to the client
+
+    /**
+     * Construct a session for a newly connected client. The statistics are updated to count the session as started.
+     *
+     * @param sessionId             an id for this session, used for logging
+     * @param channel               the non-blocking channel connected to the client
+     * @param key                   the key of the channel's registration with an event loop's selector
+     * @param packetsBySegmentSize  provides the packets of the message to send, broken up with the given segment size
+     * @param statistics            the statistics to update as packets are sent
+     * @param packetDropProbability the probability that each packet is 'dropped' to simulate an unreliable network, or 0
+     *                              to send every packet
+     * @param congestionControllers provides the congestion controller for a transfer in the WINDOWED mode, given the max
+     *                              window size
+     */
+    NonBlockingSenderSession(int sessionId, SocketChannel channel, SelectionKey key,
+                             IntFunction<MultiPacketEncoder> packetsBySegmentSize, TransferStatistics statistics,
+                             float packetDropProbability, IntFunction<CongestionController> congestionControllers) {
+        this.sessionId = sessionId;
+        this.channel = channel;
+        this.key = key;
+        this.packetsBySegmentSize = packetsBySegmentSize;
+        this.statistics = statistics;
+        this.packetDropProbability = packetDropProbability;
+        this.congestionControllers = congestionControllers;
+        statistics.sessionStarted();
+    }
+
+    /**
+     * Read the bytes available from the client and process each packet that they complete. If the client closed the
+     * connection or sent an invalid packet, the session ends.
+     */
+    void onReadable() {
+        try {
+            int numRead = channel.read(receiveBuffer);
+            if (numRead == -1) {
+                throw new EOFException("Stream ended");
+            } else if (numRead > 0) {
+                lastActivityTime = System.nanoTime();
+            }
+            receiveBuffer.flip();
+            while (receiveBuffer.hasRemaining() && state != State.ENDED) {
+                if (partialPacket == null) {
+                    partialPacket = new PacketDecoder();
+                }
+                int numAdded = partialPacket.appendToPacket(receiveBuffer.array(), receiveBuffer.position(), receiveBuffer.remaining());
+                receiveBuffer.position(receiveBuffer.position() + numAdded);
+                if (partialPacket.isComplete()) {
+                    PacketDecoder packet = partialPacket;
+                    partialPacket = null;
+                    processPacket(packet);
+                }
+            }
+            receiveBuffer.clear();
+            sendPackets();
+        } catch (IOException | RuntimeException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Continue sending packets once the channel can accept more bytes
+     */
+    void onWritable() {
+        try {
+            sendPackets();
+        } catch (IOException | RuntimeException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * End the session if no bytes were read from or written to the client in CLIENT_TIMEOUT. This is called
+     * periodically by the event loop.
+     *
+     * @param now the current System.nanoTime()
+     */
+    void endIfIdle(long now) {
+        if (state != State.ENDED && now - lastActivityTime > CLIENT_TIMEOUT * 1_000_000L) {
+            log(Level.WARN, "no bytes sent to or received from the client in " + CLIENT_TIMEOUT + " ms - message not sent");
+            end(false);
+        }
+    }
+
+    /**
+     * End the session without the message being sent, e.g., when the server is stopped. Does nothing if the session
+     * already ended.
+     */
+    void cancel() {
+        if (state != State.ENDED) {
+            log(Level.INFO, "session cancelled - message not sent");
+            end(false);
+        }
+    }
+
+    /**
+     * Process a packet received from the client according to the state of this session
+     */
+    private void processPacket(PacketDecoder packet) {
+        log(Level.DEBUG, "RECEIVED: '" + packet.getPacketString() + "'");
+        if (state == State.AWAITING_REQUEST && ClientPackets.isMessageRequest(packet)) {
+            startTransfer(packet);
+        } else if (state == State.AWAITING_REPORT && ClientPackets.isMissingPacketsReport(packet)) {
+            int[] missingPacketNums = ClientPackets.getSequenceNums(packet, PacketArgKey.MISSING_PACKET_NUMS,
+                    messageEncoder.getNumTotalPackets());
+            if (missingPacketNums == null || missingPacketNums.length == 0) {
+                log(Level.WARN, "unable to retrieve " + PacketArgKey.MISSING_PACKET_NUMS + " from packet - ignoring it");
+                return;
+            }
+            statistics.packetsConfirmed(packetsOutstanding - missingPacketNums.length);
+            packetsOutstanding = missingPacketNums.length;
+            startRound(missingPacketNums);
+        } else if (state == State.AWAITING_REPORT && packet.containsArg(PacketArgKey.COMPLETED)) {
+            statistics.packetsConfirmed(packetsOutstanding);
+            logMessageSent();
+            end(true);
+        } else if (state == State.WINDOWED) {
+            processAcknowledgement(packet);
+        } else {
+            log(Level.WARN, "unexpected packet while in the " + state + " state - ignoring it");
+        }
+    }
+
+    /**
+     * Start sending the message as requested in the client's initial request packet
+     */
+    private void startTransfer(PacketDecoder requestPacket) {
+        wireFormat = ClientPackets.getRequestedWireFormat(requestPacket, message -> log(Level.WARN, message));
+        codec = ClientPackets.getRequestedCodec(requestPacket, message -> log(Level.WARN, message));
+        TransferMode transferMode = ClientPackets.getRequestedTransferMode(requestPacket, message -> log(Level.WARN, message));
+        int segmentSize = ClientPackets.getRequestedSegmentSize(requestPacket, message -> log(Level.WARN, message));
+        messageEncoder = packetsBySegmentSize.apply(segmentSize);
+        int[] packetNumsToSend = ClientPackets.getPacketNumsToSend(requestPacket, messageEncoder, message -> log(Level.WARN, message));
+        packetsOutstanding = packetNumsToSend.length;
+        statistics.packetsRequired(packetsOutstanding);
+        log(Level.INFO, "sending " + ClientPackets.describePacketsToSend(requestPacket, messageEncoder, packetsOutstanding) +
+                " in " + wireFormat + " format with a segment size of " +
+                segmentSize + " in " + transferMode + " mode" + (codec != Codec.NONE ? " with " + codec + " compression" : ""));
+        if (transferMode == TransferMode.WINDOWED) {
+            window = new SendWindow(messageEncoder.getNumTotalPackets(), congestionControllers.apply(MAX_WINDOW_SIZE));
+            window.sendOnly(packetNumsToSend);
+            state = State.WINDOWED;
+        } else {
+            startRound(packetNumsToSend);
+        }
+    }
+
+    private void startRound(int[] packetNums) {
+        if (packetDropProbability > 0) ClientPackets.shuffle(packetNums);
+        packetNumsToSend = packetNums;
+        roundIndex = 0;
+        state = State.SENDING_ROUND;
+    }
+
+    /**
+     * Update the window with a packet received from the client in the WINDOWED transfer mode
+     */
+    private void processAcknowledgement(PacketDecoder packet) {
+        if (ClientPackets.isCompletedReport(packet)) {
+            statistics.packetsConfirmed(messageEncoder.getNumTotalPackets() - window.getNumAcked());
+            logMessageSent();
+            end(true);
+        } else if (packet.containsArg(PacketArgKey.ACK_NUM)) {
+            int cumulativeAckNum = Integer.parseInt(packet.getArg(PacketArgKey.ACK_NUM));
+            int[] selectiveAckNums = packet.containsArg(PacketArgKey.SELECTIVE_ACKS) ?
+                    ClientPackets.getSequenceNums(packet, PacketArgKey.SELECTIVE_ACKS, messageEncoder.getNumTotalPackets()) : null;
+            statistics.packetsConfirmed(window.acknowledge(cumulativeAckNum, selectiveAckNums));
+        }
+    }
+
+    /**
+     * Write packets to the channel until there are no more packets to send for now, or the channel cannot accept more
+     * bytes. In the latter case, the session asks to be notified once the channel is writable.
+     */
+    private void sendPackets() throws IOException {
+        if (state == State.ENDED) {
+            return;
+        }
+        boolean channelAcceptedAll = true;
+        while (channelAcceptedAll) {
+            fillSendBuffer();
+            if (sendBuffer.position() == 0) {
+                break;
+            }
+            sendBuffer.flip();
+            if (channel.write(sendBuffer) > 0) {
+                lastActivityTime = System.nanoTime();
+            }
+            statistics.socketWrites(1);
+            channelAcceptedAll = !sendBuffer.hasRemaining();
+            sendBuffer.compact();
+        }
+        int interestOps = sendBuffer.position() > 0 ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ;
+        if (key.interestOps() != interestOps) {
+            key.interestOps(interestOps);
+        }
+    }
+
+    /**
+     * Write the packets to send to the send buffer until it is full or there are no more packets to send for now
+     */
+    private void fillSendBuffer() throws IOException {
+        while (sendBuffer.hasRemaining()) {
+            if (currentPacket == null && !takeNextPacket()) {
+                return;
+            }
+            currentPacketOffset = currentPacket.writeTo(sendBuffer, currentPacketOffset, currentPacketCompleted);
+            if (currentPacketOffset == currentPacket.getLength()) {
+                currentPacket = null;
+            }
+        }
+    }
+
+    /**
+     * Take the next packet to send, based on the state of the session, and make it the current packet. Packets that
+     * are 'dropped' are counted as sent and skipped.
+     *
+     * @return <code>true</code> if there is a packet to send, <code>false</code> if no packet can be sent for now
+     */
+    private boolean takeNextPacket() throws IOException {
+        while (true) {
+            int sequenceNum;
+            boolean completed;
+            if (state == State.SENDING_ROUND && roundIndex < packetNumsToSend.length) {
+                sequenceNum = packetNumsToSend[roundIndex++];
+                // The last packet of the round is never dropped, and asks the client to report what it is missing
+                completed = roundIndex == packetNumsToSend.length;
+                if (completed) {
+                    state = State.AWAITING_REPORT;
+                }
+            } else if (state == State.WINDOWED && window.hasPacketToSend()) {
+                sequenceNum = window.takeNextPacket();
+                completed = window.shouldRequestAcknowledgement();
+            } else if (state == State.WINDOWED && window.needsProbe()) {
+                // Resend a packet that asks for an acknowledgement, as the client otherwise has no reason to send one
+                sequenceNum = window.takeProbePacket();
+                completed = true;
+            } else {
+                return false;
+            }
+
+            packetsSent++;
+            boolean dropped = !completed && packetDropProbability > 0 && Math.random() < packetDropProbability;
+            if (dropped) {
+                droppedPackets++;
+                statistics.packetSent(0, true);
+                continue;
+            }
+            currentPacket = messageEncoder.getEncodedPacket(sequenceNum, wireFormat, codec);
+            currentPacketOffset = 0;
+            currentPacketCompleted = completed;
+            statistics.packetSent(currentPacket.getLength(), false);
+            if (Logger.isEnabled(Level.TRACE)) {
+                log(Level.TRACE, "sent packet " + sequenceNum + " (" + currentPacket.getLength() + " bytes)");
+            }
+            return true;
+        }
+    }
+
+    /**
+     * End the session after an exception, logging it. Does nothing if the session already ended.
+     */
+    void fail(Exception e) {
+        if (state == State.ENDED) {
+            return;
+        }
+        if (e instanceof EOFException) {
+            log(Level.WARN, "lost connection to the client - message not sent");
+        } else {
+            log(Level.ERROR, "EXCEPTION: exception while communicating with the client - message not sent", e);
+        }
+        end(false);
+    }
+
+    /**
+     * End the session and close its channel
+     */
+    private void end(boolean successful) {
+        state = State.ENDED;
+        key.cancel();
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+        statistics.sessionEnded(successful);
+    }
+
+    private void logMessageSent() {
+        log(Level.INFO, "Message successfully sent.");
+        log(Level.INFO, "total packets sent: " + packetsSent + "\npackets 'dropped': " + droppedPackets + "\npackets not dropped: " + (packetsSent - droppedPackets));
+    }
+
+    private void log(Level level, String message) {
+        if (Logger.isEnabled(level)) {
+            Logger.log(level, "SERVER - session " + sessionId + " - " + message);
+        }
+    }
+
+    private void log(Level level, String message, Exception e) {
+        if (Logger.isEnabled(level)) {
+            Logger.log(level, "SERVER - session " + sessionId + " - " + message, e);
+        }
+    }
+}
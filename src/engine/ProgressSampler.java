@@ -0,0 +1,59 @@
+package src.engine;
+
+import java.io.Closeable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class reports the progress of a transfer at a fixed rate, rather than on every packet. The transfer only updates
+ * counters (e.g., atomic counters or the {@link TransferStatistics}) as it runs, and the sample given to this class reads
+ * those counters and reports them, e.g., to a {@link TransferListener}. This keeps the formatting of status messages and
+ * the cost of the listener's UI updates off of the transfer's hot path, and bounds the rate at which a UI is updated no
+ * matter how fast the packets arrive.
+ * <p>
+ * The samples of all samplers are run on a single shared daemon thread. A sample is never run concurrently with another
+ * sample of the same sampler, so it may keep state between samples without synchronizing.
+ */
+public class ProgressSampler implements Closeable {
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "ProgressSampler");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Runnable sample;
+    private final ScheduledFuture<?> scheduledSamples;
+
+    /**
+     * Start sampling the progress
+     *
+     * @param sample           reads the progress and reports it. This should be quick, as it shares a thread with the
+     *                         samples of all other samplers.
+     * @param samplesPerSecond the rate to run the sample at
+     */
+    public ProgressSampler(Runnable sample, int samplesPerSecond) {
+        this.sample = sample;
+        long interval = TimeUnit.SECONDS.toNanos(1) / Math.max(1, samplesPerSecond);
+        this.scheduledSamples = SCHEDULER.scheduleAtFixedRate(this::sample, interval, interval, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Stop sampling, and run the sample a final time on the calling thread, so that the final progress is reported. Once
+     * this returns, the sample is not run again, so a final status can be reported afterwards without being overwritten.
+     */
+    @Override
+    public void close() {
+        scheduledSamples.cancel(false);
+        sample();
+    }
+
+    private synchronized void sample() {
+        try {
+            sample.run();
+        } catch (RuntimeException e) {
+            // A failed sample must not stop later samples, which scheduleAtFixedRate would otherwise do
+            Logger.log(Logger.Level.ERROR, "ProgressSampler - EXCEPTION: exception while sampling progress", e);
+        }
+    }
+}
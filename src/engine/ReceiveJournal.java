@@ -0,0 +1,127 @@
+package src.engine;
+
+import src.InternetProtocolHandling.PacketChecksums;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.BitSet;
+
+/**
+ * Records, next to a file being received, which of the file's segments were already written to it, so that a transfer
+ * that is interrupted can be resumed by requesting only the rest. The journal holds the segment size and total number
+ * of segments of the transfer, the digest of the full file if the sender already sent it, and a bitset of the segments
+ * written.
+ * <p>
+ * The journal is only saved once the segments it lists were forced to the storage device, and it is replaced
+ * atomically, so after a crash it lists at most the segments that are actually in the file. A segment that was written
+ * but not yet listed is simply received again.
+ */
+public class ReceiveJournal {
+    private static final int MAGIC = 0x54534A31;  // "TSJ1", marks a journal file in this format
+    private static final String JOURNAL_EXTENSION = ".journal";
+    private final Path outputFile;
+    private final Path journalFile;
+    private int segmentSize;
+    private int totalPackets;
+    private byte[] fileDigest;
+    private BitSet receivedPackets;
+
+    /**
+     * @param outputFile the file being received, which the journal is kept next to
+     */
+    public ReceiveJournal(Path outputFile) {
+        this.outputFile = outputFile;
+        this.journalFile = outputFile.resolveSibling(outputFile.getFileName() + JOURNAL_EXTENSION);
+    }
+
+    /**
+     * Load the journal saved by an earlier transfer of the file, if there is one
+     *
+     * @return <code>true</code> if a valid journal was loaded and the file it describes still exists with room for all
+     * its segments, else <code>false</code>
+     */
+    public boolean load() {
+        if (!Files.exists(journalFile) || !Files.exists(outputFile)) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(journalFile)))) {
+            if (in.readInt() != MAGIC) {
+                return false;
+            }
+            segmentSize = in.readInt();
+            totalPackets = in.readInt();
+            int fileDigestLength = in.readUnsignedByte();
+            fileDigest = fileDigestLength > 0 ? in.readNBytes(fileDigestLength) : null;
+            int receivedLength = in.readInt();
+            if (segmentSize <= 0 || totalPackets <= 0 || receivedLength < 0 || receivedLength > totalPackets / 8 + 1 ||
+                    (fileDigest != null && fileDigest.length != PacketChecksums.FILE_DIGEST_LENGTH)) {
+                return false;
+            }
+            receivedPackets = BitSet.valueOf(in.readNBytes(receivedLength));
+            // Before its last segment is written, the file is sized to fit all the segments; after, it ends with it
+            return receivedPackets.length() <= totalPackets &&
+                    Files.size(outputFile) > (long) (totalPackets - 1) * segmentSize;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Replace the journal with the given state of the transfer. The segments listed must already be forced to the
+     * storage device.
+     *
+     * @param fileDigest the digest of the full file as sent by the sender, or null if it was not received yet
+     */
+    public void save(int segmentSize, int totalPackets, byte[] fileDigest, BitSet receivedPackets) throws IOException {
+        Path tempFile = journalFile.resolveSibling(journalFile.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(segmentSize);
+            out.writeInt(totalPackets);
+            out.writeByte(fileDigest != null ? fileDigest.length : 0);
+            if (fileDigest != null) {
+                out.write(fileDigest);
+            }
+            byte[] received = receivedPackets.toByteArray();
+            out.writeInt(received.length);
+            out.write(received);
+        }
+        Files.move(tempFile, journalFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Delete the journal, if there is one
+     */
+    public void delete() throws IOException {
+        Files.deleteIfExists(journalFile);
+    }
+
+    public Path getJournalFile() {
+        return journalFile;
+    }
+
+    public int getSegmentSize() {
+        return segmentSize;
+    }
+
+    public int getTotalPackets() {
+        return totalPackets;
+    }
+
+    /**
+     * @return the digest of the full file as sent by the sender, or null if it was not received before the transfer was
+     * interrupted
+     */
+    public byte[] getFileDigest() {
+        return fileDigest;
+    }
+
+    /**
+     * @return the sequence numbers of the segments already written to the file
+     */
+    public BitSet getReceivedPackets() {
+        return receivedPackets;
+    }
+}
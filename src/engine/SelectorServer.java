@@ -0,0 +1,278 @@
+package src.engine;
+
+import src.InternetProtocolHandling.MultiPacketEncoder;
+import src.engine.Logger.Level;
+import src.engine.congestion.CongestionController;
+import src.engine.congestion.DelayBasedCongestionController;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.IntFunction;
+
+/**
+ * This class is a server core that sends the message to any number of clients from a small, fixed number of event-loop
+ * threads, rather than a thread per client. Each loop multiplexes the non-blocking channels of many clients with a
+ * {@link Selector}, and each client is served by a {@link NonBlockingSenderSession}, whose state replaces the position
+ * in the code that a blocked thread would otherwise keep.
+ * <p>
+ * The first event loop also accepts connections, and hands each new client to the loops in turn, so the clients are
+ * spread evenly between the loops. If accepting fails, e.g., because the process ran out of file descriptors, the loop
+ * stops accepting for ACCEPT_RETRY_DELAY and keeps serving its clients. A session that fails while handling an event
+ * ends on its own, without affecting the other sessions on its loop.
+ */
+public class SelectorServer implements Closeable {
+    private final int SELECT_TIMEOUT = 500;  // ms to wait for events before checking if the server was closed
+    private final int ACCEPT_RETRY_DELAY = 100;  // ms to stop accepting clients for after accepting fails
+    private final long IDLE_CHECK_INTERVAL = 1_000_000_000L;  // ns between checks for sessions whose client went silent
+    private final int portNumber;
+    private final IntFunction<MultiPacketEncoder> packetsBySegmentSize;
+    private final TransferStatistics statistics;
+    private final float packetDropProbability;
+    private final IntFunction<CongestionController> congestionControllers;
+    private final EventLoop[] eventLoops;
+    private ServerSocketChannel serverChannel;
+    private volatile boolean closed = false;
+    private int sessionCount = 0;
+
+    /**
+     * Construct a server that uses a {@link DelayBasedCongestionController} for clients in the WINDOWED transfer mode
+     *
+     * @see #SelectorServer(int, int, IntFunction, TransferStatistics, float, IntFunction)
+     */
+    public SelectorServer(int portNumber, int numEventLoops, IntFunction<MultiPacketEncoder> packetsBySegmentSize,
+                          TransferStatistics statistics, float packetDropProbability) {
+        this(portNumber, numEventLoops, packetsBySegmentSize, statistics, packetDropProbability, DelayBasedCongestionController::new);
+    }
+
+    /**
+     * @param numEventLoops         the number of threads to serve clients on
+     * @param packetsBySegmentSize  provides the packets of the message to send, broken up with the given segment size.
+     *                              It is called from all the event loops, so it must be thread-safe.
+     * @param statistics            the statistics to update as packets are sent
+     * @param packetDropProbability the probability that each packet is 'dropped' to simulate an unreliable network, or 0
+     *                              to send every packet
+     * @param congestionControllers provides the congestion controller for a client in the WINDOWED transfer mode, given
+     *                              the max window size
+     */
+    public SelectorServer(int portNumber, int numEventLoops, IntFunction<MultiPacketEncoder> packetsBySegmentSize,
+                          TransferStatistics statistics, float packetDropProbability,
+                          IntFunction<CongestionController> congestionControllers) {
+        this.portNumber = portNumber;
+        this.packetsBySegmentSize = packetsBySegmentSize;
+        this.statistics = statistics;
+        this.packetDropProbability = packetDropProbability;
+        this.congestionControllers = congestionControllers;
+        this.eventLoops = new EventLoop[Math.max(1, numEventLoops)];
+    }
+
+    /**
+     * Start listening for clients and start the event loops. This returns once the server is listening; the clients are
+     * served on the event loops' threads until the server is closed.
+     *
+     * @throws IOException if the server could not listen on its port
+     */
+    public void start() throws IOException {
+        serverChannel = ServerSocketChannel.open();
+        try {
+            serverChannel.bind(new InetSocketAddress(portNumber));
+            serverChannel.configureBlocking(false);
+            for (int i = 0; i < eventLoops.length; i++) {
+                eventLoops[i] = new EventLoop(Selector.open());
+            }
+            serverChannel.register(eventLoops[0].selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+        for (int i = 0; i < eventLoops.length; i++) {
+            Thread thread = new Thread(eventLoops[i], "SERVER-EventLoop-" + (i + 1));
+            thread.setDaemon(true);
+            thread.start();
+        }
+        log(Level.INFO, "listening for clients on port " + portNumber + " with " + eventLoops.length + " event loops");
+    }
+
+    /**
+     * Stop accepting clients and end every session that is still running. The event loops stop on their own shortly
+     * after.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (EventLoop eventLoop : eventLoops) {
+            if (eventLoop != null) {
+                eventLoop.selector.wakeup();
+            }
+        }
+        try {
+            if (serverChannel != null) {
+                serverChannel.close();
+            }
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * Accept every client waiting to connect, and hand each to the next event loop. This is only called by the first
+     * event loop. A client whose channel cannot be set up is disconnected, and the rest are still accepted.
+     *
+     * @throws IOException if accepting a client failed
+     */
+    private void acceptClients() throws IOException {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            sessionCount++;
+            try {
+                log(Level.INFO, "client connected from " + channel.getRemoteAddress() + " - starting session " + sessionCount);
+                channel.configureBlocking(false);
+                // Acknowledgements are small packets that the client waits on, so they should not be delayed to be coalesced
+                channel.socket().setTcpNoDelay(true);
+            } catch (IOException e) {
+                log(Level.ERROR, "EXCEPTION: unable to set up session " + sessionCount + " - " + e.getMessage());
+                close(channel);
+                continue;
+            }
+            eventLoops[sessionCount % eventLoops.length].addClient(sessionCount, channel);
+        }
+    }
+
+    private static void close(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void log(Level level, String message) {
+        if (Logger.isEnabled(level)) {
+            Logger.log(level, "SERVER - " + message);
+        }
+    }
+
+    private void log(Level level, String message, Exception e) {
+        if (Logger.isEnabled(level)) {
+            Logger.log(level, "SERVER - " + message, e);
+        }
+    }
+
+    /**
+     * An event loop, which serves the clients registered with its selector on a single thread
+     */
+    private class EventLoop implements Runnable {
+        private final Selector selector;
+        private final Queue<Runnable> pendingRegistrations = new ConcurrentLinkedQueue<>();
+
+        private EventLoop(Selector selector) {
+            this.selector = selector;
+        }
+
+        /**
+         * Start serving a client on this loop. The channel must be registered by this loop's own thread, as registering
+         * blocks while the selector is selecting, so the registration is queued and the selector woken up to run it.
+         */
+        private void addClient(int sessionId, SocketChannel channel) {
+            pendingRegistrations.add(() -> {
+                try {
+                    SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                    key.attach(new NonBlockingSenderSession(sessionId, channel, key, packetsBySegmentSize, statistics,
+                            packetDropProbability, congestionControllers));
+                } catch (IOException e) {
+                    log(Level.ERROR, "EXCEPTION: unable to register session " + sessionId + " - " + e.getMessage());
+                    close(channel);
+                }
+            });
+            selector.wakeup();
+        }
+
+        /**
+         * End the sessions on this loop whose client has gone silent
+         */
+        private void endIdleSessions(long now) {
+            for (SelectionKey key : selector.keys()) {
+                if (key.isValid() && key.attachment() != null) {
+                    ((NonBlockingSenderSession) key.attachment()).endIfIdle(now);
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            SelectionKey acceptKey = serverChannel.keyFor(selector);  // null unless this loop accepts the clients
+            long acceptResumeTime = 0;  // the System.nanoTime() to resume accepting at, or 0 if accepting is not paused
+            long lastIdleCheck = System.nanoTime();
+            try {
+                while (!closed) {
+                    selector.select(acceptResumeTime != 0 ? ACCEPT_RETRY_DELAY : SELECT_TIMEOUT);
+                    Runnable registration;
+                    while ((registration = pendingRegistrations.poll()) != null) {
+                        registration.run();
+                    }
+                    if (acceptResumeTime != 0 && System.nanoTime() - acceptResumeTime >= 0 && acceptKey.isValid()) {
+                        acceptResumeTime = 0;
+                        acceptKey.interestOps(SelectionKey.OP_ACCEPT);
+                    }
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        if (key.isAcceptable()) {
+                            try {
+                                acceptClients();
+                            } catch (IOException e) {
+                                // Accepting would fail again right away, so it is paused rather than retried in a busy loop
+                                log(Level.ERROR, "EXCEPTION: unable to accept a client - retrying in " + ACCEPT_RETRY_DELAY + " ms", e);
+                                key.interestOps(0);
+                                acceptResumeTime = System.nanoTime() + ACCEPT_RETRY_DELAY * 1_000_000L;
+                            }
+                            continue;
+                        }
+                        NonBlockingSenderSession session = (NonBlockingSenderSession) key.attachment();
+                        try {
+                            if (key.isReadable()) {
+                                session.onReadable();
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                session.onWritable();
+                            }
+                        } catch (RuntimeException e) {
+                            session.fail(e);  // e.g., the key was cancelled while the session was handling it
+                        }
+                    }
+                    long now = System.nanoTime();
+                    if (now - lastIdleCheck >= IDLE_CHECK_INTERVAL) {
+                        lastIdleCheck = now;
+                        endIdleSessions(now);
+                    }
+                }
+            } catch (IOException e) {
+                log(Level.ERROR, "EXCEPTION: exception in an event loop", e);
+            } finally {
+                // End the sessions still running on this loop, including any not yet registered
+                Runnable registration;
+                while ((registration = pendingRegistrations.poll()) != null) {
+                    registration.run();
+                }
+                for (SelectionKey key : selector.keys()) {
+                    if (key.attachment() != null) {
+                        ((NonBlockingSenderSession) key.attachment()).cancel();
+                    }
+                }
+                try {
+                    selector.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+}
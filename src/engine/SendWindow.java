@@ -0,0 +1,272 @@
+package src.engine;
+
+import src.engine.congestion.CongestionController;
+
+import java.util.ArrayDeque;
+import java.util.BitSet;
+import java.util.function.LongSupplier;
+
+/**
+ * This class tracks the state of a windowed transfer on the sending side: which packets have been acknowledged by the
+ * client, which are in flight, and which must be retransmitted. The number of packets in flight at a time is limited by
+ * a {@link CongestionController}, which is notified of every acknowledgement and loss.
+ * <p>
+ * Packets are sent over a connection that keeps them in order, so a packet that is still unacknowledged when a packet
+ * sent after it is acknowledged must have been lost. Each time a packet is sent it is stamped with an increasing number,
+ * which allows lost packets to be detected, and queued for retransmission, as soon as any later packet is acknowledged
+ * rather than at the end of a round.
+ */
+public class SendWindow {
+    private final int totalPackets;
+    private final BitSet acked;
+    private final BitSet inFlight;
+    private final int[] sendStamps;
+    private final long[] sendTimes;
+    private final ArrayDeque<Integer> retransmitQueue = new ArrayDeque<>();
+    private final CongestionController congestionController;
+    private final LongSupplier clock;
+    private int nextNewSequenceNum = 0;
+    private int cumulativeAckNum = 0;  // all packets below this number have been acknowledged
+    private int numInFlight = 0;
+    private int numAcked = 0;
+    private int nextSendStamp = 1;
+    private int highestAckedStamp = 0;
+    private int highestAckedSequenceNum = -1;  // the packet with the highest acknowledged stamp
+    private int lastSequenceNumTaken = -1;
+    private int ackRequestedSequenceNum = -1;  // the last packet sent that asked the client for an acknowledgement
+    private long numLost = 0;
+
+    /**
+     * @param congestionController decides the max number of packets in flight at a time
+     */
+    public SendWindow(int totalPackets, CongestionController congestionController) {
+        this(totalPackets, congestionController, System::nanoTime);
+    }
+
+    /**
+     * @param congestionController decides the max number of packets in flight at a time
+     * @param clock                provides the current time in nanoseconds, which is used to measure round trip times
+     */
+    public SendWindow(int totalPackets, CongestionController congestionController, LongSupplier clock) {
+        this.totalPackets = totalPackets;
+        this.congestionController = congestionController;
+        this.clock = clock;
+        this.acked = new BitSet(totalPackets);
+        this.inFlight = new BitSet(totalPackets);
+        this.sendStamps = new int[totalPackets];
+        this.sendTimes = new long[totalPackets];
+    }
+
+    /**
+     * Limit the transfer to the given packets, as the client already has the rest, e.g., from an earlier transfer that
+     * was interrupted. The other packets are treated as acknowledged, without notifying the congestion controller. This
+     * must be called before any packet is taken.
+     *
+     * @param sequenceNums the sequence numbers of the packets to send
+     */
+    public void sendOnly(int[] sequenceNums) {
+        BitSet packetsToSend = new BitSet(totalPackets);
+        for (int sequenceNum : sequenceNums) {
+            packetsToSend.set(sequenceNum);
+        }
+        for (int i = packetsToSend.nextClearBit(0); i < totalPackets; i = packetsToSend.nextClearBit(i + 1)) {
+            acked.set(i);
+            numAcked++;
+        }
+        cumulativeAckNum = acked.nextClearBit(0);
+        nextNewSequenceNum = cumulativeAckNum;
+    }
+
+    /**
+     * @return <code>true</code> if there is room in the window and a packet that still needs to be sent, either a new
+     * packet or a retransmission
+     */
+    public boolean hasPacketToSend() {
+        return numInFlight < getWindowSize() && (!retransmitQueue.isEmpty() || nextNewSequenceNum < totalPackets);
+    }
+
+    /**
+     * Take the next packet to send and mark it as in flight. Packets queued for retransmission are sent before new
+     * packets.
+     *
+     * @return the sequence number of the packet to send
+     * @throws IllegalStateException if there is no packet to send
+     */
+    public int takeNextPacket() {
+        if (!hasPacketToSend()) {
+            throw new IllegalStateException("No packet can be sent - " + numInFlight + " packets are in flight");
+        }
+        int sequenceNum;
+        if (retransmitQueue.isEmpty()) {
+            sequenceNum = nextNewSequenceNum;
+            nextNewSequenceNum = acked.nextClearBit(nextNewSequenceNum + 1);  // skips the packets the client already has
+        } else {
+            sequenceNum = retransmitQueue.poll();
+        }
+        inFlight.set(sequenceNum);
+        numInFlight++;
+        sendStamps[sequenceNum] = nextSendStamp++;
+        sendTimes[sequenceNum] = clock.getAsLong();
+        lastSequenceNumTaken = sequenceNum;
+        return sequenceNum;
+    }
+
+    /**
+     * Check whether the packet last taken with {@link #takeNextPacket()} must ask the client to acknowledge it as soon as
+     * it is received. This is the case when no more packets can be sent until an acknowledgement arrives, and every
+     * packet that already asked for one has been acknowledged - otherwise the sender could wait for an acknowledgement
+     * that the client has no reason to send. A packet that asks for an acknowledgement must not be dropped.
+     *
+     * @return <code>true</code> if the packet must ask for an acknowledgement, in which case it is recorded as having
+     * done so
+     */
+    public boolean shouldRequestAcknowledgement() {
+        boolean ackRequestOutstanding = ackRequestedSequenceNum >= 0 && !acked.get(ackRequestedSequenceNum);
+        if (hasPacketToSend() || ackRequestOutstanding) {
+            return false;
+        }
+        ackRequestedSequenceNum = lastSequenceNumTaken;
+        return true;
+    }
+
+    /**
+     * Check whether the sender must probe the client for an acknowledgement. This is the case when no packet can be sent,
+     * packets are in flight, and no packet that asked for an acknowledgement is still unacknowledged, e.g., when the last
+     * packets of the message were lost after the client acknowledged the last request, or when the window shrank. The
+     * client then has no reason to send an acknowledgement, so without a probe the sender would wait forever.
+     */
+    public boolean needsProbe() {
+        boolean ackRequestOutstanding = ackRequestedSequenceNum >= 0 && !acked.get(ackRequestedSequenceNum);
+        return !hasPacketToSend() && numInFlight > 0 && !ackRequestOutstanding;
+    }
+
+    /**
+     * Take a packet to resend as a probe. The probe is the packet in flight that was sent most recently, so that its
+     * acknowledgement shows every other packet still in flight to be lost. The probe must ask for an acknowledgement
+     * and must not be dropped; it is recorded as having asked for one.
+     *
+     * @return the sequence number of the packet to send
+     * @throws IllegalStateException if no packet is in flight
+     */
+    public int takeProbePacket() {
+        int probeSequenceNum = -1;
+        for (int i = inFlight.nextSetBit(cumulativeAckNum); i >= 0; i = inFlight.nextSetBit(i + 1)) {
+            if (probeSequenceNum < 0 || sendStamps[i] > sendStamps[probeSequenceNum]) {
+                probeSequenceNum = i;
+            }
+        }
+        if (probeSequenceNum < 0) {
+            throw new IllegalStateException("No packet is in flight to probe with");
+        }
+        sendStamps[probeSequenceNum] = nextSendStamp++;
+        sendTimes[probeSequenceNum] = clock.getAsLong();
+        lastSequenceNumTaken = probeSequenceNum;
+        ackRequestedSequenceNum = probeSequenceNum;
+        return probeSequenceNum;
+    }
+
+    /**
+     * Record an acknowledgement from the client, and queue any packets that it shows were lost for retransmission. The
+     * congestion controller is notified of the packets acknowledged and lost.
+     *
+     * @param cumulativeAckNum the client has received all packets below this number
+     * @param selectiveAckNums the numbers of packets above cumulativeAckNum that the client has received, or null if
+     *                         there are none
+     * @return the number of packets that were newly acknowledged
+     */
+    public int acknowledge(int cumulativeAckNum, int[] selectiveAckNums) {
+        long now = clock.getAsLong();
+        int previousHighestAckedStamp = highestAckedStamp;
+        int numNewlyAcked = 0;
+        for (; this.cumulativeAckNum < Math.min(cumulativeAckNum, totalPackets); this.cumulativeAckNum++) {
+            numNewlyAcked += acknowledge(this.cumulativeAckNum);
+        }
+        if (selectiveAckNums != null) {
+            for (int sequenceNum : selectiveAckNums) {
+                if (sequenceNum >= 0 && sequenceNum < totalPackets) {
+                    numNewlyAcked += acknowledge(sequenceNum);
+                }
+            }
+        }
+        if (numNewlyAcked > 0) {
+            // A packet is only retransmitted once its earlier copy was lost, so the time it was last sent is always the
+            // time that the copy received was sent
+            long roundTripTime = highestAckedStamp > previousHighestAckedStamp ? now - sendTimes[highestAckedSequenceNum] : -1;
+            congestionController.onAcknowledged(numNewlyAcked, roundTripTime, now);
+        }
+        int numNewlyLost = queueLostPackets();
+        if (numNewlyLost > 0) {
+            numLost += numNewlyLost;
+            congestionController.onPacketsLost(numNewlyLost, now);
+        }
+        return numNewlyAcked;
+    }
+
+    /**
+     * @return 1 if the packet was newly acknowledged, else 0
+     */
+    private int acknowledge(int sequenceNum) {
+        if (acked.get(sequenceNum)) {
+            return 0;
+        }
+        acked.set(sequenceNum);
+        numAcked++;
+        if (inFlight.get(sequenceNum)) {
+            inFlight.clear(sequenceNum);
+            numInFlight--;
+            if (sendStamps[sequenceNum] > highestAckedStamp) {
+                highestAckedStamp = sendStamps[sequenceNum];
+                highestAckedSequenceNum = sequenceNum;
+            }
+        }
+        return 1;
+    }
+
+    /**
+     * Queue every packet in flight that was sent before the most recently sent packet that was acknowledged. As packets
+     * arrive in order, these packets were lost.
+     *
+     * @return the number of packets queued
+     */
+    private int queueLostPackets() {
+        int numQueued = 0;
+        for (int i = inFlight.nextSetBit(cumulativeAckNum); i >= 0; i = inFlight.nextSetBit(i + 1)) {
+            if (sendStamps[i] < highestAckedStamp) {
+                inFlight.clear(i);
+                numInFlight--;
+                retransmitQueue.add(i);
+                numQueued++;
+            }
+        }
+        return numQueued;
+    }
+
+    /**
+     * @return <code>true</code> if the client has acknowledged every packet
+     */
+    public boolean isComplete() {
+        return numAcked == totalPackets;
+    }
+
+    public int getNumInFlight() {
+        return numInFlight;
+    }
+
+    public int getNumAcked() {
+        return numAcked;
+    }
+
+    /**
+     * @return the number of packets found to be lost so far. A packet lost more than once is counted each time.
+     */
+    public long getNumLost() {
+        return numLost;
+    }
+
+    /**
+     * @return the max number of packets in flight, as currently set by the congestion controller
+     */
+    public int getWindowSize() {
+        return Math.max(1, congestionController.getWindowSize());
+    }
+}
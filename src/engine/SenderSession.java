@@ -0,0 +1,350 @@
+package src.engine;
+
+import src.InternetProtocolHandling.MultiPacketEncoder;
+import src.InternetProtocolHandling.PacketDecoder;
+import src.InternetProtocolHandling.PacketFrameReader;
+import src.InternetProtocolHandling.enums.Codec;
+import src.InternetProtocolHandling.enums.PacketArgKey;
+import src.InternetProtocolHandling.enums.TransferMode;
+import src.InternetProtocolHandling.enums.WireFormat;
+import src.engine.Logger.Level;
+import src.engine.congestion.CongestionController;
+import src.engine.congestion.DelayBasedCongestionController;
+
+import java.io.*;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.channels.SocketChannel;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.function.IntFunction;
+
+/**
+ * This class is responsible for sending a full message to a single, already connected, Client. A server creates one
+ * session per connection and runs the sessions concurrently. The packets of the message may be shared between all sessions
+ * that use the same segment size, so this class never modifies them.
+ */
+public class SenderSession implements Callable<Boolean> {
+    private final int MAX_WINDOW_SIZE = 64;  // the max packets in flight in the WINDOWED transfer mode
+    private final int SEND_BATCH_SIZE = 64 * 1024;  // the max bytes of packets passed to the socket in one write
+    private final long MAX_SEND_DELAY = 2_000_000;  // the max ns a packet is held back to be batched with later packets
+    private final int CLIENT_TIMEOUT = 30_000;  // the max ms to wait for the client's next packet before ending the session
+    // Smaller segments are sent faster by batching, as each zero-copy packet takes a write for its header and its message
+    private final int ZERO_COPY_MIN_SEGMENT_SIZE = 16 * 1024;
+    private final int sessionId;
+    private final Socket clientSocket;
+    private final IntFunction<MultiPacketEncoder> packetsBySegmentSize;
+    private final TransferStatistics statistics;
+    private final IntFunction<CongestionController> congestionControllers;
+    private final float packetDropProbability;
+    // Without simulated drops, send each packet's message straight from the file to the socket, rather than through memory
+    private final boolean zeroCopy;
+    private MultiPacketEncoder messageEncoder;
+    private SocketChannel zeroCopyChannel;  // the channel to transfer messages to directly, if they are sent that way
+    private WireFormat wireFormat = WireFormat.TEXT;
+    private Codec codec = Codec.NONE;
+    private TransferMode transferMode = TransferMode.ROUNDS;
+    private int packetsSent = 0;
+    private int droppedPackets = 0;
+
+    /**
+     * Construct a session that uses a {@link DelayBasedCongestionController} in the WINDOWED transfer mode. A delay-based
+     * controller is used by default as the simulated drops are random, rather than a sign of congestion.
+     *
+     * @see #SenderSession(int, Socket, IntFunction, TransferStatistics, float, IntFunction)
+     */
+    public SenderSession(int sessionId, Socket clientSocket, IntFunction<MultiPacketEncoder> packetsBySegmentSize,
+                         TransferStatistics statistics, float packetDropProbability) {
+        this(sessionId, clientSocket, packetsBySegmentSize, statistics, packetDropProbability, DelayBasedCongestionController::new);
+    }
+
+    /**
+     * @param sessionId             an id for this session, used for logging
+     * @param clientSocket          the socket connected to the client. This session closes the socket when it completes.
+     * @param packetsBySegmentSize  provides the packets of the message to send, broken up with the given segment size
+     *                              (max message length). The segment size passed is already clamped to the supported range.
+     * @param statistics            the statistics to update as packets are sent
+     * @param packetDropProbability the probability that each packet is 'dropped' to simulate an unreliable network, or 0
+     *                              to send every packet. Without simulated drops, messages are sent with zero-copy
+     *                              when possible.
+     * @param congestionControllers provides the congestion controller for a transfer in the WINDOWED mode, given the max
+     *                              window size
+     */
+    public SenderSession(int sessionId, Socket clientSocket, IntFunction<MultiPacketEncoder> packetsBySegmentSize,
+                         TransferStatistics statistics, float packetDropProbability,
+                         IntFunction<CongestionController> congestionControllers) {
+        this.sessionId = sessionId;
+        this.clientSocket = clientSocket;
+        this.packetsBySegmentSize = packetsBySegmentSize;
+        this.statistics = statistics;
+        this.packetDropProbability = packetDropProbability;
+        this.zeroCopy = packetDropProbability == 0;
+        this.congestionControllers = congestionControllers;
+    }
+
+    /**
+     * Send the message to the client. This method does the following:
+     * <ul>
+     *     <li>waits for the client's request for the message, which determines the format, segment size, and transfer
+     *     mode the packets are sent with. In the WINDOWED mode, the message is sent by {@link #sendWindowed}; the
+     *     steps below describe the ROUNDS mode.</li>
+     *     <li>sends all packets to the client once (minus any 'dropped' packets)</li>
+     *     <li>when completed sending all packets, waits for client response as to whether all packets were received</li>
+     *     <li>if the client indicates that it is still missing some packets, this method then sends those missing packets again</li>
+     *     <li>when the client indicates that all packets were received, this method terminates with a value of <code>true</code></li>
+     * </ul>
+     *
+     * @return <code>true</code> if the message was successfully sent, <code>false</code> if it was not
+     */
+    @Override
+    public Boolean call() {
+        int packetsOutstanding = 0;  // packets the client has not yet confirmed receiving
+        boolean successful = false;
+        statistics.sessionStarted();
+        try (Socket socket = clientSocket;
+             BatchingOutputStream clientOut = new BatchingOutputStream(socket.getOutputStream(), SEND_BATCH_SIZE, MAX_SEND_DELAY);
+             InputStream clientIn = new BufferedInputStream(socket.getInputStream())) {
+            log(Level.INFO, "client connected from " + socket.getRemoteSocketAddress());
+            // Acknowledgements are small packets that the client waits on, so they should not be delayed to be coalesced
+            socket.setTcpNoDelay(true);
+            // A client that stops sending packets would otherwise hold this session's thread indefinitely
+            socket.setSoTimeout(CLIENT_TIMEOUT);
+            PacketFrameReader packetReader = new PacketFrameReader(clientIn);
+            PacketDecoder packet;
+            // Wait for and then process the client's packet with either a request or confirmation of message receipt
+            while ((packet = packetReader.readPacket()) != null && !Thread.currentThread().isInterrupted()) {
+                log(Level.DEBUG, "RECEIVED: '" + packet.getPacketString() + "'");
+
+                // After receiving the client packet, check what the client wants and reply accordingly:
+                boolean isFirstRequest = ClientPackets.isMessageRequest(packet);
+                if (!isFirstRequest && messageEncoder == null) {
+                    log(Level.WARN, "ignoring a packet received before the client's request for the message");
+                    continue;
+                }
+                boolean clientIsMissingPackets = ClientPackets.isMissingPacketsReport(packet);
+                boolean sendPackets = isFirstRequest || clientIsMissingPackets;
+                if (sendPackets) {
+                    int[] packetNumsToSend;
+                    if (isFirstRequest) {
+                        wireFormat = ClientPackets.getRequestedWireFormat(packet, message -> log(Level.WARN, message));
+                        codec = ClientPackets.getRequestedCodec(packet, message -> log(Level.WARN, message));
+                        transferMode = ClientPackets.getRequestedTransferMode(packet, message -> log(Level.WARN, message));
+                        int segmentSize = ClientPackets.getRequestedSegmentSize(packet, message -> log(Level.WARN, message));
+                        messageEncoder = packetsBySegmentSize.apply(segmentSize);
+                        packetNumsToSend = ClientPackets.getPacketNumsToSend(packet, messageEncoder, message -> log(Level.WARN, message));
+                        packetsOutstanding = packetNumsToSend.length;
+                        statistics.packetsRequired(packetsOutstanding);
+                        // This requires a socket accepted through a channel, and a message read from a file and sent
+                        // uncompressed
+                        if (zeroCopy && codec == Codec.NONE && messageEncoder.getMaxMessageLength() >= ZERO_COPY_MIN_SEGMENT_SIZE && socket.getChannel() != null &&
+                                messageEncoder.canTransferMessages()) {
+                            zeroCopyChannel = socket.getChannel();
+                        }
+                        log(Level.INFO, "sending " + ClientPackets.describePacketsToSend(packet, messageEncoder, packetsOutstanding) +
+                                " in " + wireFormat + " format with a segment size of " +
+                                segmentSize + " in " + transferMode + " mode" + (codec != Codec.NONE ? " with " + codec + " compression" : "") +
+                                (zeroCopyChannel != null ? " with zero-copy" : ""));
+                        if (transferMode == TransferMode.WINDOWED) {
+                            successful = sendWindowed(packetNumsToSend, packetReader, clientIn, clientOut);
+                            if (successful) {
+                                logMessageSent();
+                                return true;
+                            }
+                            break;
+                        }
+                    } else {
+                        packetNumsToSend = ClientPackets.getSequenceNums(packet, PacketArgKey.MISSING_PACKET_NUMS, messageEncoder.getNumTotalPackets());
+                        if (packetNumsToSend == null || packetNumsToSend.length == 0) {
+                            log(Level.WARN, "unable to retrieve " + PacketArgKey.MISSING_PACKET_NUMS + " from packet - ignoring it");
+                            continue;
+                        }
+                        statistics.packetsConfirmed(packetsOutstanding - packetNumsToSend.length);
+                        packetsOutstanding = packetNumsToSend.length;
+                    }
+
+                    // Send the packets...
+                    if (packetDropProbability > 0) ClientPackets.shuffle(packetNumsToSend);
+                    for (int i = 0; i < packetNumsToSend.length - 1; i++) {
+                        boolean dropped = packetDropProbability > 0 && Math.random() < packetDropProbability;
+                        int numBytes = 0;
+                        if (!dropped) {
+                            numBytes = sendPacket(packetNumsToSend[i], false, clientOut);
+                        } else {
+                            droppedPackets++;
+                        }
+                        packetsSent++;
+                        statistics.packetSent(numBytes, dropped);
+                    }
+
+                    // (the last packet is never dropped, and is sent with a COMPLETED arg of T)
+                    int numBytes = sendPacket(packetNumsToSend[packetNumsToSend.length - 1], true, clientOut);
+                    packetsSent++;
+                    statistics.packetSent(numBytes, false);
+                } else if (packet.containsArg(PacketArgKey.COMPLETED)) {
+                    statistics.packetsConfirmed(packetsOutstanding);
+                    logMessageSent();
+                    successful = true;
+                    return true;
+                }
+            }
+            // If the input stream is closed that means we stopped receiving messages from the client
+            if (Thread.currentThread().isInterrupted()) {
+                log(Level.INFO, "session cancelled - message not sent");
+            } else {
+                log(Level.WARN, "lost connection to the client - message not sent");
+            }
+            return false;
+        } catch (SocketTimeoutException e) {
+            log(Level.WARN, "no packet received from the client in " + CLIENT_TIMEOUT + " ms - message not sent");
+            return false;
+        } catch (IOException | IllegalArgumentException e) {
+            log(Level.ERROR, "EXCEPTION: exception while communicating with the client - message not sent", e);
+            return false;
+        } catch (RuntimeException e) {
+            // The session runs on a pool that would otherwise discard the exception, so the failure is logged here
+            log(Level.ERROR, "EXCEPTION: unexpected exception while sending the message - message not sent", e);
+            return false;
+        } finally {
+            statistics.sessionEnded(successful);
+        }
+    }
+
+    /**
+     * Send the message in the WINDOWED transfer mode. Packets are sent while there is room in the window, which is sized
+     * by this session's congestion controller, and any acknowledgements the client has already sent are processed
+     * between packets without waiting for them. When no more packets can be sent, this method waits for the client's
+     * acknowledgement before continuing. So that the client always has a reason to send one, the last packet sent before
+     * waiting is marked with a COMPLETED arg of T (and is never dropped), which asks the client to report what it
+     * received, unless an earlier packet that asked for a report has not been acknowledged yet.
+     * Lost packets are retransmitted as soon as an acknowledgement shows them to be missing.
+     *
+     * @param packetNumsToSend the packets to send, which leave out any the client already has
+     * @return <code>true</code> if the client indicated that it received the full message, <code>false</code> if the
+     * connection was lost or the session was cancelled first
+     */
+    private boolean sendWindowed(int[] packetNumsToSend, PacketFrameReader packetReader, InputStream clientIn,
+                                 BatchingOutputStream clientOut) throws IOException {
+        SendWindow window = new SendWindow(messageEncoder.getNumTotalPackets(), congestionControllers.apply(MAX_WINDOW_SIZE));
+        window.sendOnly(packetNumsToSend);
+        while (!Thread.currentThread().isInterrupted()) {
+            if (window.hasPacketToSend()) {
+                int sequenceNum = window.takeNextPacket();
+                boolean requestsAck = window.shouldRequestAcknowledgement();
+                boolean dropped = !requestsAck && packetDropProbability > 0 && Math.random() < packetDropProbability;
+                int numBytes = 0;
+                if (!dropped) {
+                    numBytes = sendPacket(sequenceNum, requestsAck, clientOut);
+                } else {
+                    droppedPackets++;
+                }
+                packetsSent++;
+                statistics.packetSent(numBytes, dropped);
+
+                // Process any acknowledgements that have already arrived
+                while (clientIn.available() > 0) {
+                    if (processAcknowledgement(packetReader.readPacket(), window)) {
+                        return true;
+                    }
+                }
+            } else if (window.needsProbe()) {
+                // Resend a packet that asks for an acknowledgement, as the client otherwise has no reason to send one
+                statistics.packetSent(sendPacket(window.takeProbePacket(), true, clientOut), false);
+                packetsSent++;
+            } else {
+                flushPackets(clientOut);  // make sure the client has every packet sent before waiting on it
+                PacketDecoder packet = packetReader.readPacket();
+                if (packet == null) {
+                    return false;
+                }
+                if (processAcknowledgement(packet, window)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Update the window with a packet received from the client in the WINDOWED transfer mode
+     *
+     * @return <code>true</code> if the client indicated that it received the full message
+     */
+    private boolean processAcknowledgement(PacketDecoder packet, SendWindow window) throws IOException {
+        if (packet == null) {
+            throw new EOFException("Stream ended while reading an acknowledgement");
+        }
+        log(Level.DEBUG, "RECEIVED: '" + packet.getPacketString() + "'");
+        if (ClientPackets.isCompletedReport(packet)) {
+            statistics.packetsConfirmed(messageEncoder.getNumTotalPackets() - window.getNumAcked());
+            return true;
+        }
+        if (packet.containsArg(PacketArgKey.ACK_NUM)) {
+            int cumulativeAckNum = Integer.parseInt(packet.getArg(PacketArgKey.ACK_NUM));
+            int[] selectiveAckNums = packet.containsArg(PacketArgKey.SELECTIVE_ACKS) ?
+                    ClientPackets.getSequenceNums(packet, PacketArgKey.SELECTIVE_ACKS, messageEncoder.getNumTotalPackets()) : null;
+            statistics.packetsConfirmed(window.acknowledge(cumulativeAckNum, selectiveAckNums));
+        }
+        return false;
+    }
+
+    /**
+     * Send a packet of the message to the client in this session's wire format. The packet is encoded by the message
+     * encoder, which may share it with other sessions, so only its COMPLETED arg is set when it is written.
+     * Packets are batched into fewer socket writes, so a packet is only flushed to the client right away if it asks the
+     * client to report what it received, as this session then waits for the report.
+     * <p>
+     * With zero-copy, only the packet's small header is written through the stream, and the message is then transferred
+     * from the file to the socket directly, so the file's contents are never copied through the heap. The header must be
+     * flushed first, so each packet takes a write for its header as well as a transfer for its message, which is only
+     * worth it for segments of at least ZERO_COPY_MIN_SEGMENT_SIZE.
+     *
+     * @param completed the value of the packet's COMPLETED arg, i.e., whether the client should report what it received
+     * @return the number of bytes sent
+     */
+    private int sendPacket(int sequenceNum, boolean completed, BatchingOutputStream clientOut) throws IOException {
+        long numWrites = clientOut.getNumWrites();
+        int numBytes;
+        if (zeroCopyChannel != null) {
+            numBytes = messageEncoder.getEncodedHeader(sequenceNum, wireFormat).writeTo(clientOut, completed);
+            clientOut.flush();
+            numBytes += messageEncoder.transferMessage(sequenceNum, zeroCopyChannel);
+            statistics.socketWrites(1);  // the transfer, which is typically a single system call
+        } else {
+            numBytes = messageEncoder.getEncodedPacket(sequenceNum, wireFormat, codec).writeTo(clientOut, completed);
+        }
+        statistics.socketWrites(clientOut.getNumWrites() - numWrites);
+        if (completed) {
+            flushPackets(clientOut);
+        }
+        if (Logger.isEnabled(Level.TRACE)) {
+            log(Level.TRACE, "sent packet " + sequenceNum + " (" + numBytes + " bytes)");
+        }
+        return numBytes;
+    }
+
+    /**
+     * Write any packets still batched to the client
+     */
+    private void flushPackets(BatchingOutputStream clientOut) throws IOException {
+        long numWrites = clientOut.getNumWrites();
+        clientOut.flush();
+        statistics.socketWrites(clientOut.getNumWrites() - numWrites);
+    }
+
+    private void logMessageSent() {
+        log(Level.INFO, "Message successfully sent.");
+        log(Level.INFO, "total packets sent: " + packetsSent + "\npackets 'dropped': " + droppedPackets + "\npackets not dropped: " + (packetsSent - droppedPackets));
+    }
+
+    private void log(Level level, String message) {
+        if (Logger.isEnabled(level)) {
+            Logger.log(level, "SERVER - session " + sessionId + " - " + message);
+        }
+    }
+
+    private void log(Level level, String message, Exception e) {
+        if (Logger.isEnabled(level)) {
+            Logger.log(level, "SERVER - session " + sessionId + " - " + message, e);
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package src.engine;
+
+/**
+ * Receives the status and progress of a transfer from a {@link MessageServer} or {@link MessageClient}. The callbacks are
+ * made from the engine's own threads, so an implementation that updates a UI must hand the values off to the UI thread.
+ * Both methods do nothing by default, so an implementation only needs to override the updates it uses.
+ */
+public interface TransferListener {
+    /**
+     * A listener that ignores all updates, for when the engine runs without anything to report to
+     */
+    TransferListener NONE = new TransferListener() {
+    };
+
+    /**
+     * @param status a human-readable description of the transfer's current state
+     */
+    default void onStatus(String status) {
+    }
+
+    /**
+     * @param workDone the amount of work done so far, e.g., the number of packets received
+     * @param max      the total amount of work, in the same units as workDone
+     */
+    default void onProgress(long workDone, long max) {
+    }
+}
@@ -0,0 +1,130 @@
+package src.engine;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Aggregate counters shared by all the sessions of a server. Sessions only ever increment these counters, so any number
+ * of sessions can update them concurrently while the server reads them to report progress and throughput.
+ */
+public class TransferStatistics {
+    private final long startTimeNanos = System.nanoTime();
+    private final AtomicInteger activeSessions = new AtomicInteger();
+    private final AtomicInteger completedSessions = new AtomicInteger();
+    private final AtomicInteger failedSessions = new AtomicInteger();
+    private final AtomicLong packetsSent = new AtomicLong();
+    private final AtomicLong packetsDropped = new AtomicLong();
+    private final AtomicLong packetsRequired = new AtomicLong();
+    private final AtomicLong packetsConfirmed = new AtomicLong();
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicLong socketWrites = new AtomicLong();
+
+    public void sessionStarted() {
+        activeSessions.incrementAndGet();
+    }
+
+    /**
+     * Record the number of packets a session's client needs to receive the full message
+     */
+    public void packetsRequired(int numPackets) {
+        packetsRequired.addAndGet(numPackets);
+    }
+
+    /**
+     * @param successful whether the session's client received the full message
+     */
+    public void sessionEnded(boolean successful) {
+        activeSessions.decrementAndGet();
+        if (successful) {
+            completedSessions.incrementAndGet();
+        } else {
+            failedSessions.incrementAndGet();
+        }
+    }
+
+    /**
+     * Record a packet as sent. Packets that are 'dropped' by the simulation still count as sent, but not towards the
+     * bytes sent.
+     */
+    public void packetSent(int numBytes, boolean dropped) {
+        packetsSent.incrementAndGet();
+        if (dropped) {
+            packetsDropped.incrementAndGet();
+        } else {
+            bytesSent.addAndGet(numBytes);
+        }
+    }
+
+    /**
+     * Record writes made to a client's socket. Each write is a system call, which may send many packets.
+     */
+    public void socketWrites(long numWrites) {
+        socketWrites.addAndGet(numWrites);
+    }
+
+    /**
+     * Record packets that a client confirmed it received
+     */
+    public void packetsConfirmed(int numPackets) {
+        packetsConfirmed.addAndGet(numPackets);
+    }
+
+    public int getActiveSessions() {
+        return activeSessions.get();
+    }
+
+    public int getCompletedSessions() {
+        return completedSessions.get();
+    }
+
+    public int getFailedSessions() {
+        return failedSessions.get();
+    }
+
+    public long getPacketsSent() {
+        return packetsSent.get();
+    }
+
+    public long getPacketsDropped() {
+        return packetsDropped.get();
+    }
+
+    public long getPacketsRequired() {
+        return packetsRequired.get();
+    }
+
+    public long getPacketsConfirmed() {
+        return packetsConfirmed.get();
+    }
+
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    public long getSocketWrites() {
+        return socketWrites.get();
+    }
+
+    /**
+     * @return the average number of socket writes made per megabyte sent, or 0 if nothing was sent
+     */
+    public double getSocketWritesPerMegabyte() {
+        long bytesSent = getBytesSent();
+        return bytesSent > 0 ? getSocketWrites() / (bytesSent / (1024.0 * 1024)) : 0;
+    }
+
+    /**
+     * @return the time since these statistics started being collected, in seconds
+     */
+    public double getElapsedSeconds() {
+        return (System.nanoTime() - startTimeNanos) / 1_000_000_000.0;
+    }
+
+    /**
+     * @return the aggregate throughput of all sessions since these statistics started being collected, in bytes per second
+     */
+    public double getThroughput() {
+        double elapsedSeconds = getElapsedSeconds();
+        return elapsedSeconds > 0 ? getBytesSent() / elapsedSeconds : 0;
+    }
+}
@@ -0,0 +1,33 @@
+package src.engine.congestion;
+
+/**
+ * A congestion controller decides how many packets a sender may keep in flight, based on the feedback the sender gets
+ * from the receiver's acknowledgements. A {@link src.engine.SendWindow} reports each acknowledgement and each loss it
+ * detects to its controller, and limits the packets in flight to the controller's window size.
+ * <p>
+ * Times are given in nanoseconds from an arbitrary origin, so that a controller can be driven by a simulated clock as
+ * well as a real one. Implementations are not thread-safe; each transfer uses its own controller.
+ */
+public interface CongestionController {
+    /**
+     * @return the max number of packets to keep in flight
+     */
+    int getWindowSize();
+
+    /**
+     * Called when the receiver acknowledges packets that were in flight
+     *
+     * @param numPackets    the number of packets newly acknowledged
+     * @param roundTripTime the round trip time of the most recently sent packet acknowledged, or -1 if it is not known
+     * @param now           the current time
+     */
+    void onAcknowledged(int numPackets, long roundTripTime, long now);
+
+    /**
+     * Called when packets that were in flight are found to be lost
+     *
+     * @param numPackets the number of packets lost
+     * @param now        the current time
+     */
+    void onPacketsLost(int numPackets, long now);
+}
@@ -0,0 +1,85 @@
+package src.engine.congestion;
+
+/**
+ * A delay-based controller in the style of TCP Vegas. Rather than waiting for loss, it estimates how many of its packets
+ * are sitting in queues along the path from how far the round trip time has risen above the lowest one seen:
+ * <pre>
+ *     queued packets = window size * (1 - min round trip time / current round trip time)
+ * </pre>
+ * Once each round trip, the window grows by one packet if fewer than ALPHA packets are queued, and shrinks by one packet
+ * if more than BETA packets are queued, which keeps the queues short instead of filling them until packets are dropped.
+ * Until the queue estimate first exceeds BETA, the window grows by one packet for every packet acknowledged, as in slow
+ * start.
+ * <p>
+ * A loss only shrinks the window, by LOSS_DECREASE_FACTOR and at most once per round trip, if the queue estimate shows
+ * that packets are queueing, as a loss while the queues are short is more likely to be random than a sign of
+ * congestion. This keeps a much larger window than a loss-based controller on a link that drops packets randomly.
+ */
+public class DelayBasedCongestionController implements CongestionController {
+    private final int INITIAL_WINDOW_SIZE = 4;
+    private final int MIN_WINDOW_SIZE = 2;
+    private final double ALPHA = 2;
+    private final double BETA = 4;
+    private final double LOSS_DECREASE_FACTOR = 0.875;
+    private final int maxWindowSize;
+    private final RoundTripTimeEstimator roundTripTimes = new RoundTripTimeEstimator();
+    private double windowSize = INITIAL_WINDOW_SIZE;
+    private double queuedPackets = 0;  // the latest estimate of the packets queued along the path
+    private boolean inSlowStart = true;
+    private long lastAdjustmentTime = Long.MIN_VALUE;  // MIN_VALUE if the window has not been adjusted yet
+    private long lastDecreaseTime = Long.MIN_VALUE;  // MIN_VALUE if the window has not been decreased on loss yet
+
+    /**
+     * @param maxWindowSize the max number of packets to keep in flight
+     */
+    public DelayBasedCongestionController(int maxWindowSize) {
+        this.maxWindowSize = Math.max(maxWindowSize, MIN_WINDOW_SIZE);
+    }
+
+    @Override
+    public int getWindowSize() {
+        return (int) windowSize;
+    }
+
+    @Override
+    public void onAcknowledged(int numPackets, long roundTripTime, long now) {
+        roundTripTimes.addSample(roundTripTime);
+        if (!roundTripTimes.hasSamples()) {
+            return;
+        }
+        queuedPackets = windowSize * (1 - roundTripTimes.getMin() / (double) Math.max(roundTripTimes.getSmoothed(), 1));
+        if (inSlowStart) {
+            if (queuedPackets > BETA) {
+                inSlowStart = false;
+            } else {
+                windowSize += numPackets;
+            }
+        } else if (lastAdjustmentTime == Long.MIN_VALUE || now - lastAdjustmentTime >= roundTripTimes.getSmoothed()) {
+            if (queuedPackets < ALPHA) {
+                windowSize++;
+            } else if (queuedPackets > BETA) {
+                windowSize--;
+            }
+            lastAdjustmentTime = now;
+        }
+        windowSize = Math.max(MIN_WINDOW_SIZE, Math.min(windowSize, maxWindowSize));
+    }
+
+    @Override
+    public void onPacketsLost(int numPackets, long now) {
+        if (queuedPackets < ALPHA) {
+            return;
+        }
+        inSlowStart = false;
+        boolean isNewLossEvent = lastDecreaseTime == Long.MIN_VALUE || !roundTripTimes.hasSamples() ||
+                now - lastDecreaseTime >= roundTripTimes.getSmoothed();
+        if (isNewLossEvent) {
+            windowSize = Math.max(windowSize * LOSS_DECREASE_FACTOR, MIN_WINDOW_SIZE);
+            lastDecreaseTime = now;
+        }
+    }
+
+    public String toString() {
+        return "DelayBased";
+    }
+}
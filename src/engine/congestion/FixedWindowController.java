@@ -0,0 +1,33 @@
+package src.engine.congestion;
+
+/**
+ * A controller that keeps a fixed number of packets in flight regardless of acknowledgements and losses, i.e., no
+ * congestion control
+ */
+public class FixedWindowController implements CongestionController {
+    private final int windowSize;
+
+    public FixedWindowController(int windowSize) {
+        if (windowSize < 1) {
+            throw new IllegalArgumentException("Window size must be at least 1, but was " + windowSize);
+        }
+        this.windowSize = windowSize;
+    }
+
+    @Override
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    @Override
+    public void onAcknowledged(int numPackets, long roundTripTime, long now) {
+    }
+
+    @Override
+    public void onPacketsLost(int numPackets, long now) {
+    }
+
+    public String toString() {
+        return "Fixed(" + windowSize + ")";
+    }
+}
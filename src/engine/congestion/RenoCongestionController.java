@@ -0,0 +1,61 @@
+package src.engine.congestion;
+
+/**
+ * A loss-based controller in the style of TCP Reno, using additive increase and multiplicative decrease (AIMD):
+ * <ul>
+ *     <li>in slow start, the window grows by one packet for every packet acknowledged, doubling each round trip</li>
+ *     <li>once the window reaches the slow start threshold, it grows by one packet each round trip</li>
+ *     <li>on loss, the window and threshold are halved. Losses within a round trip of the last decrease are treated as
+ *     part of the same loss event, so the window is decreased at most once per round trip.</li>
+ * </ul>
+ * Every loss is treated as a sign of congestion, so this controller keeps a small window on a link that drops packets
+ * randomly.
+ */
+public class RenoCongestionController implements CongestionController {
+    private final int INITIAL_WINDOW_SIZE = 4;
+    private final int MIN_WINDOW_SIZE = 2;
+    private final int maxWindowSize;
+    private final RoundTripTimeEstimator roundTripTimes = new RoundTripTimeEstimator();
+    private double windowSize = INITIAL_WINDOW_SIZE;
+    private double slowStartThreshold;
+    private long lastDecreaseTime = Long.MIN_VALUE;  // MIN_VALUE if the window has not been decreased yet
+
+    /**
+     * @param maxWindowSize the max number of packets to keep in flight, which is also the initial slow start threshold
+     */
+    public RenoCongestionController(int maxWindowSize) {
+        this.maxWindowSize = Math.max(maxWindowSize, MIN_WINDOW_SIZE);
+        this.slowStartThreshold = this.maxWindowSize;
+    }
+
+    @Override
+    public int getWindowSize() {
+        return (int) windowSize;
+    }
+
+    @Override
+    public void onAcknowledged(int numPackets, long roundTripTime, long now) {
+        roundTripTimes.addSample(roundTripTime);
+        if (windowSize < slowStartThreshold) {
+            windowSize += numPackets;
+        } else {
+            windowSize += numPackets / windowSize;
+        }
+        windowSize = Math.min(windowSize, maxWindowSize);
+    }
+
+    @Override
+    public void onPacketsLost(int numPackets, long now) {
+        boolean isNewLossEvent = lastDecreaseTime == Long.MIN_VALUE || !roundTripTimes.hasSamples() ||
+                now - lastDecreaseTime >= roundTripTimes.getSmoothed();
+        if (isNewLossEvent) {
+            slowStartThreshold = Math.max(windowSize / 2, MIN_WINDOW_SIZE);
+            windowSize = slowStartThreshold;
+            lastDecreaseTime = now;
+        }
+    }
+
+    public String toString() {
+        return "Reno";
+    }
+}
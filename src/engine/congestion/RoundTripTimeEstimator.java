@@ -0,0 +1,43 @@
+package src.engine.congestion;
+
+/**
+ * This class keeps the smoothed and minimum round trip times from a series of samples. The smoothed time is an
+ * exponentially weighted moving average of the samples, as in TCP's SRTT.
+ */
+class RoundTripTimeEstimator {
+    private final double SMOOTHING_FACTOR = 0.125;
+    private long smoothed = -1;
+    private long min = Long.MAX_VALUE;
+
+    /**
+     * Add a sample. Samples that are not known (negative) are ignored.
+     */
+    void addSample(long roundTripTime) {
+        if (roundTripTime < 0) {
+            return;
+        }
+        min = Math.min(min, roundTripTime);
+        smoothed = smoothed < 0 ? roundTripTime : (long) (smoothed + SMOOTHING_FACTOR * (roundTripTime - smoothed));
+    }
+
+    /**
+     * @return <code>true</code> if at least one sample has been added
+     */
+    boolean hasSamples() {
+        return smoothed >= 0;
+    }
+
+    /**
+     * @return the smoothed round trip time, or -1 if no samples have been added
+     */
+    long getSmoothed() {
+        return smoothed;
+    }
+
+    /**
+     * @return the lowest round trip time sampled, or -1 if no samples have been added
+     */
+    long getMin() {
+        return hasSamples() ? min : -1;
+    }
+}
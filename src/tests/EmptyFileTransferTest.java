@@ -0,0 +1,82 @@
+package src.tests;
+
+import src.InternetProtocolHandling.enums.Codec;
+import src.InternetProtocolHandling.enums.TransferMode;
+import src.InternetProtocolHandling.enums.Transport;
+import src.InternetProtocolHandling.enums.WireFormat;
+import src.engine.AdaptiveSegmentSize;
+import src.engine.Logger;
+import src.engine.MessageClient;
+import src.engine.MessageServer;
+import src.engine.TransferListener;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * This class sends an empty file from a server to clients in this process, end to end, in each wire format and transfer
+ * mode, over several streams, with zero-copy, and over UDP. An empty file is sent as a single empty packet that carries
+ * the file's digest, so each client must receive an empty file and report success. Each check throws an
+ * {@link IllegalStateException} if it fails.
+ * <p>
+ * Usage: <code>java src.tests.EmptyFileTransferTest</code>
+ */
+public class EmptyFileTransferTest {
+    private static final int SERVER_PORT = 30141;
+    private static final int ZERO_COPY_SERVER_PORT = 30142;
+    private static final int SERVER_START_DELAY = 500;  // ms for the servers to start listening
+
+    public static void main(String[] args) throws Exception {
+        Logger.setLevel(Logger.Level.WARN);
+        Path fileToSend = Files.createTempFile("empty-file-test", ".bin");
+        Path outputFile = Files.createTempFile("empty-file-test", ".out");
+        MessageServer server = new MessageServer(fileToSend, SERVER_PORT, MessageServer.DEFAULT_PACKET_DROP_PROBABILITY,
+                true, TransferListener.NONE);
+        MessageServer zeroCopyServer = new MessageServer(fileToSend, ZERO_COPY_SERVER_PORT, 0, TransferListener.NONE);
+        Thread serverThread = new Thread(server::serve, "TEST-Server");
+        Thread zeroCopyServerThread = new Thread(zeroCopyServer::serve, "TEST-ZeroCopyServer");
+        serverThread.start();
+        zeroCopyServerThread.start();
+        try {
+            Thread.sleep(SERVER_START_DELAY);
+            for (WireFormat wireFormat : WireFormat.values()) {
+                for (TransferMode transferMode : TransferMode.values()) {
+                    receive(SERVER_PORT, wireFormat, Codec.NONE, transferMode, Transport.TCP, 1, outputFile);
+                }
+            }
+            receive(SERVER_PORT, WireFormat.TEXT, Codec.DEFLATE, TransferMode.WINDOWED, Transport.TCP, 1, outputFile);
+            receive(SERVER_PORT, WireFormat.BINARY, Codec.NONE, TransferMode.WINDOWED, Transport.TCP, 3, outputFile);
+            receive(SERVER_PORT, WireFormat.BINARY, Codec.NONE, TransferMode.ROUNDS, Transport.UDP, 1, outputFile);
+            receive(ZERO_COPY_SERVER_PORT, WireFormat.BINARY, Codec.NONE, TransferMode.WINDOWED, Transport.TCP, 1, outputFile);
+            check(server.getStatistics().getFailedSessions() == 0, "no session failed");
+            System.out.println("EmptyFileTransferTest passed");
+        } finally {
+            server.cancel();
+            zeroCopyServer.cancel();
+            serverThread.join();
+            zeroCopyServerThread.join();
+            Files.deleteIfExists(fileToSend);
+            Files.deleteIfExists(outputFile);
+        }
+    }
+
+    private static void receive(int portNumber, WireFormat wireFormat, Codec codec, TransferMode transferMode,
+                                Transport transport, int numStreams, Path outputFile) throws IOException {
+        Files.deleteIfExists(outputFile);
+        MessageClient client = new MessageClient(InetAddress.getLoopbackAddress().getHostAddress(), portNumber,
+                outputFile, wireFormat, codec, transferMode, transport, numStreams, AdaptiveSegmentSize.fixed(1024),
+                TransferListener.NONE);
+        String description = "an empty file received in " + wireFormat + " format with " + codec + " in " + transferMode +
+                " mode over " + numStreams + " " + transport + " stream(s) from port " + portNumber;
+        check(client.receive(), description + " reports success");
+        check(Files.exists(outputFile) && Files.size(outputFile) == 0, description + " is empty");
+    }
+
+    private static void check(boolean condition, String description) {
+        if (!condition) {
+            throw new IllegalStateException("Check failed: " + description);
+        }
+    }
+}
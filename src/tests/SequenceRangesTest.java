@@ -0,0 +1,70 @@
+package src.tests;
+
+import src.InternetProtocolHandling.SequenceRanges;
+
+import java.util.Arrays;
+
+/**
+ * This class checks that {@link SequenceRanges} decodes the sequence numbers sent by a client, and rejects encodings that
+ * a client could send to make the server decode more numbers than there are packets. Each check throws an
+ * {@link IllegalStateException} if it fails.
+ * <p>
+ * Usage: <code>java src.tests.SequenceRangesTest</code>
+ */
+public class SequenceRangesTest {
+
+    public static void main(String[] args) {
+        encodesAndDecodesRanges();
+        rejectsFullIntRange();
+        rejectsTotalAboveIntMax();
+        rejectsRangeWithStartAfterEnd();
+        decodesRangeEndingAtIntMax();
+        System.out.println("SequenceRangesTest passed");
+    }
+
+    private static void encodesAndDecodesRanges() {
+        SequenceRanges ranges = new SequenceRanges();
+        for (int sequenceNum : new int[]{3, 4, 5, 9, 12, 13}) {
+            ranges.add(sequenceNum);
+        }
+        String encoded = ranges.toString();
+        check(SequenceRanges.count(encoded) == 6, "count of " + encoded);
+        check(Arrays.equals(SequenceRanges.toArray(encoded), new int[]{3, 4, 5, 9, 12, 13}), "numbers of " + encoded);
+    }
+
+    private static void rejectsFullIntRange() {
+        checkRejected("[0-2147483647]");
+    }
+
+    private static void rejectsTotalAboveIntMax() {
+        checkRejected("[0-2147483646,2147483647]");
+        checkRejected("[1-2147483647,0-1]");
+    }
+
+    private static void rejectsRangeWithStartAfterEnd() {
+        checkRejected("[9-3]");
+        checkRejected("[1,9-3]");
+    }
+
+    private static void decodesRangeEndingAtIntMax() {
+        String encoded = "[2147483645-2147483647]";
+        check(SequenceRanges.count(encoded) == 3, "count of " + encoded);
+        check(Arrays.equals(SequenceRanges.toArray(encoded), new int[]{2147483645, 2147483646, 2147483647}),
+                "numbers of " + encoded);
+    }
+
+    private static void checkRejected(String encoded) {
+        try {
+            SequenceRanges.count(encoded);
+        } catch (IllegalArgumentException e) {
+            return;
+        }
+        throw new IllegalStateException("Counting '" + encoded + "' did not throw an IllegalArgumentException");
+    }
+
+    private static void check(boolean condition, String description) {
+        if (!condition) {
+            throw new IllegalStateException("Check failed: " + description);
+        }
+    }
+}